@@ -0,0 +1,132 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what <code>append()</code> costs the logging thread, with as
+ * many threads logging at once as there are cores and fewer, against a
+ * server that accepts everything instantly.
+ * <p>
+ * With duplicate events every thread reports the same bug, so this is
+ * mostly the duplicate check under contention. With distinct events each
+ * bug is new and goes on to the queue, which is left to drop what the
+ * sender can't keep up with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppendBenchmark {
+
+    private static final int EVENTS = 1024;
+
+    @Param({"duplicate", "distinct"})
+    public String events;
+
+    @Param({"true", "false"})
+    public boolean locationInfo;
+
+    private ExceptionalAppender appender;
+
+    private LoggingEvent[] logged;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setUp() {
+        final HttpStrategy http = new HttpStrategy() {
+            public HttpResponse execute(final HttpGet request) {
+                throw new UnsupportedOperationException();
+            }
+
+            public HttpResponse execute(final HttpPost request) {
+                return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            }
+        };
+        appender = new ExceptionalAppender("benchmark", 
+            new ExceptionalAppenderCallback() {
+                public boolean addData(final JSONObject json, 
+                    final LoggingEvent le) {
+                    return true;
+                }
+            }, true, Level.WARN, http);
+        appender.setLocationInfo(locationInfo);
+        appender.setJmx(false);
+        // Measure the path every event takes, not the sampler or rate 
+        // limiter turning them away.
+        appender.setSamplingThreshold(0);
+        appender.setRateLimit(0);
+        appender.setFingerprintRateLimit(0);
+
+        final Logger logger = Logger.getLogger(AppendBenchmark.class);
+        logged = new LoggingEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            final IOException e = new IOException("Connection reset " + i);
+            if ("distinct".equals(events)) {
+                // A different stack trace makes it a different bug.
+                final StackTraceElement[] trace = e.getStackTrace();
+                trace[0] = new StackTraceElement("org.example.Service" + i,
+                    "call", "Service.java", i);
+                e.setStackTrace(trace);
+            }
+            logged[i] = new LoggingEvent(AppendBenchmark.class.getName(),
+                logger, Level.ERROR, "Request failed", e);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.close();
+    }
+
+    private void append(final Cursor cursor) {
+        appender.append(logged[cursor.next++ & (EVENTS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneThread(final Cursor cursor) {
+        append(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourThreads(final Cursor cursor) {
+        append(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void allCores(final Cursor cursor) {
+        append(cursor);
+    }
+}
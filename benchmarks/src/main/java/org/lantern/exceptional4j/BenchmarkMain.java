@@ -0,0 +1,25 @@
+package org.lantern.exceptional4j;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so each reports its allocation
+ * rate along with its timings. Takes the usual JMH arguments, for example
+ * <code>java -jar benchmarks/target/benchmarks.jar AppendBenchmark</code>
+ * to run a single suite.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(final String... args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
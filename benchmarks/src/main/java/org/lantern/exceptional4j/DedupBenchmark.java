@@ -0,0 +1,71 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the duplicate check on its own under contention, with every
+ * thread checking the same few bugs or spread across many.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupBenchmark {
+
+    @Param({"1", "1000"})
+    public int bugs;
+
+    private final DedupCache<Long> cache =
+        new DedupCache<Long>(1000, TimeUnit.HOURS.toMillis(1));
+
+    private final Long[] keys = new Long[1024];
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Long.valueOf((i % bugs) * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    private long record(final Cursor cursor) {
+        return cache.record(keys[cursor.next++ & (keys.length - 1)]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long oneThread(final Cursor cursor) {
+        return record(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long fourThreads(final Cursor cursor) {
+        return record(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long allCores(final Cursor cursor) {
+        return record(cursor);
+    }
+}
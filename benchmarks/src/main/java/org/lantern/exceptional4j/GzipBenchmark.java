@@ -0,0 +1,81 @@
+package org.lantern.exceptional4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures compressing a request, with the buffer the appender uses at each
+ * of the levels it picks between, and with a new stream each time as it
+ * used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipBenchmark {
+
+    @Param({"2048", "65536"})
+    public int size;
+
+    /**
+     * Best speed, the default, and best compression.
+     */
+    @Param({"1", "6", "9"})
+    public int level;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        // Repetitive like a real batch of bugs, with some noise.
+        final String bug = "{\"exception\":{\"message\":\"Request failed\"," +
+            "\"backtrace\":[\"java.io.IOException: Connection reset\"," +
+            "\"at org.example.Service.call(Service.java:42)\"]," +
+            "\"occurred_at\":\"2013-01-01T00:00:00.000+00:00\"}}";
+        final StringBuilder sb = new StringBuilder(size);
+        final Random random = new Random(1);
+        while (sb.length() < size) {
+            sb.append(bug).append(random.nextInt()).append(',');
+        }
+        json = sb.substring(0, size).getBytes();
+    }
+
+    @Benchmark
+    public int pooled() {
+        final GzipBuffer gzip = GzipBuffer.acquire();
+        try {
+            gzip.begin(level);
+            gzip.write(json, 0, json.length);
+            gzip.finish();
+            return gzip.size();
+        } finally {
+            GzipBuffer.release(gzip);
+        }
+    }
+
+    @Benchmark
+    public int stream() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        gzip.write(json);
+        gzip.close();
+        return baos.size();
+    }
+}
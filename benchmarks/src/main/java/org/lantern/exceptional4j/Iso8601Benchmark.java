@@ -0,0 +1,48 @@
+package org.lantern.exceptional4j;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures formatting the time a bug occurred.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Iso8601Benchmark {
+
+    private final Date date = new Date(1357000000000L);
+
+    private final StringBuilder sb = new StringBuilder();
+
+    private long millis = date.getTime();
+
+    @Benchmark
+    public String iso8601() {
+        return ExceptionalUtils.iso8601(date);
+    }
+
+    /**
+     * Appends a new time each call, crossing a second every thousand calls
+     * the way a busy appender does.
+     */
+    @Benchmark
+    public StringBuilder iso8601Append() {
+        sb.setLength(0);
+        ExceptionalUtils.iso8601(millis++, sb);
+        return sb;
+    }
+}
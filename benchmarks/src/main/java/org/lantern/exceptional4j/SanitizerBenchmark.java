@@ -0,0 +1,78 @@
+package org.lantern.exceptional4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares applying ten redaction rules one after another, as the appender
+ * used to, with applying them as a single {@link CompositeSanitizer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizerBenchmark {
+
+    @Param({"clean", "dirty"})
+    public String input;
+
+    private String message;
+
+    private List<RegexSanitizer> rules;
+
+    private Sanitizer composite;
+
+    @Setup
+    public void setUp() {
+        rules = new ArrayList<RegexSanitizer>(Arrays.asList(
+            new RegexSanitizer("(?:[0-9]{1,3}\\.){3}[0-9]{1,3}",
+                "???.???.???.???"),
+            new RegexSanitizer("[\\w.+-]+@[\\w-]+\\.[\\w.-]+", "<email>"),
+            new RegexSanitizer("(?i)bearer\\s+[\\w.~+/-]+=*", "Bearer <token>"),
+            new RegexSanitizer("api_key=\\w+", "api_key=<key>"),
+            new RegexSanitizer("password=[^&\\s]+", "password=<password>"),
+            new RegexSanitizer("\\b\\d{4}-\\d{4}-\\d{4}-\\d{4}\\b", "<card>"),
+            new RegexSanitizer("/home/\\w+", "/home/<user>"),
+            new RegexSanitizer("C:\\\\Users\\\\\\w+", "C:\\\\Users\\\\<user>"),
+            new RegexSanitizer("session=[0-9a-f]{32}", "session=<session>"),
+            new RegexSanitizer("\\+\\d{11,14}", "<phone>")));
+        composite = new CompositeSanitizer(rules);
+        if ("clean".equals(input)) {
+            message = "Could not connect to the proxy after 3 attempts, "
+                + "giving up and falling back to a direct connection";
+        } else {
+            message = "Could not connect to 192.168.1.20 for bob@example.com "
+                + "with api_key=abcdef123 from /home/bob, giving up";
+        }
+    }
+
+    @Benchmark
+    public String chain() {
+        String result = message;
+        for (final Sanitizer rule : rules) {
+            result = rule.sanitize(result);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public String composite() {
+        return composite.sanitize(message);
+    }
+}
@@ -0,0 +1,95 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lantern.exceptional4j.contrib.EmailSanitizer;
+import org.lantern.exceptional4j.contrib.IPv4Sanitizer;
+import org.lantern.exceptional4j.contrib.IPv6Sanitizer;
+import org.lantern.exceptional4j.contrib.TokenSanitizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the hand-written scanners in contrib with the regexes they
+ * replace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+
+    @Param({"ipv4", "ipv6", "email", "token"})
+    public String kind;
+
+    @Param({"clean", "dirty"})
+    public String input;
+
+    private Sanitizer regex;
+
+    private Sanitizer scanner;
+
+    private String message;
+
+    @Setup
+    public void setUp() {
+        final String dirty;
+        if ("ipv4".equals(kind)) {
+            regex = new RegexSanitizer("(?:[0-9]{1,3}\\.){3}[0-9]{1,3}",
+                "???.???.???.???");
+            scanner = new IPv4Sanitizer();
+            dirty = "connecting to 192.168.1.20 port 443";
+        } else if ("ipv6".equals(kind)) {
+            regex = new RegexSanitizer("(?i)(?<![\\w:.])(?:"
+                + "(?:[0-9a-f]{1,4}:){7}[0-9a-f]{1,4}|"
+                + "(?:[0-9a-f]{1,4}:){1,7}:|"
+                + "(?:[0-9a-f]{1,4}:){1,6}:[0-9a-f]{1,4}|"
+                + "(?:[0-9a-f]{1,4}:){1,5}(?::[0-9a-f]{1,4}){1,2}|"
+                + "(?:[0-9a-f]{1,4}:){1,4}(?::[0-9a-f]{1,4}){1,3}|"
+                + "(?:[0-9a-f]{1,4}:){1,3}(?::[0-9a-f]{1,4}){1,4}|"
+                + "(?:[0-9a-f]{1,4}:){1,2}(?::[0-9a-f]{1,4}){1,5}|"
+                + "[0-9a-f]{1,4}:(?::[0-9a-f]{1,4}){1,6}|"
+                + ":(?::[0-9a-f]{1,4}){1,7})(?![\\w:])", "????:????");
+            scanner = new IPv6Sanitizer();
+            dirty = "connecting to 2001:db8::8a2e:370:7334 port 443";
+        } else if ("email".equals(kind)) {
+            regex = new RegexSanitizer(
+                "[\\w.%+-]+@[A-Za-z0-9-]+(?:\\.[A-Za-z0-9-]+)*\\.[A-Za-z]{2,}",
+                "???@???");
+            scanner = new EmailSanitizer();
+            dirty = "could not deliver to first.last@mail.example.com today";
+        } else {
+            regex = new RegexSanitizer("(?i)(?<=bearer\\s)[\\w.~+/-]{8,}=*|"
+                + "(?<=api_key=)[\\w.~+/-]+", "???");
+            scanner = new TokenSanitizer();
+            dirty = "request failed with Authorization: Bearer eyJhbGciOi.x";
+        }
+        if ("clean".equals(input)) {
+            message = "Could not connect to the proxy after three attempts, "
+                + "giving up and falling back to a direct connection";
+        } else {
+            message = dirty;
+        }
+    }
+
+    @Benchmark
+    public String regex() {
+        return regex.sanitize(message);
+    }
+
+    @Benchmark
+    public String scanner() {
+        return scanner.sanitize(message);
+    }
+}
@@ -0,0 +1,100 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing a bug out as JSON, both streamed straight to bytes and
+ * built up as JSON objects the way it was before. With a callback the
+ * environment has to be built as an object for it to edit either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"none", "addData"})
+    public String callback;
+
+    private ExceptionalAppender appender;
+
+    private LoggingEvent logged;
+
+    private EventSnapshot event;
+
+    private final ByteBuf buffer = new ByteBuf(8192);
+
+    private final JsonWriter json = new JsonWriter(buffer);
+
+    @Setup
+    public void setUp() {
+        final HttpStrategy http = new HttpStrategy() {
+            public HttpResponse execute(final HttpGet request) {
+                throw new UnsupportedOperationException();
+            }
+
+            public HttpResponse execute(final HttpPost request) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        if ("none".equals(callback)) {
+            appender = new ExceptionalAppender("benchmark", false);
+        } else {
+            appender = new ExceptionalAppender("benchmark", 
+                new ExceptionalAppenderCallback() {
+                    @SuppressWarnings("unchecked")
+                    public boolean addData(final JSONObject json, 
+                        final LoggingEvent le) {
+                        json.put("version", "1.2.3");
+                        return true;
+                    }
+                }, false, Level.WARN, http);
+        }
+        appender.setJmx(false);
+        logged = new LoggingEvent(SerializationBenchmark.class.getName(),
+            Logger.getLogger(SerializationBenchmark.class), Level.ERROR,
+            "Could not connect to 10.0.0.1", new IOException("Timed out"));
+        event = ExceptionalAppender.snapshot(logged, true, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.close();
+    }
+
+    @Benchmark
+    public int streamed() {
+        appender.writeBug(event, json.reset(buffer));
+        final int size = buffer.size();
+        buffer.setSize(0);
+        return size;
+    }
+
+    @Benchmark
+    public String objects() {
+        return appender.exceptionData(logged).toJSONString();
+    }
+}
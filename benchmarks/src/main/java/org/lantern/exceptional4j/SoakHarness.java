@@ -0,0 +1,230 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+/**
+ * Logs from many threads at once through an {@link ExceptionalAppender}
+ * for a while, sending to a {@link FakeExceptionalServer} that's slow and
+ * fails some requests, then reports how much got through and how long it
+ * took. Run as, for example:
+ * <pre>
+ *     java -cp benchmarks/target/benchmarks.jar \
+ *         org.lantern.exceptional4j.SoakHarness threads=32 seconds=600
+ * </pre>
+ * Arguments, all optional, are <code>name=value</code> pairs:
+ * <ul>
+ * <li><code>threads</code>: logging threads, 16 by default</li>
+ * <li><code>seconds</code>: how long to log for, 60 by default</li>
+ * <li><code>rate</code>: events a second from each thread, 100 by default,
+ * or 0 to log as fast as possible</li>
+ * <li><code>bugs</code>: how many different bugs are logged, 100 by
+ * default</li>
+ * <li><code>latency</code>: how long the server takes to answer, in
+ * milliseconds, 20 by default</li>
+ * <li><code>errors</code>, <code>rateLimits</code> and <code>resets</code>:
+ * the share of requests the server answers with a 500, a 429 or by
+ * dropping the connection, 0.01 each by default</li>
+ * <li><code>batch</code>: the appender's batch size, 50 by default</li>
+ * <li><code>senders</code>: the appender's sender threads, 1 by
+ * default</li>
+ * <li><code>queue</code>: the appender's queue capacity, 1024 by
+ * default</li>
+ * </ul>
+ * Duplicate detection, sampling and rate limiting are turned off, so every
+ * event logged should arrive and anything that doesn't is loss. Each
+ * event's message carries the time it was logged, which gives the delivery
+ * latency when the server receives it. Heap growth is measured after a
+ * full collection before and after the run.
+ */
+public final class SoakHarness {
+
+    private static final String PREFIX = "soak ";
+
+    private SoakHarness() {
+    }
+
+    public static void main(final String... args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>();
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " +
+                    arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        final int threads = Integer.parseInt(option(options, "threads", "16"));
+        final int seconds = Integer.parseInt(option(options, "seconds", "60"));
+        final int rate = Integer.parseInt(option(options, "rate", "100"));
+        final int bugs = Integer.parseInt(option(options, "bugs", "100"));
+        final long latency = Long.parseLong(option(options, "latency", "20"));
+        final double errors =
+            Double.parseDouble(option(options, "errors", "0.01"));
+        final double rateLimits =
+            Double.parseDouble(option(options, "rateLimits", "0.01"));
+        final double resets =
+            Double.parseDouble(option(options, "resets", "0.01"));
+        final int batch = Integer.parseInt(option(options, "batch", "50"));
+        final int queue = Integer.parseInt(option(options, "queue", "1024"));
+        final int senders = Integer.parseInt(option(options, "senders", "1"));
+
+        final FakeExceptionalServer server = new FakeExceptionalServer();
+        server.setLatencyMillis(latency);
+        server.setFaultRate(FakeExceptionalServer.Fault.ERROR, errors);
+        server.setFaultRate(FakeExceptionalServer.Fault.RATE_LIMIT,
+            rateLimits);
+        server.setFaultRate(FakeExceptionalServer.Fault.RESET, resets);
+        final LatencyHistogram delivery = new LatencyHistogram();
+        server.setListener(new FakeExceptionalServer.Listener() {
+            public void received(final JSONObject bug) {
+                final long now = System.nanoTime();
+                final Object message =
+                    ((JSONObject) bug.get("exception")).get("message");
+                if (message instanceof String &&
+                    ((String) message).startsWith(PREFIX)) {
+                    delivery.record(now - Long.parseLong(
+                        ((String) message).substring(PREFIX.length())));
+                }
+            }
+        });
+
+        final ExceptionalAppender appender =
+            new ExceptionalAppender("soak", true);
+        appender.setEndpoint(server.getEndpoint());
+        appender.setLocationInfo(false);
+        appender.setDedupWindowMillis(0);
+        appender.setSamplingThreshold(0);
+        appender.setRateLimit(0);
+        appender.setFingerprintRateLimit(0);
+        appender.setBatchSize(batch);
+        appender.setQueueCapacity(queue);
+        appender.setSenders(senders);
+        appender.setJmx(false);
+        appender.activateOptions();
+        final Logger logger = Logger.getLogger(SoakHarness.class);
+        logger.setAdditivity(false);
+        logger.removeAllAppenders();
+        logger.addAppender(appender);
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final long heapBefore = heapAfterGc(memory);
+        final AtomicLong logged = new AtomicLong();
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final Thread t = new Thread(new Runnable() {
+                public void run() {
+                    long next = System.nanoTime();
+                    int n = 0;
+                    try {
+                        while (next - end < 0) {
+                            final long now = System.nanoTime();
+                            logger.error(PREFIX + now, bug(n++ % bugs));
+                            logged.incrementAndGet();
+                            if (interval > 0) {
+                                next += interval;
+                                final long wait = next - System.nanoTime();
+                                if (wait > 0) {
+                                    LockSupport.parkNanos(wait);
+                                }
+                            } else {
+                                next = System.nanoTime();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "soak-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        long heapPeak = 0L;
+        while (!done.await(1, TimeUnit.SECONDS)) {
+            heapPeak = Math.max(heapPeak,
+                memory.getHeapMemoryUsage().getUsed());
+        }
+        final long logging = System.nanoTime() - start;
+        logger.removeAppender(appender);
+        appender.close();
+        final long elapsed = System.nanoTime() - start;
+        final long heapAfter = heapAfterGc(memory);
+        server.stop();
+
+        final AppenderMetrics metrics = appender.getMetrics();
+        final long delivered = server.getBugCount();
+        final long lost = Math.max(0L, logged.get() - delivered);
+        System.out.println();
+        System.out.printf("Logged        %,d events from %d threads in %.1f s "
+            + "(%,.0f/s)%n", logged.get(), threads, seconds(logging),
+            logged.get() / seconds(logging));
+        System.out.printf("Delivered     %,d events in %.1f s (%,.0f/s), "
+            + "%,d requests%n", delivered, seconds(elapsed),
+            delivered / seconds(elapsed), server.getAcceptedCount());
+        System.out.printf("Lost          %,d (%.3f%%): %,d dropped, "
+            + "%,d abandoned, %,d failed%n", lost,
+            100.0 * lost / Math.max(1L, logged.get()),
+            metrics.getDroppedCount(), appender.getAbandonedCount(),
+            metrics.getFailedCount());
+        System.out.printf("Faults        %,d errors, %,d rate limits, "
+            + "%,d resets%n",
+            server.getFaultCount(FakeExceptionalServer.Fault.ERROR),
+            server.getFaultCount(FakeExceptionalServer.Fault.RATE_LIMIT),
+            server.getFaultCount(FakeExceptionalServer.Fault.RESET));
+        System.out.printf("Latency       p50 %,d ms, p99 %,d ms, "
+            + "max %,d ms%n",
+            millis(delivery.getValueAtPercentile(50)),
+            millis(delivery.getValueAtPercentile(99)),
+            millis(delivery.getMax()));
+        System.out.printf("Heap          %,d KB before, %,d KB after, "
+            + "%+,d KB growth, %,d KB peak%n", heapBefore / 1024,
+            heapAfter / 1024, (heapAfter - heapBefore) / 1024,
+            heapPeak / 1024);
+    }
+
+    /**
+     * @return A throwable with a stack, and so a fingerprint, of its own for
+     * each number.
+     */
+    private static Throwable bug(final int number) {
+        final IOException e = new IOException("soak");
+        final StackTraceElement[] stack = e.getStackTrace();
+        stack[0] = new StackTraceElement(SoakHarness.class.getName(),
+            "bug" + number, "SoakHarness.java", number);
+        e.setStackTrace(stack);
+        return e;
+    }
+
+    private static String option(final Map<String, String> options,
+        final String name, final String defaultValue) {
+        final String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static long heapAfterGc(final MemoryMXBean memory) {
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double seconds(final long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
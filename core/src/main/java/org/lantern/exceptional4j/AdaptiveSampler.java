@@ -0,0 +1,142 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Samples events for each of a fixed number of slots keys are hashed into,
+ * keeping every event while a slot sees no more than a threshold a second
+ * and a random sample of them above that. Each event kept comes with the 
+ * probability it was kept with, so the number logged can be estimated by
+ * adding up one over that for each event reported.
+ * <p>
+ * Each slot is a single long holding the second it's counting and how 
+ * many events it's seen in it, updated with a compare-and-set, alongside
+ * the count for the second before. The rate is whichever of the two is 
+ * higher, so sampling starts as soon as a second goes over the threshold 
+ * and carries on from the start of the next. Deciding takes no locks and
+ * allocates nothing, so it's cheap enough for the logging thread.
+ * <p>
+ * Each slot also counts the events it drops until one is kept, so the 
+ * event kept can say exactly how many it stands for.
+ */
+final class AdaptiveSampler {
+
+    /**
+     * Returned for events that aren't kept.
+     */
+    static final double DROP = 0.0;
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long COUNT_MASK = 0xffffffffL;
+
+    private final int perSecond;
+
+    /**
+     * For each slot, the second counted in the high half and the count in
+     * the low half.
+     */
+    private final AtomicLongArray windows;
+
+    private final AtomicLongArray previousCounts;
+
+    private final AtomicLongArray dropped;
+
+    private final int mask;
+
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param slots The number of slots, rounded up to a power of two.
+     * @param perSecond How many events a second each slot keeps before it
+     * samples, or 0 to keep everything.
+     */
+    AdaptiveSampler(final int slots, final int perSecond) {
+        int n = 1;
+        while (n < slots) {
+            n <<= 1;
+        }
+        this.mask = n - 1;
+        this.windows = new AtomicLongArray(n);
+        this.previousCounts = new AtomicLongArray(n);
+        this.dropped = new AtomicLongArray(n);
+        this.perSecond = perSecond;
+    }
+
+    /**
+     * Counts an event and decides whether to keep it.
+     *
+     * @param key The key, such as a fingerprint.
+     * @return The probability the event was kept with, from just above 0 to
+     * 1, or {@link #DROP} if it wasn't kept.
+     */
+    double sample(final long key) {
+        if (perSecond <= 0) {
+            return 1.0;
+        }
+        final int slot = (int) (key ^ (key >>> 32)) & mask;
+        final long now = System.nanoTime() - origin;
+        final long second = (now / SECOND_NANOS) & COUNT_MASK;
+        long count;
+        long previous;
+        while (true) {
+            final long window = windows.get(slot);
+            final long counted = window >>> 32;
+            if (counted == second) {
+                count = (window & COUNT_MASK) + 1;
+                if (count > COUNT_MASK || 
+                    windows.compareAndSet(slot, window, window + 1)) {
+                    previous = previousCounts.get(slot);
+                    break;
+                }
+            } else if (windows.compareAndSet(slot, window, 
+                (second << 32) | 1L)) {
+                // Only the second just gone says anything about the rate.
+                previous = counted == ((second - 1) & COUNT_MASK) ? 
+                    window & COUNT_MASK : 0L;
+                previousCounts.set(slot, previous);
+                count = 1L;
+                break;
+            }
+        }
+        final long rate = Math.max(count, previous);
+        if (rate <= perSecond) {
+            return 1.0;
+        }
+        final double probability = (double) perSecond / rate;
+        if (random(key, now, count) < probability) {
+            return probability;
+        }
+        dropped.incrementAndGet(slot);
+        return DROP;
+    }
+
+    /**
+     * Takes the count of events dropped for a key's slot since one was last
+     * kept, for the event kept now to carry.
+     *
+     * @param key The key the event kept was sampled by.
+     * @return The number of events dropped.
+     */
+    long takeDropped(final long key) {
+        final int slot = (int) (key ^ (key >>> 32)) & mask;
+        // Reading first keeps the common case from writing to shared memory.
+        return dropped.get(slot) == 0L ? 0L : dropped.getAndSet(slot, 0L);
+    }
+
+    /**
+     * @return A number from 0 to 1 that's as good as random for sampling, 
+     * mixed from the key, the time and the count, which no two events in a
+     * slot share, so it needs no state shared between threads.
+     */
+    private static double random(final long key, final long now, 
+        final long count) {
+        long z = key * 0x9e3779b97f4a7c15L + now + 
+            count * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+}
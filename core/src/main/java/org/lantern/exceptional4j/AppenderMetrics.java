@@ -0,0 +1,367 @@
+package org.lantern.exceptional4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts and timings for an {@link ExceptionalReporter}, from
+ * {@link ExceptionalReporter#getMetrics()} or over JMX.
+ * <p>
+ * Everything is counted without locks, and what's counted on the logging
+ * thread uses counters striped by thread, so keeping these costs next to
+ * nothing.
+ */
+public final class AppenderMetrics implements AppenderMetricsMXBean {
+
+    /**
+     * The failures counted by status code, with the last slot for requests
+     * that got no response.
+     */
+    private static final int STATUS_SLOTS = 600;
+
+    private static final ThreadMXBean THREADS = 
+        ManagementFactory.getThreadMXBean();
+
+    private static final boolean CPU_TIME = 
+        THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final ExceptionalReporter reporter;
+
+    final StripedCounter appended = new StripedCounter();
+
+    final StripedCounter filteredByLevel = new StripedCounter();
+
+    final StripedCounter rejectedByFilter = new StripedCounter();
+
+    final StripedCounter sanitized = new StripedCounter();
+
+    final StripedCounter sampledOut = new StripedCounter();
+
+    private final AtomicLong serialized = new AtomicLong();
+
+    final AtomicLong truncated = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLongArray failuresByStatus =
+        new AtomicLongArray(STATUS_SLOTS + 1);
+
+    private final AtomicInteger queueHighWaterMark = new AtomicInteger();
+
+    private final LatencyHistogram serialization = new LatencyHistogram();
+
+    private final LatencyHistogram compression = new LatencyHistogram();
+
+    private final LatencyHistogram http = new LatencyHistogram();
+
+    private final AtomicLong payloadBytes = new AtomicLong();
+
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    private final AtomicLong uncompressed = new AtomicLong();
+
+    private final AtomicLong compressionCpuNanos = new AtomicLong();
+
+    AppenderMetrics(final ExceptionalReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    void serialized(final long nanos) {
+        serialized.incrementAndGet();
+        serialization.record(nanos);
+    }
+
+    /**
+     * Records compressing a request, or sending it as it is.
+     *
+     * @param nanos How long it took.
+     * @param cpuNanos The CPU time it took, or -1 if that's not known.
+     * @param in The size of the JSON.
+     * @param out The size of what was sent.
+     * @param gzipped Whether the JSON was compressed.
+     */
+    void compressed(final long nanos, final long cpuNanos, final int in, 
+        final int out, final boolean gzipped) {
+        compression.record(nanos);
+        if (cpuNanos >= 0L) {
+            compressionCpuNanos.addAndGet(cpuNanos);
+        }
+        payloadBytes.addAndGet(in);
+        requestBytes.addAndGet(out);
+        if (!gzipped) {
+            uncompressed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The CPU time the current thread has used, or -1 if the JVM
+     * can't say.
+     */
+    static long cpuNanos() {
+        if (!CPU_TIME) {
+            return -1L;
+        }
+        try {
+            return THREADS.getCurrentThreadCpuTime();
+        } catch (final UnsupportedOperationException e) {
+            // Virtual threads, for one.
+            return -1L;
+        }
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param bugs The number of bugs in the request.
+     * @param statusCode The status code, or -1 for no response.
+     * @param nanos How long the request took.
+     */
+    void requested(final int bugs, final int statusCode, final long nanos) {
+        http.record(nanos);
+        if (statusCode >= 200 && statusCode < 300) {
+            sent.addAndGet(bugs);
+        } else {
+            failed.incrementAndGet();
+            failuresByStatus.incrementAndGet(
+                statusCode >= 0 && statusCode < STATUS_SLOTS ?
+                    statusCode : STATUS_SLOTS);
+        }
+    }
+
+    void queueDepth(final int depth) {
+        while (true) {
+            final int highest = queueHighWaterMark.get();
+            if (depth <= highest || 
+                queueHighWaterMark.compareAndSet(highest, depth)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The number of events that reached the appender.
+     */
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    /**
+     * @return The number of events ignored for being below the reporting
+     * level.
+     */
+    public long getFilteredByLevelCount() {
+        return filteredByLevel.get();
+    }
+
+    public long getDedupedCount() {
+        return reporter.getSuppressedCount();
+    }
+
+    /**
+     * @return The number of events an {@link EventFilter} turned away.
+     */
+    public long getRejectedByFilterCount() {
+        return rejectedByFilter.get();
+    }
+
+    /**
+     * @return The number of events left out of the sample of a bug logged 
+     * too often.
+     */
+    public long getSampledOutCount() {
+        return sampledOut.get();
+    }
+
+    public long getRateLimitedCount() {
+        return reporter.getRateLimitedCount();
+    }
+
+    public long getDroppedCount() {
+        return reporter.getDroppedCount();
+    }
+
+    /**
+     * @return The number of strings a sanitizer changed.
+     */
+    public long getSanitizedCount() {
+        return sanitized.get();
+    }
+
+    /**
+     * @return The number of bugs written out to be sent.
+     */
+    public long getSerializedCount() {
+        return serialized.get();
+    }
+
+    /**
+     * @return The number of bugs cut down to fit the size limits.
+     */
+    public long getTruncatedCount() {
+        return truncated.get();
+    }
+
+    /**
+     * @return The number of bugs the server accepted, not counting those 
+     * sent again from the spool.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return The number of requests that failed, counting each attempt.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public Map<Integer, Long> getFailuresByStatus() {
+        final Map<Integer, Long> failures = new TreeMap<Integer, Long>();
+        for (int i = 0; i <= STATUS_SLOTS; i++) {
+            final long n = failuresByStatus.get(i);
+            if (n > 0L) {
+                failures.put(Integer.valueOf(i == STATUS_SLOTS ? -1 : i),
+                    Long.valueOf(n));
+            }
+        }
+        return failures;
+    }
+
+    public List<String> getRecentFailures() {
+        final List<String> failures = new ArrayList<String>();
+        for (final DeliveryFailure f : reporter.getRecentFailures()) {
+            failures.add(f.toString());
+        }
+        return failures;
+    }
+
+    public int getQueueDepth() {
+        return reporter.getQueueDepth();
+    }
+
+    /**
+     * @return The most events seen waiting in the queue.
+     */
+    public int getQueueHighWaterMark() {
+        return queueHighWaterMark.get();
+    }
+
+    public int getSpooledCount() {
+        return reporter.getSpooledCount();
+    }
+
+    public String getCircuitState() {
+        return reporter.getCircuitState();
+    }
+
+    /**
+     * @return How long writing out each bug took.
+     */
+    public LatencyHistogram getSerializationLatency() {
+        return serialization;
+    }
+
+    /**
+     * @return How long compressing each request took.
+     */
+    public LatencyHistogram getCompressionLatency() {
+        return compression;
+    }
+
+    /**
+     * @return How long each request took, from sending it to reading the
+     * response.
+     */
+    public LatencyHistogram getHttpLatency() {
+        return http;
+    }
+
+    /**
+     * @return The size of the JSON of the requests sent, before compression.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.get();
+    }
+
+    /**
+     * @return The size of the requests sent, after compression.
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * @return How many bytes compression saved, which can be less than 
+     * nothing for requests that hardly compress.
+     */
+    public long getBytesSaved() {
+        return payloadBytes.get() - requestBytes.get();
+    }
+
+    /**
+     * @return The number of requests sent without compressing them, as they
+     * were too small to be worth it.
+     */
+    public long getUncompressedCount() {
+        return uncompressed.get();
+    }
+
+    /**
+     * @return The CPU time spent compressing requests, where the JVM can
+     * measure it.
+     */
+    public long getCompressionCpuMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compressionCpuNanos.get());
+    }
+
+    public long getSerializationP50Micros() {
+        return micros(serialization.getValueAtPercentile(50));
+    }
+
+    public long getSerializationP99Micros() {
+        return micros(serialization.getValueAtPercentile(99));
+    }
+
+    public long getSerializationMaxMicros() {
+        return micros(serialization.getMax());
+    }
+
+    public long getCompressionP50Micros() {
+        return micros(compression.getValueAtPercentile(50));
+    }
+
+    public long getCompressionP99Micros() {
+        return micros(compression.getValueAtPercentile(99));
+    }
+
+    public long getCompressionMaxMicros() {
+        return micros(compression.getMax());
+    }
+
+    public long getHttpP50Micros() {
+        return micros(http.getValueAtPercentile(50));
+    }
+
+    public long getHttpP99Micros() {
+        return micros(http.getValueAtPercentile(99));
+    }
+
+    public long getHttpMaxMicros() {
+        return micros(http.getMax());
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,83 @@
+package org.lantern.exceptional4j;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What an {@link ExceptionalReporter} exposes over JMX. Durations are in
+ * microseconds.
+ */
+public interface AppenderMetricsMXBean {
+
+    long getAppendedCount();
+
+    long getFilteredByLevelCount();
+
+    long getRejectedByFilterCount();
+
+    long getDedupedCount();
+
+    long getSampledOutCount();
+
+    long getRateLimitedCount();
+
+    long getDroppedCount();
+
+    long getSanitizedCount();
+
+    long getSerializedCount();
+
+    long getTruncatedCount();
+
+    long getSentCount();
+
+    long getFailedCount();
+
+    /**
+     * @return The number of failed requests for each status code, with -1
+     * for requests that got no response.
+     */
+    Map<Integer, Long> getFailuresByStatus();
+
+    /**
+     * @return The last few failed requests, oldest first, each with when it
+     * failed, its status and the start of the response.
+     */
+    List<String> getRecentFailures();
+
+    int getQueueDepth();
+
+    int getQueueHighWaterMark();
+
+    int getSpooledCount();
+
+    String getCircuitState();
+
+    long getPayloadBytes();
+
+    long getRequestBytes();
+
+    long getBytesSaved();
+
+    long getUncompressedCount();
+
+    long getCompressionCpuMillis();
+
+    long getSerializationP50Micros();
+
+    long getSerializationP99Micros();
+
+    long getSerializationMaxMicros();
+
+    long getCompressionP50Micros();
+
+    long getCompressionP99Micros();
+
+    long getCompressionMaxMicros();
+
+    long getHttpP50Micros();
+
+    long getHttpP99Micros();
+
+    long getHttpMaxMicros();
+}
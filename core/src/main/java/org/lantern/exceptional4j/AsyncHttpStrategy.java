@@ -0,0 +1,27 @@
+package org.lantern.exceptional4j;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * {@link HttpStrategy} that can also send requests without blocking, so the
+ * appender's sender thread can keep several requests in flight at once.
+ * <p>
+ * The appender doesn't wait for the response to requests sent this way, so
+ * batches the server rejects as too large are dropped rather than split and
+ * sent again. Use a spool directory to keep requests that fail.
+ */
+public interface AsyncHttpStrategy extends HttpStrategy {
+
+    /**
+     * Sends a request, calling back when it completes. This may block while
+     * the most requests allowed are already in flight, but never for the
+     * request itself.
+     *
+     * @param request The request.
+     * @param callback Called with the response or the failure, on a thread
+     * of the strategy's choosing, which mustn't be blocked for long.
+     */
+    void execute(HttpPost request, FutureCallback<HttpResponse> callback);
+}
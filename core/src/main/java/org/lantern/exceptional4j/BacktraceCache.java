@@ -0,0 +1,274 @@
+package org.lantern.exceptional4j;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the rendered and JSON encoded stack frames of throwables
+ * by {@link Fingerprint}, so a bug that fires over and over only pays for
+ * rendering its backtrace the first time.
+ * <p>
+ * Only the frames are cached. The line introducing each throwable in the
+ * chain includes its message, which can differ between throwables with the
+ * same fingerprint, so those lines are rendered every time.
+ * <p>
+ * Frames a cause shares with the throwable it caused are left out, and
+ * runs of frames that repeat are collapsed, so deep recursion and long
+ * chains of wrapped exceptions don't swamp the report. What's written is
+ * cut to fit a {@link PayloadBudget}.
+ */
+final class BacktraceCache {
+
+    /**
+     * The longest run of frames looked for repeating.
+     */
+    private static final int MAX_PERIOD = 16;
+
+    /**
+     * How many times a run has to appear in a row to be collapsed.
+     */
+    private static final int MIN_REPEATS = 3;
+
+    private final Map<Long, byte[][][]> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity The maximum number of backtraces to keep.
+     */
+    BacktraceCache(final int capacity) {
+        this.cache = new LinkedHashMap<Long, byte[][][]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<Long, byte[][][]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Writes the backtrace of a throwable as elements of the JSON array
+     * currently open in the writer, one per line in the style of
+     * {@link Throwable#printStackTrace()}, within the budget.
+     *
+     * @param json The writer.
+     * @param throwable The throwable.
+     * @param fingerprint The fingerprint of the throwable.
+     * @param budget What's left of the bug's size limits.
+     */
+    void write(final JsonWriter json, final Throwable throwable,
+        final long fingerprint, final PayloadBudget budget) {
+        final Long key = Long.valueOf(fingerprint);
+        byte[][][] frames;
+        synchronized (cache) {
+            frames = cache.get(key);
+        }
+        if (frames == null) {
+            misses.incrementAndGet();
+            frames = render(throwable);
+            synchronized (cache) {
+                cache.put(key, frames);
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+
+        Throwable t = throwable;
+        int i = 0;
+        for (; i < frames.length && t != null; i++) {
+            final String header = i == 0 ? t.toString() : "Caused by: " + t;
+            if (!budget.text(json, header, header.length())) {
+                break;
+            }
+            final byte[][] lines = frames[i];
+            int j = 0;
+            while (j < lines.length && budget.frame(json, lines[j].length)) {
+                json.rawValues(lines[j], 0, lines[j].length);
+                j++;
+            }
+            if (budget.isFull()) {
+                budget.skipped(lines.length - j);
+                i++;
+                break;
+            }
+            budget.dropped(json, lines.length - j);
+            t = t.getCause();
+        }
+        for (; i < frames.length; i++) {
+            budget.skipped(frames[i].length);
+        }
+    }
+
+    /**
+     * Writes a backtrace that only came as text, such as from an event 
+     * read back from a socket, within the budget. Repeated runs of lines 
+     * are collapsed as they are for throwables.
+     *
+     * @param json The writer.
+     * @param lines The lines of the backtrace.
+     * @param budget What's left of the bug's size limits.
+     */
+    static void write(final JsonWriter json, final String[] lines,
+        final PayloadBudget budget) {
+        final String[] trimmed = new String[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            trimmed[i] = lines[i].trim();
+        }
+        final List<String> collapsed = collapse(trimmed, trimmed.length, "");
+        final ByteBuf buf = new ByteBuf(256);
+        final JsonWriter line = new JsonWriter(buf);
+        int dropped = 0;
+        for (int i = 0; i < collapsed.size(); i++) {
+            final String text = collapsed.get(i);
+            if (!text.startsWith("at ") && !text.startsWith("... ")) {
+                // A line introducing a throwable.
+                budget.dropped(json, dropped);
+                dropped = 0;
+                if (!budget.text(json, text, text.length())) {
+                    budget.skipped(collapsed.size() - i - 1);
+                    return;
+                }
+                continue;
+            }
+            line.reset(buf);
+            buf.reset();
+            line.value(text);
+            if (dropped == 0 && budget.frame(json, buf.size())) {
+                json.rawValues(buf.array(), 0, buf.size());
+            } else if (budget.isFull()) {
+                budget.skipped(collapsed.size() - i);
+                return;
+            } else {
+                dropped++;
+            }
+        }
+        budget.dropped(json, dropped);
+    }
+
+    /**
+     * Renders the frames of each throwable in the chain, leaving out the
+     * frames a cause has in common with the throwable it caused, as
+     * {@link Throwable#printStackTrace()} does, and collapsing runs of
+     * frames that repeat, as deep recursion leaves.
+     *
+     * @return The encoded JSON strings, one per line, for each throwable.
+     */
+    private static byte[][][] render(final Throwable throwable) {
+        final Map<Throwable, Boolean> seen =
+            new IdentityHashMap<Throwable, Boolean>();
+        int depth = 0;
+        for (Throwable t = throwable; t != null &&
+            depth < Fingerprint.MAX_CAUSES; t = t.getCause()) {
+            if (seen.put(t, Boolean.TRUE) != null) {
+                break;
+            }
+            depth++;
+        }
+
+        final byte[][][] frames = new byte[depth][][];
+        final ByteBuf buf = new ByteBuf(256);
+        final JsonWriter json = new JsonWriter(buf);
+        StackTraceElement[] enclosing = null;
+        Throwable t = throwable;
+        for (int i = 0; i < depth; i++) {
+            final StackTraceElement[] trace = t.getStackTrace();
+            int m = trace.length - 1;
+            if (enclosing != null) {
+                int n = enclosing.length - 1;
+                while (m >= 0 && n >= 0 && trace[m].equals(enclosing[n])) {
+                    m--;
+                    n--;
+                }
+            }
+            final int inCommon = trace.length - 1 - m;
+
+            final List<String> lines = collapse(trace, m + 1, "at ");
+            if (inCommon != 0) {
+                lines.add("... " + inCommon + " more");
+            }
+            frames[i] = new byte[lines.size()][];
+            for (int j = 0; j < frames[i].length; j++) {
+                buf.reset();
+                json.reset(buf).value(lines.get(j));
+                frames[i][j] = new byte[buf.size()];
+                System.arraycopy(buf.array(), 0, frames[i][j], 0, buf.size());
+            }
+
+            enclosing = trace;
+            t = t.getCause();
+        }
+        return frames;
+    }
+
+    /**
+     * Turns items into lines, replacing runs that repeat, such as the
+     * frames of a recursion, with the first of them and a line saying how
+     * many times they repeat.
+     *
+     * @param items The items, compared with <code>equals</code>.
+     * @param end How many of the items to use.
+     * @param prefix What goes in front of each item.
+     * @return The lines.
+     */
+    static List<String> collapse(final Object[] items, final int end,
+        final String prefix) {
+        final List<String> lines = new ArrayList<String>(end);
+        int i = 0;
+        while (i < end) {
+            int bestPeriod = 0;
+            int bestRepeats = 0;
+            for (int period = 1; period <= MAX_PERIOD && 
+                i + period * MIN_REPEATS <= end; period++) {
+                int repeats = 1;
+                while (i + (repeats + 1) * period <= end && 
+                    same(items, i, i + repeats * period, period)) {
+                    repeats++;
+                }
+                if (repeats >= MIN_REPEATS && 
+                    repeats * period > bestRepeats * bestPeriod) {
+                    bestPeriod = period;
+                    bestRepeats = repeats;
+                }
+            }
+            if (bestPeriod == 0) {
+                lines.add(prefix + items[i]);
+                i++;
+                continue;
+            }
+            for (int j = 0; j < bestPeriod; j++) {
+                lines.add(prefix + items[i + j]);
+            }
+            lines.add("... " + (bestPeriod == 1 ? "the frame above" : 
+                "the " + bestPeriod + " frames above") + " repeated " + 
+                (bestRepeats - 1) + " more times");
+            i += bestPeriod * bestRepeats;
+        }
+        return lines;
+    }
+
+    private static boolean same(final Object[] items, final int a,
+        final int b, final int length) {
+        for (int k = 0; k < length; k++) {
+            if (!items[a + k].equals(items[b + k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,244 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of events waiting to be sent, backed by a ring buffer that is
+ * allocated up front. Any number of threads may offer events without taking
+ * a lock or allocating anything, while a single sending thread takes them.
+ * <p>
+ * Each slot carries a sequence number telling producers and the consumer
+ * whose turn it is to use it, so claiming a slot is a single CAS on the
+ * tail or head counter.
+ *
+ * @param <E> The type of element queued.
+ */
+public final class BoundedEventQueue<E> {
+
+    /**
+     * How long a blocked producer sleeps between checks for free space.
+     */
+    private static final long BLOCKED_PARK_NANOS =
+        TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long blockTimeoutNanos;
+
+    /**
+     * The consumer, if it's parked waiting for events.
+     */
+    private volatile Thread waiter;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param capacity The maximum number of queued events. This is rounded
+     * up to the next power of two, and is at least two.
+     * @param overflowPolicy What to do when the queue is full.
+     * @param blockTimeoutMillis How long to wait for room when the policy is
+     * {@link OverflowPolicy#BLOCK}.
+     */
+    public BoundedEventQueue(final int capacity,
+        final OverflowPolicy overflowPolicy, final long blockTimeoutMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        if (overflowPolicy == null) {
+            throw new NullPointerException("Null overflow policy?");
+        }
+        // Slot sequences can't tell full from empty with a single slot.
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos =
+            TimeUnit.MILLISECONDS.toNanos(Math.max(0L, blockTimeoutMillis));
+    }
+
+    /**
+     * Adds an event to the queue, applying the overflow policy if it's full.
+     *
+     * @param element The event.
+     * @return <code>true</code> if the event was queued, or
+     * <code>false</code> if it was dropped.
+     */
+    public boolean offer(final E element) {
+        if (element == null) {
+            throw new NullPointerException("Null element?");
+        }
+        if (tryOffer(element)) {
+            signal();
+            return true;
+        }
+        switch (overflowPolicy) {
+        case DROP_OLDEST:
+            // Other producers may be competing for the freed slot, so don't
+            // go round forever.
+            for (int i = 0; i < 8; i++) {
+                if (poll() != null) {
+                    dropped.incrementAndGet();
+                }
+                if (tryOffer(element)) {
+                    signal();
+                    return true;
+                }
+            }
+            break;
+        case BLOCK:
+            final long deadline = System.nanoTime() + blockTimeoutNanos;
+            while (System.nanoTime() - deadline < 0) {
+                signal();
+                LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+                if (tryOffer(element)) {
+                    signal();
+                    return true;
+                }
+            }
+            break;
+        default:
+            break;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    private boolean tryOffer(final E element) {
+        while (true) {
+            final long pos = tail.get();
+            final int index = (int) (pos & mask);
+            final long seq = sequences.get(index);
+            final long dif = seq - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.lazySet(index, element);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                // The consumer hasn't freed this slot yet, so we're full.
+                return false;
+            }
+            // Otherwise another producer beat us to it, so try again.
+        }
+    }
+
+    /**
+     * Takes the oldest event from the queue without waiting.
+     *
+     * @return The event, or <code>null</code> if the queue is empty.
+     */
+    public E poll() {
+        while (true) {
+            final long pos = head.get();
+            final int index = (int) (pos & mask);
+            final long seq = sequences.get(index);
+            final long dif = seq - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    final E element = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return element;
+                }
+            } else if (dif < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest event from the queue, waiting for one to arrive if
+     * necessary. Only one thread may wait at a time.
+     *
+     * @param timeout How long to wait.
+     * @param unit The unit of the timeout.
+     * @return The event, or <code>null</code> if none arrived in time.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public E poll(final long timeout, final TimeUnit unit)
+        throws InterruptedException {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final Thread current = Thread.currentThread();
+        try {
+            while (true) {
+                waiter = current;
+                // Check again now producers can see we're about to park.
+                element = poll();
+                if (element != null) {
+                    return element;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    private void signal() {
+        final Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * @return The approximate number of queued events.
+     */
+    public int size() {
+        final long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+}
@@ -0,0 +1,251 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers serialized bugs on the sender thread so several of them can go out
+ * in a single request. A batch is sent once it holds the maximum number of
+ * bugs or bytes, or once its oldest bug has waited for the linger time.
+ * <p>
+ * Bugs are serialized straight into the batcher's buffer, one after the
+ * other, and the batcher just records where each one ends.
+ * <p>
+ * This class is not thread safe. It's only used from the sender thread.
+ */
+final class BugBatcher {
+
+    /**
+     * Sends a batch of serialized bugs.
+     */
+    interface Sender {
+
+        /**
+         * Sends bugs <code>from</code> (inclusive) to <code>to</code> 
+         * (exclusive), where bug <code>i</code> is the UTF-8 encoded JSON in
+         * <code>bytes</code> between <code>offsets[i]</code> and 
+         * <code>offsets[i + 1]</code>.
+         * 
+         * @return The HTTP status code of the response, or -1 if the request
+         * failed without one.
+         */
+        int send(byte[] bytes, int[] offsets, int from, int to);
+    }
+
+    private final int maxBatchSize;
+
+    private final int maxBatchBytes;
+
+    private final long lingerNanos;
+
+    private final Sender sender;
+
+    private final ByteBuf buffer = new ByteBuf(8192);
+
+    /**
+     * Where each bug in the buffer starts, followed by where the last one
+     * ends.
+     */
+    private int[] offsets = new int[17];
+
+    private int count;
+
+    private long firstAddedNanos;
+
+    // Stats are only written by the sender thread but can be read from any.
+
+    private volatile long batchesFlushed;
+
+    private volatile long requestsSent;
+
+    private volatile long bugsSent;
+
+    private volatile int largestBatch;
+
+    private volatile long totalLingerNanos;
+
+    private volatile long longestLingerNanos;
+
+    private volatile long splits;
+
+    BugBatcher(final int maxBatchSize, final int maxBatchBytes,
+        final long lingerMillis, final Sender sender) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchBytes = Math.max(1, maxBatchBytes);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.sender = sender;
+    }
+
+    /**
+     * @return The buffer to write the next bug to, at its current end.
+     * Anything written there is discarded unless it's then
+     * {@link #commit()}ted.
+     */
+    ByteBuf buffer() {
+        buffer.setSize(offsets[count]);
+        return buffer;
+    }
+
+    /**
+     * Adds everything written to the buffer since the last commit to the
+     * batch as one bug, sending the batch if it's full.
+     */
+    void commit() {
+        int start = offsets[count];
+        final int end = buffer.size();
+        if (end == start) {
+            return;
+        }
+        if (count > 0 && end > maxBatchBytes) {
+            // Send the bugs that fit and make this one the start of the next
+            // batch.
+            flush(count);
+            buffer.compact(start, end);
+            start = 0;
+        }
+        if (count == 0) {
+            firstAddedNanos = System.nanoTime();
+        }
+        if (count + 2 > offsets.length) {
+            final int[] grown = new int[offsets.length << 1];
+            System.arraycopy(offsets, 0, grown, 0, count + 1);
+            offsets = grown;
+        }
+        offsets[count] = start;
+        count++;
+        offsets[count] = buffer.size();
+        if (count >= maxBatchSize || buffer.size() >= maxBatchBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * @return How long until the current batch has to be sent, or
+     * {@link Long#MAX_VALUE} if there is nothing waiting.
+     */
+    long nanosUntilDue() {
+        if (count == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0L, firstAddedNanos + lingerNanos - System.nanoTime());
+    }
+
+    /**
+     * Sends the current batch if it has lingered long enough.
+     */
+    void flushIfDue() {
+        if (count > 0 && nanosUntilDue() == 0L) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends whatever is in the current batch.
+     */
+    void flush() {
+        if (count == 0) {
+            return;
+        }
+        flush(count);
+        buffer.reset();
+    }
+
+    /**
+     * Drops the current batch without sending it.
+     * 
+     * @return The number of bugs dropped.
+     */
+    int discard() {
+        final int n = count;
+        count = 0;
+        offsets[0] = 0;
+        buffer.reset();
+        return n;
+    }
+
+    /**
+     * Sends the first <code>n</code> bugs in the buffer and starts a new
+     * batch, leaving it to the caller to tidy up the buffer.
+     */
+    private void flush(final int n) {
+        final long linger = System.nanoTime() - firstAddedNanos;
+        batchesFlushed++;
+        totalLingerNanos += linger;
+        longestLingerNanos = Math.max(longestLingerNanos, linger);
+        largestBatch = Math.max(largestBatch, n);
+        try {
+            send(0, n);
+        } finally {
+            count = 0;
+            offsets[0] = 0;
+        }
+    }
+
+    /**
+     * Sends the given bugs, splitting them in two and sending each half on
+     * its own if the server rejects the whole lot.
+     */
+    private void send(final int from, final int to) {
+        final int status = sender.send(buffer.array(), offsets, from, to);
+        requestsSent++;
+        if (status >= 200 && status <= 299) {
+            bugsSent += to - from;
+            return;
+        }
+        if (to - from > 1 && isSplittable(status)) {
+            splits++;
+            final int half = from + (to - from) / 2;
+            send(from, half);
+            send(half, to);
+        }
+    }
+
+    /**
+     * Only client errors say anything about the payload itself -- a dropped
+     * connection or a server error would most likely fail again for each
+     * half, as would being throttled.
+     */
+    private static boolean isSplittable(final int status) {
+        return status >= 400 && status <= 499 && status != 429;
+    }
+
+    /**
+     * @return The number of batches sent, not counting splits.
+     */
+    long getBatchesFlushed() {
+        return batchesFlushed;
+    }
+
+    /**
+     * @return The number of requests sent, including those for split
+     * batches.
+     */
+    long getRequestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * @return The number of bugs the server accepted.
+     */
+    long getBugsSent() {
+        return bugsSent;
+    }
+
+    int getLargestBatch() {
+        return largestBatch;
+    }
+
+    long getTotalLingerNanos() {
+        return totalLingerNanos;
+    }
+
+    long getLongestLingerNanos() {
+        return longestLingerNanos;
+    }
+
+    /**
+     * @return How many times a failed batch was split in two.
+     */
+    long getSplits() {
+        return splits;
+    }
+}
@@ -0,0 +1,113 @@
+package org.lantern.exceptional4j;
+
+import java.io.OutputStream;
+
+/**
+ * Growable byte array that can be reset and written again without
+ * reallocating. Unlike {@link java.io.ByteArrayOutputStream} it hands out its
+ * backing array rather than a copy, and isn't synchronized.
+ */
+final class ByteBuf extends OutputStream {
+
+    /**
+     * Buffers that grew past this for an unusually large bug are shrunk back
+     * when reset, so one big report doesn't pin the memory forever.
+     */
+    private static final int MAX_RETAINED = 1024 * 1024;
+
+    private final int initialCapacity;
+
+    private byte[] bytes;
+
+    private int size;
+
+    ByteBuf(final int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.bytes = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(final int b) {
+        if (size == bytes.length) {
+            grow(size + 1);
+        }
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    /**
+     * Makes sure the buffer can hold the given number of bytes in total
+     * without growing.
+     */
+    void ensureCapacity(final int capacity) {
+        if (capacity > bytes.length) {
+            grow(capacity);
+        }
+    }
+
+    private void grow(final int capacity) {
+        int newLength = bytes.length << 1;
+        if (newLength < capacity) {
+            newLength = capacity;
+        }
+        final byte[] grown = new byte[newLength];
+        System.arraycopy(bytes, 0, grown, 0, size);
+        bytes = grown;
+    }
+
+    /**
+     * @return The backing array. Only the first {@link #size()} bytes are
+     * meaningful, and the array may be replaced by later writes.
+     */
+    byte[] array() {
+        return bytes;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Truncates the buffer, for example to drop a partly written bug.
+     */
+    void setSize(final int size) {
+        if (size < 0 || size > this.size) {
+            throw new IllegalArgumentException("Bad size: " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Marks bytes written straight into the backing array as used.
+     *
+     * @param count The number of bytes written past the current size.
+     */
+    void advance(final int count) {
+        if (count < 0 || size + count > bytes.length) {
+            throw new IllegalArgumentException("Bad count: " + count);
+        }
+        size += count;
+    }
+
+    /**
+     * Moves the given range to the start of the buffer, dropping everything
+     * else.
+     */
+    void compact(final int from, final int to) {
+        System.arraycopy(bytes, from, bytes, 0, to - from);
+        size = to - from;
+    }
+
+    void reset() {
+        size = 0;
+        if (bytes.length > MAX_RETAINED) {
+            bytes = new byte[initialCapacity];
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to a server that's down or throttling us, so the sender
+ * doesn't spend its time on requests that will fail.
+ * <p>
+ * The breaker starts closed, letting everything through. Once enough
+ * requests fail in a row it opens, refusing requests until its open period
+ * is up. It then lets a single probe through, closing again if the probe
+ * succeeds or opening for another period if it fails. The server can also
+ * open it for a while with <code>Retry-After</code>.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private volatile int failureThreshold;
+
+    private volatile long openMillis;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    /**
+     * When the breaker stops being open, in {@link System#nanoTime()} time.
+     */
+    private long openUntil;
+
+    private long rejected;
+
+    /**
+     * @param failureThreshold How many requests in a row have to fail for
+     * the breaker to open.
+     * @param openMillis How long the breaker stays open before it lets a
+     * probe through.
+     */
+    CircuitBreaker(final int failureThreshold, final long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Asks whether a request can be sent. A caller that's allowed to send
+     * has to report the outcome with {@link #succeeded()} or
+     * {@link #failed()}.
+     *
+     * @return <code>true</code> if the request can be sent.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.nanoTime() - openUntil >= 0) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            break;
+        default:
+            // A probe is already in flight.
+            break;
+        }
+        rejected++;
+        return false;
+    }
+
+    /**
+     * Records a request the server dealt with, closing the breaker.
+     */
+    synchronized void succeeded() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Records a request that failed, opening the breaker if it was a probe
+     * or if too many have now failed in a row.
+     */
+    synchronized void failed() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            openFor(openMillis);
+        }
+    }
+
+    /**
+     * Opens the breaker for at least the given time, as asked by the
+     * server.
+     */
+    synchronized void pause(final long millis) {
+        openFor(millis);
+    }
+
+    private void openFor(final long millis) {
+        final long until =
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (state != State.OPEN || until - openUntil > 0) {
+            openUntil = until;
+        }
+        state = State.OPEN;
+    }
+
+    /**
+     * @return How long until a request will be allowed, or 0 if one would be
+     * now.
+     */
+    synchronized long millisUntilAllowed() {
+        if (state != State.OPEN) {
+            return 0L;
+        }
+        return Math.max(0L,
+            TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime()));
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of requests refused.
+     */
+    synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    void setFailureThreshold(final int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    void setOpenMillis(final long openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    long getOpenMillis() {
+        return openMillis;
+    }
+}
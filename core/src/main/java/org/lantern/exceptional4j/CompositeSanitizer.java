@@ -0,0 +1,360 @@
+package org.lantern.exceptional4j;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sanitizer that applies several {@link RegexSanitizer}s in a single pass
+ * over the string.
+ * <p>
+ * When it's created, it works out which characters can start a match of
+ * each rule. Sanitizing then walks the string once, and at each character
+ * only tries the rules that could match there, so strings with nothing to
+ * redact are returned as they are, usually without running any regex at
+ * all, and nothing is allocated unless something is replaced.
+ * <p>
+ * Unlike applying the sanitizers one after another, every rule sees the
+ * original string rather than the output of the ones before it. Where the
+ * matches of two rules would overlap, the one starting first wins, and of
+ * those starting at the same place, the one added first.
+ */
+public class CompositeSanitizer implements Sanitizer {
+
+    /**
+     * The most rules one composite can hold, one per bit of a mask.
+     */
+    static final int MAX_RULES = 64;
+
+    private static final int ASCII = 128;
+
+    private final Pattern[] patterns;
+
+    /**
+     * Each rule's replacement, as literal strings and group numbers.
+     */
+    private final Object[][] replacements;
+
+    /**
+     * For each ASCII character, the rules that can start a match with it.
+     */
+    private final long[] asciiRules = new long[ASCII];
+
+    /**
+     * The rules that can start a match with any other character.
+     */
+    private final long otherRules;
+
+    /**
+     * The rules that can match the empty string at the end.
+     */
+    private final long endRules;
+
+    private final ThreadLocal<Matcher[]> matchers =
+        new ThreadLocal<Matcher[]>() {
+            @Override
+            protected Matcher[] initialValue() {
+                return new Matcher[patterns.length];
+            }
+        };
+
+    /**
+     * @param rules The sanitizers to combine, in order of precedence.
+     * @throws IllegalArgumentException If one of the sanitizers can't be
+     * combined with others, see {@link #canCombine(Sanitizer)}, or there
+     * are more than 64.
+     */
+    public CompositeSanitizer(final List<? extends RegexSanitizer> rules) {
+        if (rules.isEmpty() || rules.size() > MAX_RULES) {
+            throw new IllegalArgumentException("Bad number of rules: " +
+                rules.size());
+        }
+        this.patterns = new Pattern[rules.size()];
+        this.replacements = new Object[rules.size()][];
+        long other = 0L;
+        long end = 0L;
+        for (int i = 0; i < rules.size(); i++) {
+            final RegexSanitizer rule = rules.get(i);
+            if (!canCombine(rule)) {
+                throw new IllegalArgumentException("Can't combine " +
+                    rule.getPattern());
+            }
+            final Pattern p = rule.getPattern();
+            patterns[i] = p;
+            replacements[i] = parseReplacement(rule.getReplacement(),
+                p.matcher("").groupCount());
+
+            final long bit = 1L << i;
+            if (p.matcher("").lookingAt()) {
+                end |= bit;
+            }
+            if ((end & bit) != 0 || needsContext(p.pattern())) {
+                // Can't tell where this one might match, so try it
+                // everywhere.
+                for (int c = 0; c < ASCII; c++) {
+                    asciiRules[c] |= bit;
+                }
+                other |= bit;
+                continue;
+            }
+            final Matcher matcher = p.matcher("");
+            final char[] one = new char[1];
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                if (c >= ASCII && (other & bit) != 0) {
+                    break;
+                }
+                final boolean starts;
+                if (c >= Character.MIN_SURROGATE &&
+                    c <= Character.MAX_SURROGATE) {
+                    // Half a pair says nothing about what the pair matches.
+                    starts = true;
+                } else {
+                    one[0] = (char) c;
+                    matcher.reset(new String(one));
+                    starts = matcher.lookingAt() || matcher.hitEnd();
+                }
+                if (!starts) {
+                    continue;
+                }
+                if (c < ASCII) {
+                    asciiRules[c] |= bit;
+                } else {
+                    other |= bit;
+                }
+            }
+        }
+        this.otherRules = other;
+        this.endRules = end;
+    }
+
+    @Override
+    public String sanitize(final String original) {
+        if (original == null) {
+            return null;
+        }
+        final int len = original.length();
+        Matcher[] matchers = null;
+        // The matchers that have been pointed at this string.
+        long ready = 0L;
+        StringBuilder result = null;
+        int copied = 0;
+        int i = 0;
+        while (i <= len) {
+            final long candidates;
+            if (i == len) {
+                candidates = endRules;
+            } else {
+                final char c = original.charAt(i);
+                candidates = c < ASCII ? asciiRules[c] : otherRules;
+            }
+            if (candidates == 0L) {
+                i++;
+                continue;
+            }
+            if (matchers == null) {
+                matchers = this.matchers.get();
+            }
+
+            Matcher matched = null;
+            int rule = -1;
+            for (long bits = candidates; bits != 0L; bits &= bits - 1) {
+                rule = Long.numberOfTrailingZeros(bits);
+                Matcher matcher = matchers[rule];
+                if ((ready & (1L << rule)) == 0L) {
+                    if (matcher == null) {
+                        matcher = patterns[rule].matcher(original);
+                        // Let lookarounds and boundaries see outside the
+                        // region, so matching here behaves like find().
+                        matcher.useTransparentBounds(true);
+                        matcher.useAnchoringBounds(false);
+                        matchers[rule] = matcher;
+                    } else {
+                        matcher.reset(original);
+                    }
+                    ready |= 1L << rule;
+                }
+                matcher.region(i, len);
+                if (matcher.lookingAt()) {
+                    matched = matcher;
+                    break;
+                }
+            }
+            if (matched == null) {
+                i++;
+                continue;
+            }
+
+            final int start = matched.start();
+            final int end = matched.end();
+            if (result == null) {
+                result = new StringBuilder(len + 16);
+            }
+            result.append(original, copied, start);
+            appendReplacement(matched, replacements[rule], result);
+            copied = end;
+            // As with find(), an empty match moves on a character.
+            i = end == start ? end + 1 : end;
+        }
+        if (matchers != null) {
+            // Don't hold on to the string.
+            for (int r = 0; r < matchers.length; r++) {
+                if ((ready & (1L << r)) != 0L) {
+                    matchers[r].reset("");
+                }
+            }
+        }
+        if (result == null) {
+            return original;
+        }
+        result.append(original, copied, len);
+        return result.toString();
+    }
+
+    private static void appendReplacement(final Matcher matcher,
+        final Object[] replacement, final StringBuilder result) {
+        for (final Object part : replacement) {
+            if (part instanceof String) {
+                result.append((String) part);
+            } else {
+                final String group = matcher.group(((Integer) part).intValue());
+                if (group != null) {
+                    result.append(group);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a replacement the way {@link Matcher#appendReplacement} does.
+     */
+    private static Object[] parseReplacement(final String replacement,
+        final int groupCount) {
+        final List<Object> parts = new ArrayList<Object>();
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < replacement.length()) {
+            final char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) {
+                    throw new IllegalArgumentException(
+                        "character to be escaped is missing");
+                }
+                literal.append(replacement.charAt(i++));
+            } else if (c == '$') {
+                if (i == replacement.length()) {
+                    throw new IllegalArgumentException(
+                        "Illegal group reference: group index is missing");
+                }
+                int ref = replacement.charAt(i++) - '0';
+                if (ref < 0 || ref > 9) {
+                    throw new IllegalArgumentException(
+                        "Illegal group reference");
+                }
+                // Take more digits as long as they name an existing group.
+                while (i < replacement.length()) {
+                    final int digit = replacement.charAt(i) - '0';
+                    if (digit < 0 || digit > 9 ||
+                        ref * 10 + digit > groupCount) {
+                        break;
+                    }
+                    ref = ref * 10 + digit;
+                    i++;
+                }
+                if (ref > groupCount) {
+                    throw new IllegalArgumentException("No group " + ref);
+                }
+                if (literal.length() > 0) {
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                parts.add(Integer.valueOf(ref));
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+        }
+        return parts.toArray();
+    }
+
+    /**
+     * @return Whether the pattern might look at what comes before where it
+     * matches, which trying it on a character alone can't account for.
+     */
+    private static boolean needsContext(final String regex) {
+        return regex.contains("(?<") || regex.contains("\\B") ||
+            regex.contains("\\G");
+    }
+
+    /**
+     * @param sanitizer A sanitizer.
+     * @return Whether the sanitizer is a plain {@link RegexSanitizer} that
+     * can be combined with others: one that doesn't override how it
+     * sanitizes and whose replacement is valid.
+     */
+    public static boolean canCombine(final Sanitizer sanitizer) {
+        if (!(sanitizer instanceof RegexSanitizer)) {
+            return false;
+        }
+        try {
+            final Method method =
+                sanitizer.getClass().getMethod("sanitize", String.class);
+            if (method.getDeclaringClass() != RegexSanitizer.class) {
+                return false;
+            }
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+        final RegexSanitizer rule = (RegexSanitizer) sanitizer;
+        try {
+            parseReplacement(rule.getReplacement(),
+                rule.getPattern().matcher("").groupCount());
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Combines each run of sanitizers that were added to be combined, and
+     * can be, into a single {@link CompositeSanitizer}, leaving the others
+     * where they are.
+     *
+     * @param sanitizers The sanitizers, in the order they apply.
+     * @param combinable The sanitizers that were added to be combined.
+     * @return The sanitizers to apply instead.
+     */
+    static Sanitizer[] combine(final Collection<Sanitizer> sanitizers,
+        final Set<Sanitizer> combinable) {
+        final List<Sanitizer> result = new ArrayList<Sanitizer>();
+        final List<RegexSanitizer> run = new ArrayList<RegexSanitizer>();
+        for (final Sanitizer sanitizer : sanitizers) {
+            if (combinable.contains(sanitizer) && canCombine(sanitizer)) {
+                run.add((RegexSanitizer) sanitizer);
+                if (run.size() == MAX_RULES) {
+                    flush(run, result);
+                }
+            } else {
+                flush(run, result);
+                result.add(sanitizer);
+            }
+        }
+        flush(run, result);
+        return result.toArray(new Sanitizer[result.size()]);
+    }
+
+    private static void flush(final List<RegexSanitizer> run,
+        final List<Sanitizer> result) {
+        if (run.size() == 1) {
+            result.add(run.get(0));
+        } else if (run.size() > 1) {
+            result.add(new CompositeSanitizer(run));
+        }
+        run.clear();
+    }
+}
@@ -0,0 +1,191 @@
+package org.lantern.exceptional4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers recently reported bugs so duplicates aren't sent again within a
+ * time window, counting the duplicates it suppresses so the next report of
+ * the same bug can say how often it happened in between.
+ * <p>
+ * The cache is split into stripes, each a small LRU map with its own lock,
+ * so threads logging different bugs rarely contend.
+ *
+ * @param <K> The type of key identifying a bug.
+ */
+final class DedupCache<K> {
+
+    /**
+     * Returned by {@link #record(Object)} for a duplicate that shouldn't be
+     * reported.
+     */
+    static final long DUPLICATE = -1L;
+
+    private static final int MAX_STRIPES = 16;
+
+    private static final class Entry {
+        private long lastReportedNanos;
+        private long suppressed;
+
+        private Entry(final long lastReportedNanos) {
+            this.lastReportedNanos = lastReportedNanos;
+        }
+    }
+
+    private static final class Stripe<K> extends LinkedHashMap<K, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private final AtomicLong evictedSuppressed;
+
+        private Stripe(final int capacity, final AtomicLong evictedSuppressed) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictedSuppressed = evictedSuppressed;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, Entry> eldest) {
+            if (size() > capacity) {
+                evictedSuppressed.addAndGet(eldest.getValue().suppressed);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final Stripe<K>[] stripes;
+
+    private final long windowNanos;
+
+    private final int capacity;
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final AtomicLong evictedSuppressed = new AtomicLong();
+
+    /**
+     * @param capacity The maximum number of bugs to remember.
+     * @param windowMillis How long after a bug is reported to suppress its
+     * duplicates.
+     */
+    DedupCache(final int capacity, final long windowMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        int n = 1;
+        while (n < MAX_STRIPES && n < capacity) {
+            n <<= 1;
+        }
+        @SuppressWarnings("unchecked")
+        final Stripe<K>[] s = (Stripe<K>[]) new Stripe<?>[n];
+        this.stripes = s;
+        final int perStripe = (capacity + n - 1) / n;
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe<K>(perStripe, evictedSuppressed);
+        }
+    }
+
+    /**
+     * Records an occurrence of a bug.
+     *
+     * @param key The key identifying the bug.
+     * @return {@link #DUPLICATE} if the bug was reported within the window
+     * and shouldn't be reported again, otherwise the number of duplicates
+     * suppressed since it was last reported.
+     */
+    long record(final K key) {
+        return record(key, 0L);
+    }
+
+    /**
+     * Records an occurrence of a bug that stands for others never seen 
+     * here, such as those sampled out, which are counted along with the 
+     * duplicates suppressed.
+     *
+     * @param key The key identifying the bug.
+     * @param unseen The number of other occurrences it stands for.
+     * @return {@link #DUPLICATE} if the bug was reported within the window
+     * and shouldn't be reported again, otherwise the number of occurrences
+     * not reported since it was last reported.
+     */
+    long record(final K key, final long unseen) {
+        final Stripe<K> stripe = stripeFor(key);
+        final long now = System.nanoTime();
+        synchronized (stripe) {
+            final Entry entry = stripe.get(key);
+            if (entry == null) {
+                stripe.put(key, new Entry(now));
+                return unseen;
+            }
+            if (now - entry.lastReportedNanos < windowNanos) {
+                entry.suppressed += 1 + unseen;
+                suppressed.incrementAndGet();
+                return DUPLICATE;
+            }
+            final long count = entry.suppressed + unseen;
+            entry.suppressed = 0L;
+            entry.lastReportedNanos = now;
+            return count;
+        }
+    }
+
+    /**
+     * Undoes {@link #record(Object)} for a bug that wasn't reported after 
+     * all, such as one that was rate limited, so it isn't taken for a 
+     * duplicate of itself and the duplicates counted before it are still 
+     * reported with it next time.
+     *
+     * @param key The key identifying the bug.
+     * @param suppressed What {@link #record(Object)} returned for it.
+     */
+    void forget(final K key, final long suppressed) {
+        final Stripe<K> stripe = stripeFor(key);
+        synchronized (stripe) {
+            final Entry entry = stripe.get(key);
+            if (entry == null) {
+                // Evicted since, so it's new again anyway.
+                return;
+            }
+            entry.suppressed += suppressed;
+            entry.lastReportedNanos = System.nanoTime() - windowNanos;
+        }
+    }
+
+    private Stripe<K> stripeFor(final K key) {
+        int h = key.hashCode();
+        // Spread the bits as HashMap does, so similar hashes still spread.
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * @return The total number of duplicates suppressed.
+     */
+    long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    /**
+     * @return The number of suppressed duplicates that were never reported
+     * because their bug was evicted to make room for others.
+     */
+    long getEvictedSuppressedCount() {
+        return evictedSuppressed.get();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+}
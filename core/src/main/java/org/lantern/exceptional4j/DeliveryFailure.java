@@ -0,0 +1,50 @@
+package org.lantern.exceptional4j;
+
+/**
+ * A request to Exceptional that failed, as kept by
+ * {@link ExceptionalReporter#getRecentFailures()}.
+ */
+public final class DeliveryFailure {
+
+    private final long timeMillis;
+
+    private final int statusCode;
+
+    private final String detail;
+
+    DeliveryFailure(final long timeMillis, final int statusCode,
+        final String detail) {
+        this.timeMillis = timeMillis;
+        this.statusCode = statusCode;
+        this.detail = detail;
+    }
+
+    /**
+     * @return When the request failed, in milliseconds since the epoch.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return The HTTP status code, or -1 if there was no response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The start of the response body, or the error if there was no
+     * response.
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String toString() {
+        return ExceptionalUtils.iso8601(timeMillis) + " " +
+            (statusCode < 0 ? "no response" : String.valueOf(statusCode)) +
+            ": " + detail;
+    }
+}
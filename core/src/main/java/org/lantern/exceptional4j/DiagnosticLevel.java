@@ -0,0 +1,50 @@
+package org.lantern.exceptional4j;
+
+/**
+ * How much the reporter says about its own workings on standard error. Each
+ * level includes those above it.
+ */
+public enum DiagnosticLevel {
+
+    /**
+     * Say nothing, the default.
+     */
+    OFF,
+
+    /**
+     * Bugs that couldn't be reported at all.
+     */
+    ERROR,
+
+    /**
+     * Failed requests, events abandoned on close, and metrics or a spool
+     * that couldn't be set up.
+     */
+    WARN,
+
+    /**
+     * Each request sent, and the stack traces of errors.
+     */
+    DEBUG;
+
+    /**
+     * Parses a level from a configuration value, ignoring case.
+     *
+     * @param value The configured value.
+     * @param defaultLevel The level to use if the value isn't recognized.
+     * @return The level.
+     */
+    public static DiagnosticLevel toLevel(final String value,
+        final DiagnosticLevel defaultLevel) {
+        if (value == null) {
+            return defaultLevel;
+        }
+        final String name = value.trim().toUpperCase();
+        for (final DiagnosticLevel level : values()) {
+            if (level.name().equals(name)) {
+                return level;
+            }
+        }
+        return defaultLevel;
+    }
+}
@@ -0,0 +1,86 @@
+package org.lantern.exceptional4j;
+
+import java.io.PrintStream;
+
+/**
+ * Where the reporter says what it's doing, when asked to. It can't log
+ * through the logging framework it's attached to without reporting itself,
+ * so it writes to standard error. Messages below the level are skipped
+ * with one volatile read, and details are only turned into strings for
+ * messages that are written, so calls can stay in place on the hot path.
+ */
+final class Diagnostics {
+
+    private volatile DiagnosticLevel level = DiagnosticLevel.OFF;
+
+    private final PrintStream out;
+
+    /**
+     * Creates diagnostics written to whatever standard error is at the
+     * time.
+     */
+    Diagnostics() {
+        this(null);
+    }
+
+    /**
+     * @param out Where to write, or <code>null</code> for standard error.
+     */
+    Diagnostics(final PrintStream out) {
+        this.out = out;
+    }
+
+    void setLevel(final DiagnosticLevel level) {
+        this.level = level == null ? DiagnosticLevel.OFF : level;
+    }
+
+    DiagnosticLevel getLevel() {
+        return level;
+    }
+
+    boolean isEnabled(final DiagnosticLevel messageLevel) {
+        return messageLevel.ordinal() <= level.ordinal();
+    }
+
+    void error(final String message, final Object detail) {
+        log(DiagnosticLevel.ERROR, message, detail);
+    }
+
+    void warn(final String message) {
+        log(DiagnosticLevel.WARN, message, null);
+    }
+
+    void warn(final String message, final Object detail) {
+        log(DiagnosticLevel.WARN, message, detail);
+    }
+
+    void debug(final String message) {
+        log(DiagnosticLevel.DEBUG, message, null);
+    }
+
+    void debug(final String message, final Object detail) {
+        log(DiagnosticLevel.DEBUG, message, detail);
+    }
+
+    /**
+     * Writes a message if its level is enabled.
+     *
+     * @param messageLevel The message's level.
+     * @param message The message.
+     * @param detail Anything to append to the message, or <code>null</code>.
+     * A throwable's stack trace is written too at the debug level.
+     */
+    void log(final DiagnosticLevel messageLevel, final String message,
+        final Object detail) {
+        final DiagnosticLevel current = level;
+        if (messageLevel.ordinal() > current.ordinal()) {
+            return;
+        }
+        final PrintStream ps = out == null ? System.err : out;
+        ps.println("exceptional4j " + messageLevel + ": " +
+            (detail == null ? message : message + detail));
+        if (detail instanceof Throwable && current == DiagnosticLevel.DEBUG) {
+            ((Throwable) detail).printStackTrace(ps);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package org.lantern.exceptional4j;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of payloads waiting to be sent, kept in memory mapped
+ * segment files so they survive the process dying or the network being
+ * down. Payloads are appended before they're sent and marked as sent once
+ * the server has them. Whatever is still pending when the spool is opened
+ * again is sent then.
+ * <p>
+ * Each segment starts with a magic number and version, followed by records
+ * of a length, a CRC32 of the payload, a state byte and the payload. The
+ * length is written last, so a record torn by a crash reads as the end of
+ * the segment. A segment is deleted once everything in it has been sent,
+ * and the oldest segment is dropped when a new one would take the spool
+ * over its size limit.
+ * <p>
+ * Records are identified by a long combining the segment's sequence number
+ * and the record's offset in it.
+ */
+final class DiskSpool {
+
+    /**
+     * Returned by {@link #append(byte[], int, int)} when a payload isn't
+     * spooled.
+     */
+    static final long NONE = -1L;
+
+    private static final int MAGIC = 0x45585350;
+
+    private static final int VERSION = 1;
+
+    private static final int SEGMENT_HEADER = 8;
+
+    private static final int RECORD_HEADER = 9;
+
+    private static final byte PENDING = 0;
+
+    private static final byte SENT = 1;
+
+    private static final String PREFIX = "spool-";
+
+    private static final String SUFFIX = ".seg";
+
+    private static final class Segment {
+        private final long sequence;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition = SEGMENT_HEADER;
+        private int pending;
+        private boolean dirty;
+
+        private Segment(final long sequence, final File file,
+            final MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+
+    private final int segmentBytes;
+
+    private final long maxBytes;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long fsyncIntervalNanos;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The segment being appended to, or <code>null</code> until the first
+     * append. Segments left from before the spool was opened are only
+     * read.
+     */
+    private Segment active;
+
+    private long nextSequence;
+
+    private long lastForced = System.nanoTime();
+
+    private int pending;
+
+    private long dropped;
+
+    private boolean closed;
+
+    private final Diagnostics diagnostics;
+
+    DiskSpool(final File directory, final int segmentBytes,
+        final long maxBytes, final FsyncPolicy fsyncPolicy,
+        final long fsyncIntervalMillis) throws IOException {
+        this(directory, segmentBytes, maxBytes, fsyncPolicy,
+            fsyncIntervalMillis, new Diagnostics());
+    }
+
+    /**
+     * Opens the spool, creating the directory if need be and reading what's
+     * left in it.
+     *
+     * @param directory The directory for the segment files.
+     * @param segmentBytes The size of each segment file.
+     * @param maxBytes The most disk space all the segments can take.
+     * @param fsyncPolicy When to force writes to disk.
+     * @param fsyncIntervalMillis The interval for
+     * {@link FsyncPolicy#PERIODIC}.
+     * @param diagnostics Where to say what went wrong.
+     * @throws IOException If the directory can't be used.
+     */
+    DiskSpool(final File directory, final int segmentBytes,
+        final long maxBytes, final FsyncPolicy fsyncPolicy,
+        final long fsyncIntervalMillis, final Diagnostics diagnostics)
+        throws IOException {
+        if (segmentBytes <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("Bad segment size: " +
+                segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.diagnostics = diagnostics;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = Math.max(maxBytes, segmentBytes);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos =
+            TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Could not list " + directory);
+        }
+        Arrays.sort(files);
+        for (final File file : files) {
+            final long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(
+                    PREFIX.length(), file.getName().length() - SUFFIX.length()));
+            } catch (final NumberFormatException e) {
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            final Segment segment = new Segment(sequence, file,
+                map(file, file.length()));
+            final ByteBuffer buf = segment.buffer;
+            if (buf.capacity() < SEGMENT_HEADER || buf.getInt(0) != MAGIC ||
+                buf.getInt(4) != VERSION) {
+                delete(segment);
+                continue;
+            }
+            int position = SEGMENT_HEADER;
+            while (position + RECORD_HEADER <= buf.capacity()) {
+                final int length = buf.getInt(position);
+                if (length <= 0 ||
+                    position + RECORD_HEADER + length > buf.capacity()) {
+                    break;
+                }
+                if (checksum(buf, position + RECORD_HEADER, length) !=
+                    buf.getInt(position + 4)) {
+                    // Torn by a crash; nothing after it can be trusted.
+                    break;
+                }
+                if (buf.get(position + 8) == PENDING) {
+                    segment.pending++;
+                }
+                position += RECORD_HEADER + length;
+            }
+            segment.writePosition = position;
+            if (segment.pending == 0) {
+                delete(segment);
+            } else {
+                segments.put(Long.valueOf(sequence), segment);
+                pending += segment.pending;
+            }
+        }
+    }
+
+    /**
+     * Appends a payload.
+     *
+     * @return The record, or {@link #NONE} if the payload is too big for a
+     * segment or the spool is closed.
+     */
+    synchronized long append(final byte[] bytes, final int offset,
+        final int length) {
+        if (closed || length <= 0 ||
+            SEGMENT_HEADER + RECORD_HEADER + length > segmentBytes) {
+            return NONE;
+        }
+        try {
+            if (active == null ||
+                active.writePosition + RECORD_HEADER + length > segmentBytes) {
+                roll();
+            }
+        } catch (final IOException e) {
+            diagnostics.warn("Could not create spool segment: ", e);
+            return NONE;
+        }
+        final Segment segment = active;
+        final int position = segment.writePosition;
+        final ByteBuffer buf = segment.buffer;
+        final ByteBuffer payload = buf.duplicate();
+        payload.position(position + RECORD_HEADER);
+        payload.put(bytes, offset, length);
+        crc.reset();
+        crc.update(bytes, offset, length);
+        buf.putInt(position + 4, (int) crc.getValue());
+        buf.put(position + 8, PENDING);
+        buf.putInt(position, length);
+        segment.writePosition = position + RECORD_HEADER + length;
+        segment.pending++;
+        segment.dirty = true;
+        pending++;
+        sync(fsyncPolicy == FsyncPolicy.ALWAYS);
+        return (segment.sequence << 32) | position;
+    }
+
+    /**
+     * Marks a record as sent.
+     */
+    synchronized void ack(final long record) {
+        if (closed || record == NONE) {
+            return;
+        }
+        final Segment segment = segments.get(Long.valueOf(record >>> 32));
+        if (segment == null) {
+            // Dropped to make room.
+            return;
+        }
+        final int position = (int) record;
+        if (segment.buffer.get(position + 8) != PENDING) {
+            return;
+        }
+        segment.buffer.put(position + 8, SENT);
+        segment.dirty = true;
+        segment.pending--;
+        pending--;
+        if (segment.pending == 0 && segment != active) {
+            segments.remove(Long.valueOf(segment.sequence));
+            delete(segment);
+        }
+        sync(false);
+    }
+
+    /**
+     * @return The records waiting to be sent, oldest first.
+     */
+    synchronized List<Long> pendingRecords() {
+        final List<Long> records = new ArrayList<Long>(pending);
+        if (closed) {
+            return records;
+        }
+        for (final Segment segment : segments.values()) {
+            final ByteBuffer buf = segment.buffer;
+            int position = SEGMENT_HEADER;
+            while (position < segment.writePosition) {
+                if (buf.get(position + 8) == PENDING) {
+                    records.add(Long.valueOf(
+                        (segment.sequence << 32) | position));
+                }
+                position += RECORD_HEADER + buf.getInt(position);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return The payload of a record, or <code>null</code> if it's no longer
+     * spooled.
+     */
+    synchronized byte[] read(final long record) {
+        if (closed) {
+            return null;
+        }
+        final Segment segment = segments.get(Long.valueOf(record >>> 32));
+        if (segment == null) {
+            return null;
+        }
+        final int position = (int) record;
+        if (segment.buffer.get(position + 8) != PENDING) {
+            // Sent since it was listed.
+            return null;
+        }
+        final byte[] bytes = new byte[segment.buffer.getInt(position)];
+        final ByteBuffer payload = segment.buffer.duplicate();
+        payload.position(position + RECORD_HEADER);
+        payload.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return The number of records waiting to be sent.
+     */
+    synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * @return The number of records that were never sent because their
+     * segment was dropped to keep within the size limit.
+     */
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Forces everything to disk and unmaps the segments. The spool can't be
+     * used afterwards.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        sync(true);
+        closed = true;
+        for (final Segment segment : segments.values()) {
+            unmap(segment.buffer);
+        }
+        segments.clear();
+        active = null;
+    }
+
+    private void roll() throws IOException {
+        if (active != null) {
+            active.buffer.force();
+            if (active.pending == 0) {
+                segments.remove(Long.valueOf(active.sequence));
+                delete(active);
+            }
+            active = null;
+        }
+        // Make room, oldest first.
+        while (!segments.isEmpty() &&
+            (long) (segments.size() + 1) * segmentBytes > maxBytes) {
+            final Segment oldest = segments.remove(segments.firstKey());
+            dropped += oldest.pending;
+            pending -= oldest.pending;
+            delete(oldest);
+        }
+        final long sequence = nextSequence++;
+        final File file = new File(directory,
+            PREFIX + String.format("%019d", Long.valueOf(sequence)) + SUFFIX);
+        final Segment segment = new Segment(sequence, file,
+            map(file, segmentBytes));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segments.put(Long.valueOf(sequence), segment);
+        active = segment;
+    }
+
+    private void sync(final boolean force) {
+        if (fsyncPolicy == FsyncPolicy.NEVER && !force) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (!force && now - lastForced < fsyncIntervalNanos) {
+            return;
+        }
+        for (final Segment segment : segments.values()) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+        lastForced = now;
+    }
+
+    private int checksum(final ByteBuffer buf, final int position,
+        final int length) {
+        crc.reset();
+        for (int i = position; i < position + length; i++) {
+            crc.update(buf.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(final File file, final long size)
+        throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed.
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void delete(final Segment segment) {
+        unmap(segment.buffer);
+        if (!segment.file.delete()) {
+            diagnostics.warn("Could not delete ", segment.file);
+        }
+    }
+
+    /**
+     * Releases a mapping now rather than whenever it's garbage collected,
+     * which on some platforms stops the file being deleted. This relies on
+     * JDK internals, so it's only attempted.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod =
+                buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (final Exception e) {
+            // Left to the garbage collector.
+        }
+    }
+}
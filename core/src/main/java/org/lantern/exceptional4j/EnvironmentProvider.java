@@ -0,0 +1,135 @@
+package org.lantern.exceptional4j;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.SystemUtils;
+
+/**
+ * Provides the parts of a bug's environment that don't depend on the event.
+ * The system properties are read once, and the free disk space is checked on
+ * a background thread every so often rather than for every bug.
+ */
+final class EnvironmentProvider {
+
+    /**
+     * Shared by all providers, so there's at most one refresh thread however
+     * many appenders there are.
+     */
+    private static final class Refresher {
+        private static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r,
+                        "Exceptional-Environment-Refresher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    private final Map<String, Object> staticFields;
+
+    private final File root;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile long refreshMillis;
+
+    private volatile String diskSpace;
+
+    private volatile ScheduledFuture<?> refresh;
+
+    /**
+     * @param refreshMillis How often to check the free disk space.
+     */
+    EnvironmentProvider(final long refreshMillis) {
+        this.refreshMillis = refreshMillis;
+        final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        fields.put("javaVersion", SystemUtils.JAVA_VERSION);
+        fields.put("osName", SystemUtils.OS_NAME);
+        fields.put("osArch", SystemUtils.OS_ARCH);
+        fields.put("osVersion", SystemUtils.OS_VERSION);
+        fields.put("language", SystemUtils.USER_LANGUAGE);
+        fields.put("country", SystemUtils.USER_COUNTRY);
+        fields.put("timeZone", SystemUtils.USER_TIMEZONE);
+        this.staticFields = Collections.unmodifiableMap(fields);
+        this.root = new File(SystemUtils.IS_OS_WINDOWS ? "c:\\" : "/");
+        refreshDiskSpace();
+    }
+
+    /**
+     * @return The fields that never change, such as the Java and OS
+     * versions. The map is shared and can't be modified.
+     */
+    Map<String, Object> getStaticFields() {
+        return staticFields;
+    }
+
+    /**
+     * @return The free disk space on the OS root in megabytes, as of the
+     * last check.
+     */
+    String getDiskSpace() {
+        if (started.compareAndSet(false, true)) {
+            schedule();
+        }
+        return diskSpace;
+    }
+
+    void setRefreshMillis(final long refreshMillis) {
+        this.refreshMillis = refreshMillis;
+        if (started.get()) {
+            cancel();
+            schedule();
+        }
+    }
+
+    long getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    /**
+     * Stops checking the disk space.
+     */
+    void stop() {
+        cancel();
+    }
+
+    private void schedule() {
+        final long millis = Math.max(1L, refreshMillis);
+        this.refresh = Refresher.EXECUTOR.scheduleWithFixedDelay(
+            new Runnable() {
+                public void run() {
+                    refreshDiskSpace();
+                }
+            }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel() {
+        final ScheduledFuture<?> f = this.refresh;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    private void refreshDiskSpace() {
+        long free = Long.MAX_VALUE;
+        try {
+            // This is a plain statfs call, where commons-io forks df. A full
+            // disk is 0, and reported as such. Convert to megabytes for easy
+            // reading.
+            free = root.getUsableSpace() / (1024L * 1024L);
+        } catch (final SecurityException e) {
+        }
+        this.diskSpace = String.valueOf(free);
+    }
+}
@@ -0,0 +1,20 @@
+package org.lantern.exceptional4j;
+
+/**
+ * Decides whether an event is reported at all, before anything is built
+ * for it. Rejecting an event with a filter is much cheaper than rejecting
+ * it from an {@link ExceptionalCallback}, which is only called once the
+ * bug's been rendered and the environment gathered.
+ *
+ * @see ExceptionalReporter#addEventFilter(EventFilter)
+ * @see ExceptionalReporter#addDequeueFilter(EventFilter)
+ */
+public interface EventFilter {
+
+    /**
+     * @param event The event, which can't be changed.
+     * @return <code>true</code> to report the event, or <code>false</code>
+     * to drop it.
+     */
+    boolean accept(EventView event);
+}
@@ -0,0 +1,350 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small immutable copy of a logging event taken on the logging thread. It
+ * only holds references to the message and the throwable, so taking one is
+ * cheap -- rendering the throwable, sanitizing and building the report all
+ * happen later on the thread that sends the bug.
+ * <p>
+ * This is all the reporter knows of an event, so any logging framework can
+ * be adapted to it. Adapters for frameworks that reuse their events must 
+ * pass a message that won't change, such as the formatted string.
+ */
+public final class EventSnapshot implements EventView {
+
+    private final String loggerName;
+    private final String level;
+    private final long timeStamp;
+    private final String threadName;
+    private final Object message;
+    private final Throwable throwable;
+    private final String[] throwableStrRep;
+
+    private final String className;
+    private final String methodName;
+    private final String fileName;
+    private final String lineNumber;
+
+    private final long suppressedCount;
+
+    private final double sampleRate;
+
+    private final Map<?, ?> mdc;
+    private final String ndc;
+
+    private volatile long fingerprint;
+
+    private volatile boolean fingerprinted;
+
+    EventSnapshot(final String loggerName, final String level,
+        final long timeStamp, final String threadName, final Object message,
+        final Throwable throwable, final String[] throwableStrRep,
+        final String className, final String methodName, 
+        final String fileName, final String lineNumber, 
+        final Map<?, ?> mdc, final String ndc) {
+        this.loggerName = loggerName;
+        this.level = level;
+        this.timeStamp = timeStamp;
+        this.threadName = threadName;
+        this.message = message;
+        this.throwable = throwable;
+        // Events read back from a socket only carry the rendered trace.
+        this.throwableStrRep = throwable == null ? throwableStrRep : null;
+        this.className = className;
+        this.methodName = methodName;
+        this.fileName = fileName;
+        this.lineNumber = lineNumber;
+        this.suppressedCount = 0L;
+        this.sampleRate = 1.0;
+        this.mdc = mdc;
+        this.ndc = ndc;
+    }
+
+    private EventSnapshot(final EventSnapshot other,
+        final long suppressedCount, final double sampleRate) {
+        this.loggerName = other.loggerName;
+        this.level = other.level;
+        this.timeStamp = other.timeStamp;
+        this.threadName = other.threadName;
+        this.message = other.message;
+        this.throwable = other.throwable;
+        this.throwableStrRep = other.throwableStrRep;
+        this.className = other.className;
+        this.methodName = other.methodName;
+        this.fileName = other.fileName;
+        this.lineNumber = other.lineNumber;
+        this.suppressedCount = suppressedCount;
+        this.sampleRate = sampleRate;
+        this.mdc = other.mdc;
+        this.ndc = other.ndc;
+        this.fingerprint = other.fingerprint;
+        this.fingerprinted = other.fingerprinted;
+    }
+
+    /**
+     * Takes a snapshot of an event logged without the caller's location.
+     *
+     * @param loggerName The name of the logger.
+     * @param level The name of the level, such as <code>ERROR</code>.
+     * @param timeStamp When the event was logged, in milliseconds since the
+     * epoch.
+     * @param threadName The name of the thread that logged it.
+     * @param message The message, which must not change afterwards.
+     * @param throwable The throwable logged with it, or <code>null</code>.
+     * @return The snapshot.
+     */
+    public static EventSnapshot of(final String loggerName, 
+        final String level, final long timeStamp, final String threadName, 
+        final Object message, final Throwable throwable) {
+        return new EventSnapshot(loggerName, level, timeStamp, threadName, 
+            message, throwable, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Takes a snapshot of an event along with the caller's location.
+     *
+     * @param caller Where the event was logged from, or <code>null</code>
+     * if that's not known.
+     * @return The snapshot.
+     * @see #of(String, String, long, String, Object, Throwable)
+     */
+    public static EventSnapshot of(final String loggerName, 
+        final String level, final long timeStamp, final String threadName, 
+        final Object message, final Throwable throwable, 
+        final StackTraceElement caller) {
+        if (caller == null) {
+            return of(loggerName, level, timeStamp, threadName, message, 
+                throwable);
+        }
+        final Location li = new Location(caller);
+        return new EventSnapshot(loggerName, level, timeStamp, threadName, 
+            message, throwable, null, li.getClassName(), li.getMethodName(), 
+            li.getFileName(), li.getLineNumber(), null, null);
+    }
+
+    /**
+     * @param count The number of duplicates of this event suppressed or 
+     * sampled out since it was last reported.
+     * @return A copy of this snapshot carrying the count.
+     */
+    public EventSnapshot withSuppressedCount(final long count) {
+        if (count == suppressedCount) {
+            return this;
+        }
+        return new EventSnapshot(this, count, sampleRate);
+    }
+
+    /**
+     * @return The number of duplicates of this event suppressed or sampled 
+     * out since it was last reported.
+     */
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * @param rate The probability this event was kept with when sampling.
+     * @return A copy of this snapshot carrying the rate.
+     */
+    public EventSnapshot withSampleRate(final double rate) {
+        if (rate == sampleRate) {
+            return this;
+        }
+        return new EventSnapshot(this, suppressedCount, rate);
+    }
+
+    /**
+     * @return The probability this event was kept with when sampling, 1 if
+     * it wasn't sampled. Each event reported stands for one over this many
+     * events logged.
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return A copy of the mapped diagnostic context of the logging thread,
+     * or <code>null</code> if the adapter didn't take one. The reporter 
+     * never reads it, but adapters hand it back to their callbacks.
+     */
+    public Map<?, ?> getMdc() {
+        return mdc;
+    }
+
+    /**
+     * @return The nested diagnostic context of the logging thread, or 
+     * <code>null</code> if there was none.
+     */
+    public String getNdc() {
+        return ndc;
+    }
+
+    /**
+     * @return The {@link Fingerprint} of this event, computed the first time
+     * it's asked for.
+     */
+    public long getFingerprint() {
+        if (!fingerprinted) {
+            // Racing threads just compute the same value.
+            fingerprint = Fingerprint.of(this);
+            fingerprinted = true;
+        }
+        return fingerprint;
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * @return The message rendered as a string, never <code>null</code>.
+     */
+    public String getRenderedMessage() {
+        return String.valueOf(message);
+    }
+
+    public Throwable getThrowable() {
+        return throwable;
+    }
+
+    public String getThrowableClassName() {
+        if (throwable != null) {
+            return throwable.getClass().getName();
+        }
+        if (throwableStrRep == null || throwableStrRep.length == 0) {
+            return null;
+        }
+        // The first line of a rendered trace is the throwable's toString.
+        return throwableClassName(throwableStrRep[0].trim());
+    }
+
+    /**
+     * @param line The <code>toString</code> of a throwable, as it starts a
+     * rendered trace.
+     * @return The class name, without the message.
+     */
+    static String throwableClassName(final String line) {
+        final int colon = line.indexOf(':');
+        return colon < 0 ? line : line.substring(0, colon);
+    }
+
+    /**
+     * @return The throwable rendered one line per element, or
+     * <code>null</code> if the event has no throwable.
+     */
+    public String[] getThrowableStrRep() {
+        if (throwable != null) {
+            return render(throwable);
+        }
+        return throwableStrRep == null ? null : throwableStrRep.clone();
+    }
+
+    /**
+     * Renders a throwable one line per element, exactly as it's printed.
+     */
+    static String[] render(final Throwable throwable) {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        try {
+            throwable.printStackTrace(pw);
+        } catch (final RuntimeException e) {
+            // Badly behaved throwables get whatever they printed.
+        }
+        pw.flush();
+        final LineNumberReader reader = 
+            new LineNumberReader(new StringReader(sw.toString()));
+        final List<String> lines = new ArrayList<String>();
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        } catch (final IOException e) {
+            // Can't happen reading a string.
+            lines.add(e.toString());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * @return Whether the caller's location was captured with the event.
+     */
+    public boolean hasLocation() {
+        return className != null;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Resolves the location of the event, falling back to the top frame of
+     * the throwable if the caller's location was not captured.
+     *
+     * @return The location, or {@link Location#UNKNOWN} if there's no way 
+     * to tell.
+     */
+    Location resolveLocation() {
+        if (hasLocation()) {
+            return new Location(fileName, className, methodName, lineNumber);
+        }
+        final StackTraceElement frame = topFrame();
+        if (frame == null) {
+            return Location.UNKNOWN;
+        }
+        return new Location(frame);
+    }
+
+    /**
+     * @return The frame the throwable was raised from, or <code>null</code>
+     * if there is no throwable or it has no stack trace.
+     */
+    StackTraceElement topFrame() {
+        if (throwable == null) {
+            return null;
+        }
+        final StackTraceElement[] frames = throwable.getStackTrace();
+        if (frames == null || frames.length == 0) {
+            return null;
+        }
+        return frames[0];
+    }
+}
@@ -0,0 +1,36 @@
+package org.lantern.exceptional4j;
+
+/**
+ * What an {@link EventFilter} can see of an event. Everything here is
+ * already at hand when the event is logged except the message, which is
+ * only rendered if it's asked for, so filtering on the level, logger or
+ * throwable costs next to nothing.
+ */
+public interface EventView {
+
+    /**
+     * @return The name of the level, such as <code>ERROR</code>.
+     */
+    String getLevel();
+
+    String getLoggerName();
+
+    String getThreadName();
+
+    /**
+     * @return When the event was logged, in milliseconds since the epoch.
+     */
+    long getTimeStamp();
+
+    /**
+     * @return The fully qualified class name of the throwable logged with
+     * the event, or <code>null</code> if there isn't one.
+     */
+    String getThrowableClassName();
+
+    /**
+     * @return The message rendered as a string, never <code>null</code>.
+     * This renders the message each time it's called.
+     */
+    String getRenderedMessage();
+}
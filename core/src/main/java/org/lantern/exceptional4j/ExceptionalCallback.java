@@ -0,0 +1,23 @@
+package org.lantern.exceptional4j;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Interface for making callbacks prior to sending data to Exceptional, 
+ * whatever the logging framework.
+ */
+public interface ExceptionalCallback {
+
+    /**
+     * Allows the creator of an {@link ExceptionalReporter} to add arbitrary
+     * data or edit existing data prior to the exception being reported.
+     * 
+     * @param json The data for submission.
+     * @param event The event, allowing you to not submit the log if desired.
+     * Events are cheaper to reject with an {@link EventFilter}, which runs
+     * before the data is built.
+     * @return <code>true</code> if the bug should be submitted, otherwise
+     * <code>false</code>.
+     */
+    boolean addData(JSONObject json, EventSnapshot event);
+}
@@ -0,0 +1,2365 @@
+package org.lantern.exceptional4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Reports events to Exceptional independently of any logging framework. 
+ * This does all the work of queueing, rate limiting, spotting duplicates,
+ * sanitizing, serializing and sending bugs, so an appender for a logging 
+ * framework only has to filter events by level, take an 
+ * {@link EventSnapshot} of those it reports and pass it to 
+ * {@link #report(EventSnapshot)}.
+ * <p>
+ * A typical appender does:
+ * <pre>
+ *     if (reporter.accept(isReportable(level))) {
+ *         reporter.report(EventSnapshot.of(...));
+ *     }
+ * </pre>
+ * Neither call allocates for events that aren't reported, so appenders for
+ * garbage-free frameworks stay garbage-free.
+ */
+public final class ExceptionalReporter {
+
+    /**
+     * Where bugs are posted unless told otherwise.
+     */
+    public static final String DEFAULT_ENDPOINT = 
+        "https://www.exceptional.io/api/errors";
+
+    /**
+     * Recently reported bugs, keyed by {@link Fingerprint}.
+     */
+    private volatile DedupCache<Long> recentBugs = 
+        new DedupCache<Long>(1000, TimeUnit.HOURS.toMillis(1));
+
+    private final BacktraceCache backtraces = new BacktraceCache(256);
+
+    /**
+     * The number of buckets bugs are hashed into for rate limiting each one
+     * separately.
+     */
+    private static final int RATE_LIMIT_SLOTS = 1024;
+
+    private static final BugRunner[] NO_RUNNERS = new BugRunner[0];
+
+    private static final EventFilter[] NO_FILTERS = new EventFilter[0];
+
+    /**
+     * The number of failed requests kept for {@link #getRecentFailures()}.
+     */
+    private static final int RECENT_FAILURES = 32;
+
+    /**
+     * The most of a failure response's body that's kept.
+     */
+    private static final int FAILURE_BODY_BYTES = 2048;
+
+    private volatile int rateLimit = 600;
+
+    private volatile int rateLimitBurst = 100;
+
+    private volatile int fingerprintRateLimit = 60;
+
+    private volatile int fingerprintRateLimitBurst = 10;
+
+    private volatile long rateLimitSummaryMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile TokenBucket globalLimiter = 
+        new TokenBucket(1, rateLimit, rateLimitBurst);
+
+    /**
+     * Limits each bug by its {@link Fingerprint}, or by
+     * {@link Fingerprint#ofCaller(EventSnapshot)} if the caller's location
+     * wasn't taken, before the global limit so a storm of one bug can't use
+     * up the tokens for all the others. Bugs with a location are checked
+     * for duplicates first, so duplicates that wouldn't be sent anyway don't
+     * use up tokens.
+     */
+    private volatile TokenBucket fingerprintLimiter = 
+        new TokenBucket(RATE_LIMIT_SLOTS, fingerprintRateLimit, 
+            fingerprintRateLimitBurst);
+
+    /**
+     * Events rate limited since the last summary was reported.
+     */
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private final AtomicLong lastRateLimitSummary = 
+        new AtomicLong(System.nanoTime());
+
+    private final AtomicLong rateLimitedTotal = new AtomicLong();
+
+    private volatile int samplingThreshold = 0;
+
+    /**
+     * Samples each bug by {@link Fingerprint#ofCaller(EventSnapshot)} once 
+     * it's logged more often than the threshold, before the rate limits so
+     * a storm is thinned out evenly rather than cut off.
+     */
+    private volatile AdaptiveSampler sampler = 
+        new AdaptiveSampler(RATE_LIMIT_SLOTS, samplingThreshold);
+    
+    /**
+     * One for each sender thread, each with its own queue and batcher, 
+     * created along with the threads when the first event is reported. 
+     * Events are spread over them by {@link Fingerprint}, so each bug is 
+     * always sent by the same thread, in the order it was logged.
+     */
+    private volatile BugRunner[] runners;
+
+    private final Object senderLock = new Object();
+
+    private volatile int senders = 1;
+
+    private volatile boolean virtualThreads;
+    
+    /**
+     * The callback, or <code>null</code> if there isn't one, which lets us 
+     * skip building the JSON object callbacks are given.
+     */
+    private final ExceptionalCallback callback;
+
+    private final boolean threaded;
+
+    private final String apiKey;
+
+    private final boolean active;
+
+    private final HttpStrategy httpClient;
+
+    private final boolean ownsHttpClient;
+    
+    private final Queue<Sanitizer> sanitizers = new LinkedBlockingQueue<Sanitizer>();
+
+    /**
+     * The sanitizers added with 
+     * {@link #addCombinableSanitizer(RegexSanitizer)}, by identity.
+     */
+    private final Set<Sanitizer> combinableSanitizers = 
+        Collections.newSetFromMap(new IdentityHashMap<Sanitizer, Boolean>());
+
+    /**
+     * The sanitizers actually applied, with runs of combinable regexes 
+     * combined into single passes.
+     */
+    private volatile Sanitizer[] sanitizerChain = new Sanitizer[0];
+
+    /**
+     * Filters run on the logging thread, copied on write as they're read 
+     * for every event.
+     */
+    private volatile EventFilter[] eventFilters = NO_FILTERS;
+
+    /**
+     * Filters run on the sender thread as events are taken off the queue.
+     */
+    private volatile EventFilter[] dequeueFilters = NO_FILTERS;
+
+    private final EnvironmentProvider environment = 
+        new EnvironmentProvider(60 * 1000);
+
+    private volatile String endpoint = DEFAULT_ENDPOINT;
+
+    private volatile int compressionThreshold = 1024;
+
+    private volatile int maxMessageBytes = 8 * 1024;
+
+    private volatile int maxFrames = 256;
+
+    private volatile int maxPayloadBytes = 128 * 1024;
+
+    private volatile int queueCapacity = 1024;
+
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    private volatile long blockTimeoutMillis = 100;
+
+    private volatile int batchSize = 1;
+
+    private volatile int batchBytes = 512 * 1024;
+
+    private volatile long lingerMillis = 1000;
+
+    private volatile String spoolDirectory;
+
+    private volatile int spoolSegmentBytes = 4 * 1024 * 1024;
+
+    private volatile long spoolMaxBytes = 64L * 1024 * 1024;
+
+    private volatile FsyncPolicy spoolFsync = FsyncPolicy.PERIODIC;
+
+    private volatile long spoolFsyncIntervalMillis = 1000;
+
+    private volatile int maxRetries = 3;
+
+    private volatile long retryBaseMillis = 500;
+
+    private volatile long retryMaxMillis = 30 * 1000;
+
+    /**
+     * Only used on the sender thread.
+     */
+    private final Random retryJitter = new Random();
+
+    private final CircuitBreaker breaker = new CircuitBreaker(5, 30 * 1000);
+
+    private final AppenderMetrics metrics = new AppenderMetrics(this);
+
+    private final Diagnostics diagnostics = new Diagnostics();
+
+    private final FailureRing failures = new FailureRing(RECENT_FAILURES);
+
+    private volatile boolean jmx = true;
+
+    /**
+     * The name the metrics are registered under, if they are.
+     */
+    private ObjectName mbeanName;
+
+    private volatile long closeTimeoutMillis = 5000;
+
+    private volatile boolean shutdownHook;
+
+    /**
+     * Closes the reporter when the JVM exits, if asked to.
+     */
+    private Thread shutdownHookThread;
+
+    /**
+     * Set once the reporter starts closing, after which events are turned 
+     * away and the sender threads drain their queues and stop.
+     */
+    private volatile boolean closing;
+
+    /**
+     * The sender threads waiting for events or to retry, which are the only
+     * ones closing interrupts, so a request being sent isn't cut short.
+     * Guarded by itself.
+     */
+    private final Set<Thread> waitingSenders = new HashSet<Thread>();
+
+    /**
+     * When the sender threads have to give up draining the queues, in 
+     * {@link System#nanoTime()} time.
+     */
+    private volatile long drainDeadline;
+
+    /**
+     * Set if a sender thread had to give up on a batch at the deadline.
+     */
+    private volatile boolean drainCutShort;
+
+    private Thread[] senderThreads;
+
+    /**
+     * Requests posted asynchronously and not yet answered.
+     */
+    private final AtomicInteger asyncInFlight = new AtomicInteger();
+
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Bugs waiting to be sent, on disk, opened along with the sender thread
+     * if there's a spool directory.
+     */
+    private volatile DiskSpool spool;
+
+    /**
+     * Set when an asynchronous post succeeds while there's still something in
+     * the spool, so the sender thread replays it.
+     */
+    private volatile boolean replayDue;
+
+    /**
+     * Spooled records being posted and not yet answered, which replaying 
+     * skips. Records are spooled and added under its lock, and replaying
+     * lists the spool under it too, so it can't see one before it's added.
+     */
+    private final Set<Long> postingRecords = 
+        Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private boolean spoolFailed;
+
+    /**
+     * Set while a sender thread replays the spool, so the others don't send
+     * the same records.
+     */
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    /**
+     * Creates a new reporter that sends bugs from its own thread.
+     * 
+     * @param apiKey Your API key.
+     */
+    public ExceptionalReporter(final String apiKey) {
+        this(apiKey, null, true, new PooledHttpStrategy(), true);
+    }
+
+    /**
+     * Creates a new reporter.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug, or <code>null</code> for none.
+     * @param threaded Whether or not to thread submissions to Exceptional.
+     * @param httpClient The client to send bugs with.
+     * @param ownsHttpClient Whether the reporter shuts the HTTP client down 
+     * when it's closed, which it can only do for the strategies in this 
+     * package.
+     */
+    public ExceptionalReporter(final String apiKey, 
+        final ExceptionalCallback callback, final boolean threaded, 
+        final HttpStrategy httpClient, final boolean ownsHttpClient) {
+        this.apiKey = apiKey;
+        this.ownsHttpClient = ownsHttpClient;
+        this.callback = callback;
+        this.threaded = threaded;
+        this.httpClient = httpClient;
+        if (this.apiKey.equals(ExceptionalUtils.NO_OP_KEY)) {
+            this.active = false;
+        } else {
+            this.active = true;
+        }
+        if (this.httpClient == null) {
+            throw new NullPointerException("Null HTTP client?");
+        }
+    }
+    
+    /**
+     * Add a {@link Sanitizer} to the list of sanitizers used to clean strings
+     * prior to sending them to Exceptional.
+     */
+    public void addSanitizer(Sanitizer sanitizer) {
+        synchronized (sanitizers) {
+            sanitizers.add(sanitizer);
+            sanitizerChain = 
+                CompositeSanitizer.combine(sanitizers, combinableSanitizers);
+        }
+    }
+
+    /**
+     * Adds a {@link RegexSanitizer} that's applied in the same pass over the
+     * string as any added this way just before it, which is much quicker 
+     * than applying them one after another. Unlike with 
+     * {@link #addSanitizer(Sanitizer)}, each of them sees the original 
+     * string rather than what the ones before it made of it, and where 
+     * their matches would overlap, the one starting first wins. Rules that
+     * rely on an earlier rule's output should be added with 
+     * {@link #addSanitizer(Sanitizer)}.
+     * 
+     * @param sanitizer The sanitizer.
+     */
+    public void addCombinableSanitizer(final RegexSanitizer sanitizer) {
+        synchronized (sanitizers) {
+            combinableSanitizers.add(sanitizer);
+            addSanitizer(sanitizer);
+        }
+    }
+
+    /**
+     * Adds a filter run on the logging thread for every event at or above 
+     * the level reported, before it's sampled, rate limited or checked for 
+     * duplicates. Events it rejects cost nothing more. It should be quick, 
+     * as the logging thread waits for it.
+     * 
+     * @param filter The filter.
+     */
+    public void addEventFilter(final EventFilter filter) {
+        synchronized (sanitizers) {
+            eventFilters = append(eventFilters, filter);
+        }
+    }
+
+    /**
+     * Adds a filter run on a sender thread as each event is taken off the 
+     * queue, before the bug is rendered and the callback called. This suits
+     * filters too slow to run on the logging thread, such as those that 
+     * look at the message. Rejected events still take their place in the 
+     * queue and count against the rate limits.
+     * 
+     * @param filter The filter.
+     */
+    public void addDequeueFilter(final EventFilter filter) {
+        synchronized (sanitizers) {
+            dequeueFilters = append(dequeueFilters, filter);
+        }
+    }
+
+    private static EventFilter[] append(final EventFilter[] filters, 
+        final EventFilter filter) {
+        final EventFilter[] added = new EventFilter[filters.length + 1];
+        System.arraycopy(filters, 0, added, 0, filters.length);
+        added[filters.length] = filter;
+        return added;
+    }
+
+    /**
+     * Sets the maximum number of events waiting to be sent. Events are
+     * handled according to the overflow policy once the queue is full. This
+     * has to be set before the first event is reported.
+     * 
+     * @param queueCapacity The capacity, rounded up to a power of two.
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets how many threads send bugs, so a slow server doesn't hold up 
+     * every bug behind the one being sent. Each bug is always sent by the 
+     * same thread, so repeats of a bug arrive in the order they were 
+     * logged. Bugs logged without the caller's location are shared out by
+     * their logger and throwable classes, which the logging thread can
+     * afford, so different bugs of the same class go to the same thread.
+     * The queue capacity is shared out between the 
+     * threads. This has to be set before the first event is reported.
+     * 
+     * @param senders The number of threads, 1 by default.
+     */
+    public void setSenders(final int senders) {
+        this.senders = Math.max(1, senders);
+    }
+
+    public int getSenders() {
+        return senders;
+    }
+
+    /**
+     * Sets whether to send bugs from virtual threads rather than platform
+     * threads, on Java 21 and later. Earlier versions use platform threads
+     * anyway. This has to be set before the first event is reported.
+     * 
+     * @param virtualThreads Whether to use virtual threads.
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets what to do with events when the queue is full: one of 
+     * <code>DROP_NEWEST</code> (the default), <code>DROP_OLDEST</code> or
+     * <code>BLOCK</code>. This has to be set before the first event is
+     * reported.
+     * 
+     * @param overflowPolicy The name of the policy.
+     */
+    public void setOverflowPolicy(final String overflowPolicy) {
+        this.overflowPolicy = 
+            OverflowPolicy.toPolicy(overflowPolicy, OverflowPolicy.DROP_NEWEST);
+    }
+
+    public String getOverflowPolicy() {
+        return overflowPolicy.name();
+    }
+
+    /**
+     * Sets how long a logging thread waits for room in a full queue with the
+     * <code>BLOCK</code> overflow policy before the event is dropped.
+     * 
+     * @param blockTimeoutMillis The timeout in milliseconds.
+     */
+    public void setBlockTimeoutMillis(final long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * Sets the maximum number of bugs sent in a single request. With the 
+     * default of 1 each bug is sent on its own, exactly as protocol 6 
+     * expects. Anything larger sends a JSON array of bugs, so only use it
+     * with an endpoint that accepts them. This has to be set before the first
+     * event is reported.
+     * 
+     * @param batchSize The maximum number of bugs per request.
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum size of a batch, in bytes of uncompressed JSON. A 
+     * single bug larger than this is still sent on its own.
+     * 
+     * @param batchBytes The maximum batch size in bytes.
+     */
+    public void setBatchBytes(final int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * Sets how long the first bug in a batch waits for others to join it 
+     * before the batch is sent regardless.
+     * 
+     * @param lingerMillis The linger time in milliseconds.
+     */
+    public void setLingerMillis(final long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Sets how often the free disk space reported with each bug is checked.
+     * 
+     * @param diskSpaceRefreshMillis The interval in milliseconds.
+     */
+    public void setDiskSpaceRefreshMillis(final long diskSpaceRefreshMillis) {
+        this.environment.setRefreshMillis(diskSpaceRefreshMillis);
+    }
+
+    public long getDiskSpaceRefreshMillis() {
+        return this.environment.getRefreshMillis();
+    }
+
+    /**
+     * Sets the directory where bugs are spooled to disk before they're sent,
+     * so they aren't lost if the process dies or the network is down. Bugs
+     * left there are sent when the reporter next starts, or with the first bug
+     * if it's never started. By default nothing is spooled. This has to be
+     * set before the reporter's started.
+     * 
+     * @param spoolDirectory The directory, created if need be.
+     */
+    public void setSpoolDirectory(final String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Sets the size of each spool file. A batch too big for one isn't 
+     * spooled.
+     * 
+     * @param spoolSegmentBytes The size in bytes.
+     */
+    public void setSpoolSegmentBytes(final int spoolSegmentBytes) {
+        this.spoolSegmentBytes = spoolSegmentBytes;
+    }
+
+    public int getSpoolSegmentBytes() {
+        return spoolSegmentBytes;
+    }
+
+    /**
+     * Sets the most disk space the spool can take. The oldest unsent bugs 
+     * are dropped when it's full.
+     * 
+     * @param spoolMaxBytes The limit in bytes.
+     */
+    public void setSpoolMaxBytes(final long spoolMaxBytes) {
+        this.spoolMaxBytes = spoolMaxBytes;
+    }
+
+    public long getSpoolMaxBytes() {
+        return spoolMaxBytes;
+    }
+
+    /**
+     * Sets when spooled bugs are forced to disk: <code>ALWAYS</code>, 
+     * <code>PERIODIC</code> (the default) or <code>NEVER</code>. Spooled 
+     * bugs survive the process dying either way.
+     * 
+     * @param spoolFsync The name of the policy.
+     */
+    public void setSpoolFsync(final String spoolFsync) {
+        this.spoolFsync = 
+            FsyncPolicy.toPolicy(spoolFsync, FsyncPolicy.PERIODIC);
+    }
+
+    public String getSpoolFsync() {
+        return spoolFsync.name();
+    }
+
+    /**
+     * Sets how often the spool is forced to disk with the 
+     * <code>PERIODIC</code> policy.
+     * 
+     * @param spoolFsyncIntervalMillis The interval in milliseconds.
+     */
+    public void setSpoolFsyncIntervalMillis(
+        final long spoolFsyncIntervalMillis) {
+        this.spoolFsyncIntervalMillis = spoolFsyncIntervalMillis;
+    }
+
+    public long getSpoolFsyncIntervalMillis() {
+        return spoolFsyncIntervalMillis;
+    }
+
+    /**
+     * @return The number of requests spooled on disk and not yet accepted.
+     */
+    public int getSpooledCount() {
+        final DiskSpool s = this.spool;
+        return s == null ? 0 : s.getPendingCount();
+    }
+
+    /**
+     * @return The number of batches sent, not counting the halves of
+     * batches that were split after the server rejected them.
+     */
+    public long getBatchCount() {
+        long n = 0L;
+        for (final BugRunner r : runners()) {
+            n += r.batcher.getBatchesFlushed();
+        }
+        return n;
+    }
+
+    /**
+     * @return The number of bugs in the largest batch sent so far.
+     */
+    public int getLargestBatch() {
+        int largest = 0;
+        for (final BugRunner r : runners()) {
+            largest = Math.max(largest, r.batcher.getLargestBatch());
+        }
+        return largest;
+    }
+
+    /**
+     * @return How long, on average, the first bug in each batch waited 
+     * before the batch was sent.
+     */
+    public long getAverageLingerMillis() {
+        long batches = 0L;
+        long linger = 0L;
+        for (final BugRunner r : runners()) {
+            batches += r.batcher.getBatchesFlushed();
+            linger += r.batcher.getTotalLingerNanos();
+        }
+        return batches == 0L ? 0L : 
+            TimeUnit.NANOSECONDS.toMillis(linger / batches);
+    }
+
+    /**
+     * @return The longest time the first bug in a batch waited before the
+     * batch was sent.
+     */
+    public long getLongestLingerMillis() {
+        long longest = 0L;
+        for (final BugRunner r : runners()) {
+            longest = Math.max(longest, r.batcher.getLongestLingerNanos());
+        }
+        return TimeUnit.NANOSECONDS.toMillis(longest);
+    }
+
+    /**
+     * Sets how many times the sender thread retries a request that failed 
+     * in a way that might not happen again, such as a 503 or the connection
+     * failing. Bugs sent without a sender thread aren't retried.
+     * 
+     * @param maxRetries The number of retries after the first attempt.
+     */
+    public void setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the delay before the first retry. Each retry after that waits
+     * twice as long as the one before, up to the maximum, with a random 
+     * part so many clients don't retry in step.
+     * 
+     * @param retryBaseMillis The delay in milliseconds.
+     */
+    public void setRetryBaseMillis(final long retryBaseMillis) {
+        this.retryBaseMillis = retryBaseMillis;
+    }
+
+    public long getRetryBaseMillis() {
+        return retryBaseMillis;
+    }
+
+    /**
+     * Sets the longest delay before a retry. A request that would have to 
+     * wait longer, because the server asked for that with 
+     * <code>Retry-After</code> for example, isn't retried.
+     * 
+     * @param retryMaxMillis The delay in milliseconds.
+     */
+    public void setRetryMaxMillis(final long retryMaxMillis) {
+        this.retryMaxMillis = retryMaxMillis;
+    }
+
+    public long getRetryMaxMillis() {
+        return retryMaxMillis;
+    }
+
+    /**
+     * Sets how many requests in a row have to fail before sending stops for
+     * a while. Bugs aren't sent in that time, unless they're spooled, in 
+     * which case they're sent once a single probe request gets through.
+     * 
+     * @param circuitFailureThreshold The number of failed requests.
+     */
+    public void setCircuitFailureThreshold(final int circuitFailureThreshold) {
+        this.breaker.setFailureThreshold(circuitFailureThreshold);
+    }
+
+    public int getCircuitFailureThreshold() {
+        return this.breaker.getFailureThreshold();
+    }
+
+    /**
+     * Sets how long sending stops for after too many failed requests, before
+     * a probe request is sent to see if the server is back.
+     * 
+     * @param circuitOpenMillis The time in milliseconds.
+     */
+    public void setCircuitOpenMillis(final long circuitOpenMillis) {
+        this.breaker.setOpenMillis(circuitOpenMillis);
+    }
+
+    public long getCircuitOpenMillis() {
+        return this.breaker.getOpenMillis();
+    }
+
+    /**
+     * @return <code>CLOSED</code> while bugs are being sent, 
+     * <code>OPEN</code> while sending has stopped because of failures and
+     * <code>HALF_OPEN</code> while a probe is in flight.
+     */
+    public String getCircuitState() {
+        return this.breaker.getState().name();
+    }
+
+    /**
+     * @return The number of requests not sent because sending had stopped.
+     */
+    public long getCircuitRejectedCount() {
+        return this.breaker.getRejectedCount();
+    }
+
+    /**
+     * Sets how many events a minute are reported at most, across all bugs.
+     * Events over the limit are counted and the count reported in a summary
+     * instead. This has to be set before the first event is reported.
+     * 
+     * @param rateLimit The number of events a minute, or 0 for no limit.
+     */
+    public void setRateLimit(final int rateLimit) {
+        this.rateLimit = rateLimit;
+        this.globalLimiter = new TokenBucket(1, rateLimit, rateLimitBurst);
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Sets how many events can be reported at once before the rate limit 
+     * applies. This has to be set before the first event is reported.
+     * 
+     * @param rateLimitBurst The number of events.
+     */
+    public void setRateLimitBurst(final int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+        this.globalLimiter = new TokenBucket(1, rateLimit, rateLimitBurst);
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * Sets how many events a minute are reported at most for any one bug, 
+     * as identified by its stack trace or location. Bugs logged without the
+     * caller's location are told apart by their logger and throwable 
+     * classes instead, as the logging thread can't afford to walk the 
+     * stack. This has to be set before the first event is reported.
+     * 
+     * @param fingerprintRateLimit The number of events a minute, or 0 for 
+     * no limit.
+     */
+    public void setFingerprintRateLimit(final int fingerprintRateLimit) {
+        this.fingerprintRateLimit = fingerprintRateLimit;
+        this.fingerprintLimiter = new TokenBucket(RATE_LIMIT_SLOTS, 
+            fingerprintRateLimit, fingerprintRateLimitBurst);
+    }
+
+    public int getFingerprintRateLimit() {
+        return fingerprintRateLimit;
+    }
+
+    /**
+     * Sets how many events can be reported at once for any one bug before
+     * its rate limit applies. This has to be set before the first event is
+     * reported.
+     * 
+     * @param fingerprintRateLimitBurst The number of events.
+     */
+    public void setFingerprintRateLimitBurst(
+        final int fingerprintRateLimitBurst) {
+        this.fingerprintRateLimitBurst = fingerprintRateLimitBurst;
+        this.fingerprintLimiter = new TokenBucket(RATE_LIMIT_SLOTS, 
+            fingerprintRateLimit, fingerprintRateLimitBurst);
+    }
+
+    public int getFingerprintRateLimitBurst() {
+        return fingerprintRateLimitBurst;
+    }
+
+    /**
+     * Sets how often the number of rate limited events is reported.
+     * 
+     * @param rateLimitSummaryMillis The interval in milliseconds.
+     */
+    public void setRateLimitSummaryMillis(final long rateLimitSummaryMillis) {
+        this.rateLimitSummaryMillis = rateLimitSummaryMillis;
+    }
+
+    public long getRateLimitSummaryMillis() {
+        return rateLimitSummaryMillis;
+    }
+
+    /**
+     * @return The number of events not reported because of a rate limit.
+     */
+    public long getRateLimitedCount() {
+        return rateLimitedTotal.get();
+    }
+
+    /**
+     * Sets how many times a second any one bug, as identified by its 
+     * throwable's class and causes, its logger and location, can be logged
+     * before only a random sample of it is
+     * reported. The sample gets smaller the more it's logged, to about this
+     * many a second, and each report says what fraction of the events it
+     * was sampled from as <code>sample_rate</code>, and how many events 
+     * went unreported since the last report in 
+     * <code>occurrences_since_last_report</code>. Bugs logged without the 
+     * caller's location are told apart only by their logger and throwable
+     * classes here, so a threshold of hundreds a second suits a storm 
+     * without sampling out different bugs logged together. Sampling is off
+     * by default. This has to be set before the first event is reported.
+     * 
+     * @param samplingThreshold The number of events a second, or 0, the 
+     * default, to report every event.
+     */
+    public void setSamplingThreshold(final int samplingThreshold) {
+        this.samplingThreshold = samplingThreshold;
+        this.sampler = 
+            new AdaptiveSampler(RATE_LIMIT_SLOTS, samplingThreshold);
+    }
+
+    public int getSamplingThreshold() {
+        return samplingThreshold;
+    }
+
+    /**
+     * Sets the URL bugs are posted to, for sending them through a proxy or
+     * to a stand-in server in tests. The API key and protocol version are 
+     * added as query parameters.
+     * 
+     * @param endpoint The URL, {@link #DEFAULT_ENDPOINT} by default.
+     */
+    public void setEndpoint(final String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Sets the smallest request worth compressing. Below this, gzip's 
+     * header and the CPU it takes cost more than it saves, so smaller 
+     * requests are sent as they are.
+     * 
+     * @param compressionThreshold The size of the JSON in bytes, 1024 by 
+     * default, or 0 to compress everything.
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the most of a message that's reported. Longer messages are cut 
+     * as they're written, ending with a note of how much was left out, and
+     * the report's <code>truncated</code> field says so. The lines 
+     * introducing each cause of a throwable are held to this too.
+     * 
+     * @param maxMessageBytes The limit in bytes of JSON, 8 KB by default.
+     */
+    public void setMaxMessageBytes(final int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    public int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    /**
+     * Sets the most lines of backtrace reported for a bug, across its whole
+     * chain of causes. Each throwable cut short ends with a line saying how
+     * many were left out.
+     * 
+     * @param maxFrames The number of lines, 256 by default.
+     */
+    public void setMaxFrames(final int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    /**
+     * Sets the most a single bug can add to a request. Once the message and
+     * backtrace have used this up the rest of the backtrace is left out. 
+     * Data added by a callback always goes in whole, as it comes first.
+     * 
+     * @param maxPayloadBytes The size in bytes of JSON, 128 KB by default.
+     */
+    public void setMaxPayloadBytes(final int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    public int getMaxPayloadBytes() {
+        return maxPayloadBytes;
+    }
+
+    /**
+     * Sets how long closing the reporter waits for the bugs already logged
+     * to be sent. Bugs still waiting after that are abandoned.
+     * 
+     * @param closeTimeoutMillis The timeout in milliseconds.
+     */
+    public void setCloseTimeoutMillis(final long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    public long getCloseTimeoutMillis() {
+        return closeTimeoutMillis;
+    }
+
+    /**
+     * Sets whether the reporter closes itself when the JVM exits, sending
+     * what it can of the bugs logged just before. This takes effect when 
+     * the reporter is started, and is off by default.
+     * 
+     * @param shutdownHook Whether to close on exit.
+     */
+    public void setShutdownHook(final boolean shutdownHook) {
+        this.shutdownHook = shutdownHook;
+    }
+
+    public boolean getShutdownHook() {
+        return shutdownHook;
+    }
+
+    /**
+     * @return The number of events given up on because the reporter was 
+     * closed before they could be sent.
+     */
+    public long getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    /**
+     * Sets whether the metrics are registered over JMX when the reporter is
+     * started. They are by default.
+     * 
+     * @param jmx Whether to register them.
+     */
+    public void setJmx(final boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public boolean getJmx() {
+        return jmx;
+    }
+
+    /**
+     * @return Counts and timings of what the reporter has done.
+     */
+    public AppenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets how much the reporter says about what it's doing on standard 
+     * error: one of <code>OFF</code> (the default), <code>ERROR</code>, 
+     * <code>WARN</code> or <code>DEBUG</code>. Failed requests are kept for
+     * {@link #getRecentFailures()} whatever the level.
+     * 
+     * @param diagnosticLevel The name of the level.
+     */
+    public void setDiagnosticLevel(final String diagnosticLevel) {
+        diagnostics.setLevel(DiagnosticLevel.toLevel(diagnosticLevel, 
+            DiagnosticLevel.OFF));
+    }
+
+    public String getDiagnosticLevel() {
+        return diagnostics.getLevel().name();
+    }
+
+    /**
+     * @return The last few requests that failed, oldest first, with the 
+     * start of each response or the error if there wasn't one.
+     */
+    public List<DeliveryFailure> getRecentFailures() {
+        return failures.snapshot();
+    }
+
+    /**
+     * @return The number of requests that have failed, including those no
+     * longer kept by {@link #getRecentFailures()}.
+     */
+    public long getFailureCount() {
+        return failures.getTotal();
+    }
+
+    /**
+     * @return The approximate number of events waiting for the sender 
+     * threads.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (final BugRunner r : runners()) {
+            depth += r.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Sets the maximum number of distinct bugs remembered for spotting 
+     * duplicates. The least recently seen bugs are forgotten first. This has
+     * to be set before the first event is reported.
+     * 
+     * @param dedupCapacity The number of bugs to remember.
+     */
+    public void setDedupCapacity(final int dedupCapacity) {
+        this.recentBugs = new DedupCache<Long>(dedupCapacity, 
+            recentBugs.getWindowMillis());
+    }
+
+    public int getDedupCapacity() {
+        return recentBugs.getCapacity();
+    }
+
+    /**
+     * Sets how long after a bug is reported its duplicates are suppressed.
+     * The next report after that says how many were suppressed in between.
+     * This has to be set before the first event is reported.
+     * 
+     * @param dedupWindowMillis The window in milliseconds.
+     */
+    public void setDedupWindowMillis(final long dedupWindowMillis) {
+        this.recentBugs = new DedupCache<Long>(recentBugs.getCapacity(), 
+            dedupWindowMillis);
+    }
+
+    public long getDedupWindowMillis() {
+        return recentBugs.getWindowMillis();
+    }
+
+    /**
+     * @return The number of duplicate events that weren't reported.
+     */
+    public long getSuppressedCount() {
+        return recentBugs.getSuppressedCount();
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        long dropped = 0L;
+        for (final BugRunner r : runners()) {
+            dropped += r.queue.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /**
+     * Counts an event that reached the appender, and says whether to take a
+     * snapshot of it for {@link #report(EventSnapshot)}. This is cheap, and 
+     * allocates nothing, so appenders call it for every event.
+     * 
+     * @param reportable Whether the event is at or above the level reported.
+     * @return <code>true</code> if the event should be reported.
+     */
+    public boolean accept(final boolean reportable) {
+        // Only submit the bug under certain conditions.
+        if (!active) {
+            diagnostics.debug("Exceptional reporting is not active");
+            return false;
+        }
+        if (closing) {
+            // Only events that would have been reported are lost.
+            if (reportable) {
+                abandoned.incrementAndGet();
+            }
+            return false;
+        }
+        metrics.appended.increment();
+        // Ignore plain old logs.
+        if (!reportable) {
+            metrics.filteredByLevel.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports an event accepted by {@link #accept(boolean)}, unless a filter
+     * rejects it or it's sampled out, a duplicate or rate limited. All of 
+     * that happens here, so a storm is thinned out before it reaches the 
+     * queue, except checking for duplicates of events without the caller's
+     * location, which waits for the sender thread.
+     * 
+     * @param snapshot The event.
+     */
+    public void report(final EventSnapshot snapshot) {
+        reportRateLimited();
+        if (!passes(eventFilters, snapshot)) {
+            return;
+        }
+        // The fingerprint walks the throwable's stack, so it's left to the
+        // sending thread unless the caller's location was taken anyway.
+        final long key = Fingerprint.ofCaller(snapshot);
+        final double sampleRate = sampler.sample(key);
+        if (sampleRate == AdaptiveSampler.DROP) {
+            metrics.sampledOut.increment();
+            return;
+        }
+        final EventSnapshot sampled = snapshot.withSampleRate(sampleRate);
+        final EventSnapshot event;
+        final long stripeKey;
+        if (sampled.hasLocation()) {
+            final long fingerprint = sampled.getFingerprint();
+            final long suppressed = 
+                recentBugs.record(fingerprint, sampler.takeDropped(key));
+            if (suppressed == DedupCache.DUPLICATE) {
+                return;
+            }
+            if (!acquire(fingerprint)) {
+                // So it's sent once there are tokens again.
+                recentBugs.forget(fingerprint, suppressed);
+                return;
+            }
+            event = sampled.withSuppressedCount(suppressed);
+            stripeKey = fingerprint;
+        } else {
+            if (!acquire(key)) {
+                return;
+            }
+            // Duplicates are checked on the sending thread in this case, 
+            // which adds them to the events sampled out.
+            event = sampled.withSuppressedCount(sampler.takeDropped(key));
+            stripeKey = key;
+        }
+        dispatch(event, stripeKey);
+    }
+
+    /**
+     * Takes a token for a bug from the limit for its key and the global 
+     * limit, counting it as rate limited if there wasn't one.
+     * 
+     * @return <code>true</code> if the bug can be sent.
+     */
+    private boolean acquire(final long key) {
+        if (fingerprintLimiter.tryAcquire(key) &&
+            globalLimiter.tryAcquire()) {
+            return true;
+        }
+        rateLimited.incrementAndGet();
+        rateLimitedTotal.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return Whether every filter accepted the event. A filter that throws
+     * is taken to accept it, so a broken filter doesn't stop bugs being
+     * reported.
+     */
+    private boolean passes(final EventFilter[] filters, 
+        final EventView event) {
+        for (final EventFilter filter : filters) {
+            try {
+                if (!filter.accept(event)) {
+                    metrics.rejectedByFilter.increment();
+                    return false;
+                }
+            } catch (final RuntimeException e) {
+                diagnostics.error("Event filter failed: ", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key The key picking the sender, which has to be the same for 
+     * every repeat of a bug so they're sent in order.
+     */
+    private void dispatch(final EventSnapshot event, final long key) {
+        // Just hand it to a sender thread to avoid holding up the calling
+        // thread.
+        if (threaded) {
+            final BugRunner[] r = startSenders();
+            r[stripe(key, r.length)].queue.offer(event);
+        } else {
+            submitNow(event);
+        }
+    }
+
+    /**
+     * Reports how many events were rate limited, at most once per summary
+     * period. This is checked as events come in, so the report goes with
+     * the first event after the period is up.
+     */
+    private void reportRateLimited() {
+        if (rateLimited.get() == 0L) {
+            return;
+        }
+        final long last = lastRateLimitSummary.get();
+        final long now = System.nanoTime();
+        if (now - last < TimeUnit.MILLISECONDS.toNanos(rateLimitSummaryMillis) ||
+            !lastRateLimitSummary.compareAndSet(last, now)) {
+            return;
+        }
+        final long count = rateLimited.getAndSet(0L);
+        if (count == 0L) {
+            return;
+        }
+        final String message = count + " events rate-limited in the last " + 
+            TimeUnit.NANOSECONDS.toSeconds(now - last) + " seconds";
+        // Not rate limited itself, so it gets through during a storm. Giving
+        // it a location keeps the sending thread from taking it for a 
+        // duplicate of the last summary.
+        final EventSnapshot summary = EventSnapshot.of(getClass().getName(), 
+            "WARN", System.currentTimeMillis(), 
+            Thread.currentThread().getName(), message, null, 
+            new StackTraceElement(getClass().getName(), "reportRateLimited",
+                null, -1));
+        dispatch(summary, summary.getFingerprint());
+    }
+
+    /**
+     * @return The sender threads' runners, or none if they haven't started.
+     */
+    private BugRunner[] runners() {
+        final BugRunner[] r = this.runners;
+        return r == null ? NO_RUNNERS : r;
+    }
+
+    private BugRunner[] startSenders() {
+        final BugRunner[] r = this.runners;
+        if (r != null) {
+            return r;
+        }
+        synchronized (senderLock) {
+            if (this.runners == null) {
+                final int n = senders;
+                if (ownsHttpClient && 
+                    httpClient instanceof PooledHttpStrategy) {
+                    // Enough connections that no sender waits for another.
+                    ((PooledHttpStrategy) httpClient).ensureMaxConnections(n);
+                }
+                final int capacity = Math.max(1, (queueCapacity + n - 1) / n);
+                final BugRunner[] started = new BugRunner[n];
+                final Thread[] threads = new Thread[n];
+                for (int i = 0; i < n; i++) {
+                    started[i] = new BugRunner(
+                        new BoundedEventQueue<EventSnapshot>(capacity, 
+                            overflowPolicy, blockTimeoutMillis));
+                    threads[i] = SenderThreads.newThread(started[i], 
+                        n == 1 ? "Exceptional-Bug-Sender" : 
+                            "Exceptional-Bug-Sender-" + i, virtualThreads);
+                }
+                this.senderThreads = threads;
+                this.runners = started;
+                for (final Thread t : threads) {
+                    t.start();
+                }
+            }
+            return this.runners;
+        }
+    }
+
+    /**
+     * @return Which of <code>n</code> sender threads sends the bug with the
+     * given fingerprint.
+     */
+    static int stripe(final long fingerprint, final int n) {
+        // Fingerprints that differ only slightly can share their low bits,
+        // so take the high bits of a multiplicative hash instead.
+        return (int) (((fingerprint * 0x9e3779b97f4a7c15L) >>> 33) % n);
+    }
+
+    /**
+     * Registers the metrics over JMX, unless that's been turned off, adds 
+     * the shutdown hook if there is one, and replays what was left in the
+     * spool if there's a spool directory. Appenders call this once they're
+     * configured. The name registered is 
+     * <code>org.lantern.exceptional4j:type=ExceptionalAppender,name=</code>
+     * followed by the appender's name.
+     * 
+     * @param appenderName The name of the appender, or <code>null</code> if
+     * it doesn't have one.
+     */
+    public void start(final String appenderName) {
+        if (shutdownHook) {
+            addShutdownHook();
+        }
+        if (active && spoolDirectory != null) {
+            // Sends what was left in the spool without waiting for a bug. The
+            // sender threads open it as they start.
+            if (threaded) {
+                startSenders();
+            } else {
+                spool();
+            }
+        }
+        if (!jmx) {
+            return;
+        }
+        final String name = appenderName != null ? appenderName : 
+            "appender-" + Integer.toHexString(System.identityHashCode(this));
+        try {
+            final ObjectName objectName = new ObjectName(
+                "org.lantern.exceptional4j:type=ExceptionalAppender,name=" + 
+                ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, 
+                objectName);
+            synchronized (senderLock) {
+                this.mbeanName = objectName;
+            }
+        } catch (final JMException e) {
+            diagnostics.warn("Could not register metrics: ", e);
+        }
+    }
+
+    private void addShutdownHook() {
+        synchronized (senderLock) {
+            if (shutdownHookThread != null) {
+                return;
+            }
+            shutdownHookThread = new Thread(new Runnable() {
+                public void run() {
+                    close();
+                }
+            }, "Exceptional-Shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHookThread);
+        }
+    }
+
+    /**
+     * Stops taking events and sends those already taken, giving up on any 
+     * left after the close timeout. Bugs being sent are spooled if there's
+     * a spool, so they're sent next time. Then stops the sender threads, 
+     * closes the connections if the reporter opened them, and reports how 
+     * many events were abandoned.
+     */
+    public void close() {
+        close(closeTimeoutMillis);
+    }
+
+    /**
+     * Closes the reporter as {@link #close()} does, but waiting no longer 
+     * than the given timeout for the bugs already logged to be sent, for 
+     * frameworks that say how long they'll wait.
+     * 
+     * @param timeoutMillis The timeout in milliseconds.
+     * @return <code>true</code> if every bug taken was dealt with in time,
+     * or <code>false</code> if any were abandoned.
+     */
+    public boolean close(final long timeoutMillis) {
+        final Thread hook;
+        synchronized (senderLock) {
+            if (closing) {
+                return true;
+            }
+            closing = true;
+            hook = shutdownHookThread;
+            shutdownHookThread = null;
+        }
+        if (hook != null && hook != Thread.currentThread()) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (final IllegalStateException e) {
+                // Already shutting down.
+            }
+        }
+        final long deadline = System.nanoTime() + 
+            TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        drainDeadline = deadline;
+
+        final Thread[] threads;
+        synchronized (senderLock) {
+            threads = this.senderThreads;
+        }
+        if (threads != null) {
+            // Wakes the senders if they're waiting for events or to retry.
+            synchronized (waitingSenders) {
+                for (final Thread sender : waitingSenders) {
+                    sender.interrupt();
+                }
+            }
+            try {
+                for (final Thread sender : threads) {
+                    sender.join(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime())));
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (asyncInFlight.get() > 0 && deadline - System.nanoTime() > 0) {
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        boolean drained = !drainCutShort;
+        if (threads != null) {
+            for (final Thread sender : threads) {
+                drained &= !sender.isAlive();
+            }
+        }
+
+        for (final BugRunner r : runners()) {
+            while (r.queue.poll() != null) {
+                abandoned.incrementAndGet();
+                drained = false;
+            }
+        }
+        final int inFlight = asyncInFlight.get();
+        if (inFlight > 0) {
+            abandoned.addAndGet(inFlight);
+            drained = false;
+        }
+        if (ownsHttpClient) {
+            shutdownHttpClient();
+        }
+        environment.stop();
+        final long n = abandoned.get();
+        if (n > 0L && diagnostics.isEnabled(DiagnosticLevel.WARN)) {
+            diagnostics.warn("Exceptional reporter closed with " + n + 
+                " events abandoned");
+        }
+
+        final DiskSpool s = this.spool;
+        if (s != null) {
+            s.close();
+        }
+        final ObjectName objectName;
+        synchronized (senderLock) {
+            objectName = this.mbeanName;
+            this.mbeanName = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    objectName);
+            } catch (final JMException e) {
+                diagnostics.warn("Could not unregister metrics: ", e);
+            }
+        }
+        return drained;
+    }
+
+    private void shutdownHttpClient() {
+        if (httpClient instanceof PooledHttpStrategy) {
+            ((PooledHttpStrategy) httpClient).shutdown();
+        } else if (httpClient instanceof NioHttpStrategy) {
+            try {
+                ((NioHttpStrategy) httpClient).shutdown();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens the spool the first time it's needed, sending whatever was left
+     * in it.
+     * 
+     * @return The spool, or <code>null</code> if there isn't one.
+     */
+    private DiskSpool spool() {
+        final DiskSpool s = this.spool;
+        if (s != null || spoolDirectory == null) {
+            return s;
+        }
+        final DiskSpool opened;
+        synchronized (senderLock) {
+            if (this.spool != null || spoolFailed) {
+                return this.spool;
+            }
+            try {
+                opened = new DiskSpool(new File(spoolDirectory), 
+                    spoolSegmentBytes, spoolMaxBytes, spoolFsync, 
+                    spoolFsyncIntervalMillis, diagnostics);
+            } catch (final IOException e) {
+                diagnostics.warn("Could not open spool: ", e);
+                spoolFailed = true;
+                return null;
+            }
+            this.spool = opened;
+        }
+        replay(opened);
+        return opened;
+    }
+
+    /**
+     * Sends spooled requests, oldest first, until one fails, unless another
+     * sender thread is already at it.
+     */
+    private void replay(final DiskSpool s) {
+        if (!replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            replayPending(s);
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    private void replayPending(final DiskSpool s) {
+        final List<Long> records;
+        synchronized (postingRecords) {
+            records = s.pendingRecords();
+        }
+        for (final Long record : records) {
+            if (postingRecords.contains(record)) {
+                continue;
+            }
+            final byte[] body = s.read(record.longValue());
+            if (body == null) {
+                continue;
+            }
+            // How many bugs are in a spooled request isn't kept.
+            if (!isFinal(deliver(body, 0, body.length, 0, 0))) {
+                return;
+            }
+            s.ack(record.longValue());
+        }
+    }
+
+    /**
+     * Spools a request that's about to be posted, marking it as being 
+     * posted so no other thread replays it meanwhile.
+     * 
+     * @return The record, or {@link DiskSpool#NONE} if it wasn't spooled.
+     */
+    private long spoolPosting(final DiskSpool s, final byte[] body, 
+        final int offset, final int length) {
+        synchronized (postingRecords) {
+            final long record = s.append(body, offset, length);
+            if (record != DiskSpool.NONE) {
+                postingRecords.add(Long.valueOf(record));
+            }
+            return record;
+        }
+    }
+
+    /**
+     * @return Whether a request with this status is done with, because the
+     * server either took it or will never take it.
+     */
+    private static boolean isFinal(final int statusCode) {
+        if (statusCode >= 200 && statusCode < 300) {
+            return true;
+        }
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 &&
+            statusCode != 429;
+    }
+
+
+    /**
+     * Sends the bugs from one queue, on its own thread.
+     */
+    private final class BugRunner implements Runnable {
+
+        final BoundedEventQueue<EventSnapshot> queue;
+
+        final BugBatcher batcher;
+
+        /**
+         * Only used on the sender thread.
+         */
+        private final JsonWriter writer = new JsonWriter(null);
+
+        /**
+         * Compresses what this thread sends, so it has a {@link Deflater}
+         * of its own to reuse. Only used on the sender thread.
+         */
+        private final GzipBuffer gzip = GzipBuffer.acquire();
+
+        BugRunner(final BoundedEventQueue<EventSnapshot> queue) {
+            this.queue = queue;
+            this.batcher = new BugBatcher(batchSize, batchBytes, 
+                lingerMillis, new BugBatcher.Sender() {
+                    public int send(final byte[] bytes, final int[] offsets, 
+                        final int from, final int to) {
+                        return submitData(gzip, compressionLevel(
+                            queue.size(), queue.capacity()), bytes, offsets, 
+                            from, to);
+                    }
+                });
+        }
+
+        public void run() {
+            try {
+                send();
+            } finally {
+                GzipBuffer.release(gzip);
+            }
+        }
+
+        private void send() {
+            final BoundedEventQueue<EventSnapshot> q = queue;
+            final BugBatcher b = batcher;
+            // Opening the spool sends what was left in it.
+            spool();
+            while (startWaiting()) {
+                final EventSnapshot event;
+                try {
+                    event = q.poll(Math.min(b.nanosUntilDue(), 
+                        TimeUnit.MINUTES.toNanos(1)), TimeUnit.NANOSECONDS);
+                } catch (final InterruptedException e) {
+                    break;
+                } finally {
+                    stopWaiting();
+                }
+                if (event != null) {
+                    metrics.queueDepth(getQueueDepth() + 1);
+                }
+                if (event != null && process(event, writer.reset(b.buffer()))) {
+                    b.commit();
+                }
+                b.flushIfDue();
+            }
+            drain(q, b);
+        }
+
+        /**
+         * Sends what's left in the queue without waiting to retry, until the
+         * close deadline. A batch still waiting then is abandoned along with
+         * the queue.
+         */
+        private void drain(final BoundedEventQueue<EventSnapshot> q, 
+            final BugBatcher b) {
+            // Clear the interrupt that woke us, so sending isn't cut short.
+            Thread.interrupted();
+            while (drainDeadline - System.nanoTime() > 0) {
+                final EventSnapshot event = q.poll();
+                if (event == null) {
+                    break;
+                }
+                if (process(event, writer.reset(b.buffer()))) {
+                    b.commit();
+                }
+                b.flushIfDue();
+            }
+            if (drainDeadline - System.nanoTime() > 0) {
+                b.flush();
+            } else {
+                final int discarded = b.discard();
+                if (discarded > 0) {
+                    abandoned.addAndGet(discarded);
+                    drainCutShort = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the bug for an event.
+     * 
+     * @return <code>true</code> if the bug was written, or 
+     * <code>false</code> if it shouldn't be sent.
+     */
+    private boolean process(final EventSnapshot event, 
+        final JsonWriter json) {
+        try {
+            if (!passes(dequeueFilters, event)) {
+                return false;
+            }
+            if (event.hasLocation()) {
+                return writeBug(event, json);
+            }
+            final long suppressed = recentBugs.record(event.getFingerprint(),
+                event.getSuppressedCount());
+            if (suppressed == DedupCache.DUPLICATE) {
+                return false;
+            }
+            return writeBug(event.withSuppressedCount(suppressed), json);
+        } catch (final Throwable t) {
+            diagnostics.error("Error submitting bug: ", t);
+            return false;
+        }
+    }
+
+    /**
+     * Sends a single bug from the logging thread.
+     */
+    private void submitNow(final EventSnapshot event) {
+        final GzipBuffer buffer = GzipBuffer.acquire();
+        try {
+            final ByteBuf scratch = buffer.scratch();
+            if (process(event, new JsonWriter(scratch))) {
+                submitData(null, Deflater.DEFAULT_COMPRESSION, 
+                    scratch.array(), new int[] {0, scratch.size()}, 0, 1);
+            }
+        } finally {
+            GzipBuffer.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the protocol 6 document for a bug.
+     * 
+     * @return <code>false</code> if the callback rejected the bug, in which
+     * case nothing was written.
+     */
+    boolean writeBug(final EventSnapshot event, final JsonWriter json) {
+        diagnostics.debug("Starting to submit bug...");
+        final long start = System.nanoTime();
+        final PayloadBudget budget = new PayloadBudget(json.size(), 
+            maxMessageBytes, maxFrames, maxPayloadBytes);
+        final Location li = event.resolveLocation();
+
+        // Only build a JSON object for the callback to edit when there's a
+        // callback that might.
+        JSONObject env = null;
+        if (callback != null) {
+            env = getEnv(event, li, budget);
+            if (!callback.addData(env, event)) {
+                return false;
+            }
+        }
+
+        json.beginObject();
+        json.name("request").beginObject().endObject();
+
+        json.name("application_environment").beginObject();
+        json.name("application_root_directory").value("/");
+        json.name("env");
+        if (env != null) {
+            json.object(env);
+        } else {
+            writeEnv(event, li, json, budget);
+        }
+        json.endObject();
+
+        json.name("exception").beginObject();
+        json.name("message");
+        // A huge message is cut before it's sanitized, rather than after.
+        final String message = event.getRenderedMessage();
+        if (!budget.text(json, sanitize(budget.head(message)), 
+            message.length())) {
+            json.value("");
+        }
+        json.name("backtrace").beginArray();
+        final Throwable throwable = event.getThrowable();
+        if (throwable != null) {
+            backtraces.write(json, throwable, event.getFingerprint(), budget);
+        } else {
+            final String[] throwableStr = event.getThrowableStrRep();
+            if (throwableStr != null) {
+                BacktraceCache.write(json, throwableStr, budget);
+            }
+        }
+        json.endArray();
+        json.name("exception_class").value(exceptionClass(li));
+        // When it happened, not when it's sent, which is later when the 
+        // queue's backed up.
+        json.name("occurred_at").iso8601(event.getTimeStamp());
+        if (budget.writeMarkers(json)) {
+            metrics.truncated.incrementAndGet();
+        }
+        json.endObject();
+
+        json.name("client").beginObject();
+        json.name("client").value("exceptional-java-plugin");
+        json.name("version").value("0.1");
+        json.name("protocol_version").value("6");
+        json.endObject();
+
+        json.endObject();
+        metrics.serialized(System.nanoTime() - start);
+        return true;
+    }
+    
+    /**
+     * Picks how hard to compress from how backed up a sender's queue is: 
+     * as hard as possible when there's time to spare, and as fast as 
+     * possible when events are piling up.
+     * 
+     * @param depth The number of events waiting.
+     * @param capacity The most that can wait.
+     * @return The {@link Deflater} level.
+     */
+    static int compressionLevel(final int depth, final int capacity) {
+        if (depth <= capacity / 8) {
+            return Deflater.BEST_COMPRESSION;
+        }
+        if (depth >= capacity / 2) {
+            return Deflater.BEST_SPEED;
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Sends bugs to Exceptional, as a JSON array if there's more than one,
+     * compressed unless they're smaller than the compression threshold.
+     * 
+     * @param own The sending thread's own buffer to compress into, or 
+     * <code>null</code> to take one from the pool. 
+     * @param level The {@link Deflater} level to compress at.
+     * @param bytes The UTF-8 encoded JSON of the bugs.
+     * @param offsets Where each bug starts in <code>bytes</code>, followed 
+     * by where the last one ends.
+     * @param from The index of the first bug to send.
+     * @param to The index after the last bug to send.
+     * @return The HTTP status code, or -1 if there was no response, or 202 
+     * if the bugs were handed to an {@link AsyncHttpStrategy}.
+     */
+    private int submitData(final GzipBuffer own, final int level, 
+        final byte[] bytes, final int[] offsets, final int from, 
+        final int to) {
+        diagnostics.debug("Submitting data...");
+        final int length = offsets[to] - offsets[from] + 
+            (to - from == 1 ? 0 : to - from + 1);
+        final boolean async = httpClient instanceof AsyncHttpStrategy;
+        // A single small bug goes out straight from the bytes it was written
+        // to. Asynchronous requests outlive those, so they still get a copy.
+        final boolean direct = 
+            to - from == 1 && length < compressionThreshold && !async;
+        // Asynchronous requests keep their buffer until they're answered, 
+        // so they can't use the thread's own.
+        final GzipBuffer gzip = direct ? null :
+            own == null || async ? GzipBuffer.acquire() : own;
+        boolean handedOff = false;
+        try {
+            final byte[] body;
+            final int offset;
+            final int size;
+            if (direct) {
+                body = bytes;
+                offset = offsets[from];
+                size = length;
+                metrics.compressed(0L, 0L, length, length, false);
+            } else {
+                final long start = System.nanoTime();
+                final long cpuStart = AppenderMetrics.cpuNanos();
+                gzip.begin(length < compressionThreshold ? GzipBuffer.PLAIN :
+                    level);
+                if (to - from == 1) {
+                    gzip.write(bytes, offsets[from], length);
+                } else {
+                    gzip.write('[');
+                    for (int i = from; i < to; i++) {
+                        if (i > from) {
+                            gzip.write(',');
+                        }
+                        gzip.write(bytes, offsets[i], 
+                            offsets[i + 1] - offsets[i]);
+                    }
+                    gzip.write(']');
+                }
+                gzip.finish();
+                final long cpuEnd = cpuStart < 0L ? -1L : 
+                    AppenderMetrics.cpuNanos();
+                metrics.compressed(System.nanoTime() - start, 
+                    cpuEnd < 0L ? -1L : cpuEnd - cpuStart, length, 
+                    gzip.size(), gzip.isGzipped());
+                body = gzip.array();
+                offset = 0;
+                size = gzip.size();
+            }
+
+            final DiskSpool s = spool();
+            if (async) {
+                if (s != null && replayDue) {
+                    replayDue = false;
+                    replay(s);
+                }
+                final long record = s == null ? DiskSpool.NONE : 
+                    spoolPosting(s, body, offset, size);
+                if (!breaker.allowRequest()) {
+                    // Left for replaying.
+                    postingRecords.remove(Long.valueOf(record));
+                    return -1;
+                }
+                asyncInFlight.incrementAndGet();
+                postAsync((AsyncHttpStrategy) httpClient, gzip, s, record, 
+                    to - from);
+                // The callback owns the buffer now.
+                handedOff = true;
+                return HttpStatus.SC_ACCEPTED;
+            }
+            // Only the sender thread waits to retry.
+            final int retries = threaded && !closing ? maxRetries : 0;
+            if (s == null) {
+                return deliver(body, offset, size, retries, to - from);
+            }
+            final long record = spoolPosting(s, body, offset, size);
+            final int statusCode;
+            try {
+                statusCode = deliver(body, offset, size, retries, to - from);
+                if (isFinal(statusCode)) {
+                    s.ack(record);
+                }
+            } finally {
+                postingRecords.remove(Long.valueOf(record));
+            }
+            if (statusCode >= 200 && statusCode < 300 && 
+                s.getPendingCount() > 0) {
+                // The server's back, so send what it missed.
+                replay(s);
+            }
+            return statusCode;
+        } finally {
+            if (!handedOff && gzip != null && gzip != own) {
+                GzipBuffer.release(gzip);
+            }
+        }
+    }
+
+    /**
+     * Marks the current thread as one closing should wake, unless the 
+     * reporter's already closing.
+     * 
+     * @return <code>false</code> if the reporter's closing, so the thread 
+     * shouldn't wait.
+     */
+    private boolean startWaiting() {
+        synchronized (waitingSenders) {
+            if (closing) {
+                return false;
+            }
+            waitingSenders.add(Thread.currentThread());
+            return true;
+        }
+    }
+
+    /**
+     * Marks the current thread as no longer waiting, after which closing 
+     * won't interrupt it.
+     */
+    private void stopWaiting() {
+        synchronized (waitingSenders) {
+            waitingSenders.remove(Thread.currentThread());
+            if (closing) {
+                // An interrupt that came after the wait ended would cut 
+                // short the next request.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Posts a request to Exceptional unless the circuit breaker is open,
+     * retrying failures that might not happen again after a backoff.
+     * 
+     * @param retries The most times to retry.
+     * @param bugs The number of bugs in the request, for the metrics.
+     * @return The HTTP status code of the last attempt, or -1 if there was
+     * no response or the request wasn't sent.
+     */
+    private int deliver(final byte[] body, final int offset, 
+        final int length, final int retries, final int bugs) {
+        int statusCode = -1;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                final long delay = Math.max(retryDelayMillis(attempt - 1), 
+                    breaker.millisUntilAllowed());
+                if (delay > retryMaxMillis || !startWaiting()) {
+                    break;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (final InterruptedException e) {
+                    // Shutting down.
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    stopWaiting();
+                }
+            }
+            if (!breaker.allowRequest()) {
+                break;
+            }
+            final long start = System.nanoTime();
+            statusCode = post(body, offset, length);
+            metrics.requested(bugs, statusCode, System.nanoTime() - start);
+            if (isFinal(statusCode)) {
+                breaker.succeeded();
+                break;
+            }
+            breaker.failed();
+        }
+        return statusCode;
+    }
+
+    /**
+     * @return A random delay between half and all of the base delay doubled
+     * for each previous retry, capped at the maximum.
+     */
+    private long retryDelayMillis(final int retry) {
+        final long ceiling = Math.min(retryMaxMillis, 
+            retryBaseMillis << Math.min(retry, 30));
+        final long half = ceiling / 2;
+        return half + (long) (retryJitter.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * Posts a request to Exceptional without waiting for the response.
+     * The response is handled on the strategy's thread, so anything left to
+     * replay from the spool is sent by the sender thread next time it sends.
+     */
+    private void postAsync(final AsyncHttpStrategy strategy, 
+        final GzipBuffer gzip, final DiskSpool s, final long record, 
+        final int bugs) {
+        final HttpPost post = newPost(gzip.array(), 0, gzip.size());
+        final long start = System.nanoTime();
+        final FutureCallback<HttpResponse> done = 
+            new FutureCallback<HttpResponse>() {
+            public void completed(final HttpResponse response) {
+                try {
+                    finished(handleResponse(response));
+                } catch (final IOException e) {
+                    failed(e);
+                }
+            }
+
+            public void failed(final Exception e) {
+                recordFailure(-1, e);
+                finished(-1);
+            }
+
+            public void cancelled() {
+                finished(-1);
+            }
+
+            private void finished(final int statusCode) {
+                metrics.requested(bugs, statusCode, System.nanoTime() - start);
+                GzipBuffer.release(gzip);
+                if (isFinal(statusCode)) {
+                    breaker.succeeded();
+                } else {
+                    breaker.failed();
+                }
+                if (s != null && isFinal(statusCode)) {
+                    s.ack(record);
+                    if (statusCode < 300 && s.getPendingCount() > 0) {
+                        replayDue = true;
+                    }
+                }
+                postingRecords.remove(Long.valueOf(record));
+                asyncInFlight.decrementAndGet();
+            }
+        };
+        try {
+            strategy.execute(post, done);
+        } catch (final RuntimeException e) {
+            done.failed(e);
+        }
+    }
+
+    /**
+     * Posts a request to Exceptional, gzipped or not.
+     * 
+     * @return The HTTP status code, or -1 if there was no response.
+     */
+    private int post(final byte[] body, final int offset, 
+        final int length) {
+        final HttpPost post = newPost(body, offset, length);
+        try {
+            diagnostics.debug("Sending data to server...");
+            final HttpResponse response = this.httpClient.execute(post);
+            diagnostics.debug("Sent data to server...");
+            return handleResponse(response);
+        } catch (final IOException e) {
+            recordFailure(-1, e);
+            return -1;
+        } catch (final Throwable e) {
+            recordFailure(-1, e);
+            return -1;
+        } finally {
+            post.reset();
+        }
+    }
+
+    private HttpPost newPost(final byte[] body, final int offset, 
+        final int length) {
+        final String url = this.endpoint + "?api_key=" + this.apiKey + 
+            "&protocol_version=6";
+        final HttpPost post = new HttpPost(url);
+        // Spooled requests may or may not have been compressed, so this 
+        // goes by what's actually in them.
+        if (GzipBuffer.isGzipped(body, offset, length)) {
+            post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        // The entity reads straight from the caller's buffer.
+        post.setEntity(new ByteArrayEntity(body, offset, length));
+        return post;
+    }
+
+    /**
+     * Reads the response to a post, always consuming the body so the
+     * connection can be kept alive.
+     * 
+     * @return The HTTP status code.
+     */
+    private int handleResponse(final HttpResponse response) 
+        throws IOException {
+        final int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == 429 || 
+            statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            final long retryAfter = retryAfterMillis(response);
+            if (retryAfter > 0) {
+                breaker.pause(retryAfter);
+            }
+        }
+        final HttpEntity responseEntity = response.getEntity();
+        final boolean failed = statusCode < 200 || statusCode > 299;
+        if (responseEntity == null) {
+            if (failed) {
+                recordFailure(response, "");
+            }
+            return statusCode;
+        }
+        final InputStream is = responseEntity.getContent();
+        try {
+            if (failed) {
+                // Only the start is kept, which is enough to see what's 
+                // wrong.
+                final byte[] start = new byte[FAILURE_BODY_BYTES];
+                final int n = IOUtils.read(is, start);
+                recordFailure(response, new String(start, 0, n, "UTF-8"));
+            }
+
+            // We always have to read the body.
+            EntityUtils.consume(responseEntity);
+            return statusCode;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private void recordFailure(final HttpResponse response, 
+        final String body) {
+        recordFailure(response.getStatusLine().getStatusCode(), body);
+        if (diagnostics.isEnabled(DiagnosticLevel.DEBUG)) {
+            for (final Header header : response.getAllHeaders()) {
+                diagnostics.debug(header.toString());
+            }
+        }
+    }
+
+    /**
+     * @return How long the server asked us to wait before sending again, or
+     * -1 if it didn't say.
+     */
+    private static long retryAfterMillis(final HttpResponse response) {
+        final Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null) {
+            return -1L;
+        }
+        final String value = header.getValue().trim();
+        final long seconds = NumberUtils.toLong(value, -1L);
+        if (seconds >= 0) {
+            return TimeUnit.SECONDS.toMillis(seconds);
+        }
+        try {
+            return DateUtils.parseDate(value).getTime() - 
+                System.currentTimeMillis();
+        } catch (final DateParseException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Builds the environment as a JSON object for the callback to edit.
+     */
+    private JSONObject getEnv(final EventSnapshot event,
+        final Location li, final PayloadBudget budget) {
+        final JSONObject json = new JSONObject();
+        json.put("message", budget.cut(event.getRenderedMessage()));
+        json.put("logLevel", event.getLevel());
+        json.put("methodName", li.getMethodName());
+        json.put("lineNumber", lineNumber(li));
+        json.put("threadName", event.getThreadName());
+        if (event.getSuppressedCount() > 0L) {
+            json.put("occurrences_since_last_report", 
+                event.getSuppressedCount());
+        }
+        json.put("sample_rate", Double.valueOf(event.getSampleRate()));
+        json.putAll(environment.getStaticFields());
+        json.put("disk_space", environment.getDiskSpace());
+        
+        return json;
+    }
+
+    private void writeEnv(final EventSnapshot event, final Location li,
+        final JsonWriter json, final PayloadBudget budget) {
+        json.beginObject();
+        final String message = event.getRenderedMessage();
+        json.name("message");
+        if (!budget.text(json, budget.head(message), message.length())) {
+            json.value("");
+        }
+        json.name("logLevel").value(event.getLevel());
+        json.name("methodName").value(li.getMethodName());
+        json.name("lineNumber").value(lineNumber(li));
+        json.name("threadName").value(event.getThreadName());
+        if (event.getSuppressedCount() > 0L) {
+            json.name("occurrences_since_last_report").value(
+                event.getSuppressedCount());
+        }
+        json.name("sample_rate").value(event.getSampleRate());
+        for (final Map.Entry<String, Object> e : 
+            environment.getStaticFields().entrySet()) {
+            json.name(e.getKey()).object(e.getValue());
+        }
+        json.name("disk_space").value(environment.getDiskSpace());
+        json.endObject();
+    }
+
+    private static int lineNumber(final Location li) {
+        final String ln = li.getLineNumber();
+        if (NumberUtils.isNumber(ln)) {
+            return Integer.parseInt(ln);
+        }
+        return -1;
+    }
+    
+    JSONObject exceptionData(final EventSnapshot event) {
+        final Location li = event.resolveLocation();
+        final JSONObject json = new JSONObject();
+        json.put("message", sanitize(event.getRenderedMessage()));
+        json.put("backtrace", getThrowableArray(event));
+        json.put("exception_class", exceptionClass(li));
+        json.put("occurred_at", ExceptionalUtils.iso8601(event.getTimeStamp()));
+        return json;
+    }
+
+    private static String exceptionClass(final Location li) {
+        if (li == null) {
+            return "unknown";
+        }
+        return li.getClassName();
+    }
+    
+    private JSONArray getThrowableArray(final EventSnapshot event) {
+        final JSONArray array = new JSONArray();
+        final String[] throwableStr = event.getThrowableStrRep();
+        if (throwableStr != null) {
+            for (final String str : throwableStr) {
+                array.add(str.trim());
+            }
+        } 
+        return array;
+    }
+    
+    /**
+     * Keeps a failed request for {@link #getRecentFailures()}.
+     * 
+     * @param statusCode The HTTP status code, or -1 if there was no 
+     * response.
+     * @param detail The start of the response body, or the error.
+     */
+    private void recordFailure(final int statusCode, final Object detail) {
+        failures.add(new DeliveryFailure(System.currentTimeMillis(), 
+            statusCode, String.valueOf(detail)));
+        diagnostics.warn(statusCode < 0 ? "Could not reach Exceptional: " : 
+            "Exceptional answered " + statusCode + ": ", detail);
+    }
+
+    /**
+     * Applies all {@link Sanitizer}s to the original string.
+     * 
+     * @param original
+     * @return
+     */
+    private String sanitize(String original) {
+       if (original == null || original.length() == 0) {
+           return original;
+       }
+       String result = original;
+       for (Sanitizer filter : sanitizerChain) {
+           result = filter.sanitize(result);
+       }
+       if (result != original) {
+           metrics.sanitized.increment();
+       }
+       return result;
+    }
+
+}
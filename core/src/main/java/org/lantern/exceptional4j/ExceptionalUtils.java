@@ -0,0 +1,41 @@
+package org.lantern.exceptional4j;
+
+import java.util.Date;
+
+/**
+ * Utilities for GetExceptional4j.
+ */
+public class ExceptionalUtils {
+    
+    public static final String NO_OP_KEY = "no_op_key";
+
+    /**
+     * Encodes date value into ISO8601 that can be compared 
+     * lexicographically.
+     * 
+     * @return string representation of the date value for the current date.
+     */
+    public static String iso8601() {
+        return iso8601(System.currentTimeMillis());
+    }
+
+    public static String iso8601(final Date date) {
+        return iso8601(date.getTime());
+    }
+
+    /**
+     * Encodes a time in milliseconds since the epoch as ISO8601, in the 
+     * default time zone.
+     */
+    public static String iso8601(final long millis) {
+        return Iso8601Format.format(millis);
+    }
+
+    /**
+     * Appends a time in milliseconds since the epoch as ISO8601, in the 
+     * default time zone, without creating any garbage.
+     */
+    public static void iso8601(final long millis, final StringBuilder sb) {
+        Iso8601Format.format(millis, sb);
+    }
+}
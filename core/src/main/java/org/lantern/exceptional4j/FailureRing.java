@@ -0,0 +1,54 @@
+package org.lantern.exceptional4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last few failed requests in memory, overwriting the oldest, so
+ * there's something to look at when delivery goes wrong without writing
+ * anything to disk on the sending thread.
+ */
+final class FailureRing {
+
+    private final DeliveryFailure[] failures;
+
+    /**
+     * Where the next failure goes, and so the oldest one once it's full.
+     */
+    private int next;
+
+    private long total;
+
+    FailureRing(final int capacity) {
+        this.failures = new DeliveryFailure[Math.max(1, capacity)];
+    }
+
+    synchronized void add(final DeliveryFailure failure) {
+        failures[next] = failure;
+        next = (next + 1) % failures.length;
+        total++;
+    }
+
+    /**
+     * @return The failures kept, oldest first.
+     */
+    synchronized List<DeliveryFailure> snapshot() {
+        final List<DeliveryFailure> list =
+            new ArrayList<DeliveryFailure>(failures.length);
+        for (int i = 0; i < failures.length; i++) {
+            final DeliveryFailure f = failures[(next + i) % failures.length];
+            if (f != null) {
+                list.add(f);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return How many failures there have been, including those
+     * overwritten.
+     */
+    synchronized long getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,218 @@
+package org.lantern.exceptional4j;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Computes 64 bit fingerprints identifying bugs. A throwable's fingerprint
+ * covers its class and stack frames and those of all its causes, but not
+ * its message, so the same failure with different details in the message
+ * still counts as the same bug.
+ * <p>
+ * Frames are normalized first, so classes generated at runtime -- CGLIB
+ * enhancers, JDK proxies, reflection accessors and lambdas -- that get a new
+ * name in each JVM or each time they're generated don't change the
+ * fingerprint.
+ */
+public final class Fingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Causes beyond this depth are ignored.
+     */
+    static final int MAX_CAUSES = 32;
+
+    private static final String CAUSED_BY = "Caused by: ";
+
+    private static final String SUPPRESSED = "Suppressed: ";
+
+    /**
+     * Reflection accessors, numbered in the order they're generated.
+     */
+    private static final String[] GENERATED_PREFIXES = {
+        "GeneratedMethodAccessor",
+        "GeneratedConstructorAccessor",
+        "GeneratedSerializationConstructorAccessor",
+    };
+
+    private Fingerprint() {
+    }
+
+    /**
+     * @param event The event.
+     * @return The fingerprint of the event's throwable, or if it has none,
+     * of where it was logged from, or failing that of its logger and
+     * message.
+     */
+    public static long of(final EventSnapshot event) {
+        final Throwable t = event.getThrowable();
+        if (t != null) {
+            return of(t);
+        }
+        long h = FNV_OFFSET;
+        final String[] rep = event.getThrowableStrRep();
+        if (rep != null) {
+            return of(rep);
+        }
+        if (event.hasLocation()) {
+            h = hash(h, normalizeClassName(event.getClassName()));
+            h = hash(h, event.getMethodName());
+            return hash(h, event.getLineNumber());
+        }
+        h = hash(h, event.getLoggerName());
+        return hash(h, event.getRenderedMessage());
+    }
+
+    /**
+     * A coarser key for an event that's cheap enough for the logging thread,
+     * since it doesn't walk any stack trace. For a throwable it covers the
+     * classes of the throwable and its causes, the logger and where the
+     * event was logged from if that was captured. For other events it's the
+     * same as {@link #of(EventSnapshot)}. It allocates nothing for a
+     * throwable that hasn't been through a socket.
+     *
+     * @param event The event.
+     * @return The key.
+     */
+    static long ofCaller(final EventSnapshot event) {
+        final Throwable throwable = event.getThrowable();
+        final String rendered = 
+            throwable == null ? event.getThrowableClassName() : null;
+        if (throwable == null && rendered == null) {
+            return event.getFingerprint();
+        }
+        long h = hash(FNV_OFFSET, event.getLoggerName());
+        if (event.hasLocation()) {
+            h = hash(h, event.getClassName());
+            h = hash(h, event.getMethodName());
+            h = hash(h, event.getLineNumber());
+        }
+        if (throwable == null) {
+            return hash(h, rendered);
+        }
+        Throwable t = throwable;
+        for (int depth = 0; t != null && depth < MAX_CAUSES; depth++) {
+            h = hash(h, t.getClass().getName());
+            t = t.getCause();
+        }
+        return h;
+    }
+
+    /**
+     * Fingerprints a trace that's only been kept rendered, as for events 
+     * read from a socket, covering the same as {@link #of(Throwable)}: the
+     * classes and frames, but none of the messages.
+     *
+     * @param rep The trace, one line per element.
+     * @return The fingerprint.
+     */
+    static long of(final String[] rep) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < rep.length; i++) {
+            final String line = rep[i].trim();
+            if (i == 0) {
+                h = hash(h, EventSnapshot.throwableClassName(line));
+            } else if (line.startsWith("at ") || line.startsWith("...")) {
+                h = hash(h, line);
+            } else if (line.startsWith(CAUSED_BY) || 
+                line.startsWith(SUPPRESSED)) {
+                final int start = line.indexOf(':') + 2;
+                h = hash(h, line.substring(0, start));
+                h = hash(h, EventSnapshot.throwableClassName(
+                    line.substring(start)));
+            }
+            // Anything else carries on a message over several lines.
+        }
+        return h;
+    }
+
+    /**
+     * @param throwable The throwable.
+     * @return The fingerprint of the throwable and its causes.
+     */
+    public static long of(final Throwable throwable) {
+        long h = FNV_OFFSET;
+        final Map<Throwable, Boolean> seen =
+            new IdentityHashMap<Throwable, Boolean>();
+        Throwable t = throwable;
+        for (int depth = 0; t != null && depth < MAX_CAUSES; depth++) {
+            if (seen.put(t, Boolean.TRUE) != null) {
+                // A cycle in the cause chain.
+                break;
+            }
+            h = hash(h, t.getClass().getName());
+            for (final StackTraceElement frame : t.getStackTrace()) {
+                h = hash(h, frame);
+            }
+            t = t.getCause();
+        }
+        return h;
+    }
+
+    static long hash(long h, final StackTraceElement frame) {
+        h = hash(h, normalizeClassName(frame.getClassName()));
+        h = hash(h, frame.getMethodName());
+        h ^= frame.getLineNumber();
+        return h * FNV_PRIME;
+    }
+
+    private static long hash(long h, final String s) {
+        if (s == null) {
+            h ^= 0xff;
+            return h * FNV_PRIME;
+        }
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        // Separate consecutive strings so "ab", "c" differs from "a", "bc".
+        h ^= 0xfe;
+        return h * FNV_PRIME;
+    }
+
+    /**
+     * Strips the parts of generated class names that differ between runs.
+     *
+     * @param className The class name from a stack frame.
+     * @return The normalized name.
+     */
+    static String normalizeClassName(final String className) {
+        if (className == null) {
+            return null;
+        }
+        int cut = className.indexOf("$$");
+        if (cut > 0) {
+            // Foo$$EnhancerByCGLIB$$1a2b3c, Foo$$Lambda$12/345678 and the
+            // like.
+            final int next = className.indexOf('$', cut + 2);
+            return next > 0 ? className.substring(0, next) : className;
+        }
+        cut = className.indexOf("$Proxy");
+        if (cut >= 0 && isDigits(className, cut + 6)) {
+            return className.substring(0, cut + 6);
+        }
+        for (final String prefix : GENERATED_PREFIXES) {
+            final int i = className.lastIndexOf(prefix);
+            if (i >= 0 && isDigits(className, i + prefix.length())) {
+                return className.substring(0, i + prefix.length());
+            }
+        }
+        return className;
+    }
+
+    private static boolean isDigits(final String s, final int from) {
+        if (from >= s.length()) {
+            return false;
+        }
+        for (int i = from; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package org.lantern.exceptional4j;
+
+/**
+ * When the on-disk spool forces what's written to it out to the disk. The
+ * spool is memory mapped, so everything written survives the process dying
+ * regardless; this only matters if the machine itself goes down.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Force every bug to disk as it's spooled. The safest and the slowest.
+     */
+    ALWAYS,
+
+    /**
+     * Force to disk at most once per configured interval, when bugs are
+     * spooled or sent.
+     */
+    PERIODIC,
+
+    /**
+     * Leave it to the operating system.
+     */
+    NEVER;
+
+    /**
+     * Parses a policy from a log4j configuration value, ignoring case.
+     *
+     * @param value The configured value.
+     * @param defaultPolicy The policy to use if the value isn't recognized.
+     * @return The policy.
+     */
+    public static FsyncPolicy toPolicy(final String value,
+        final FsyncPolicy defaultPolicy) {
+        if (value == null) {
+            return defaultPolicy;
+        }
+        final String name = value.trim().toUpperCase();
+        for (final FsyncPolicy policy : values()) {
+            if (policy.name().equals(name)) {
+                return policy;
+            }
+        }
+        return defaultPolicy;
+    }
+}
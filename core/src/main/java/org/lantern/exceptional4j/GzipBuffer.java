@@ -0,0 +1,188 @@
+package org.lantern.exceptional4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable gzip compressor that writes into a buffer it owns. Buffers are
+ * pooled, so the native {@link Deflater} and both byte arrays are kept
+ * around rather than created and left for finalization on every request.
+ * Each sender thread holds on to one of its own, and the pool covers the 
+ * rest.
+ * <p>
+ * Each buffer also carries a scratch {@link ByteBuf} for writing uncompressed
+ * JSON into before compressing it.
+ */
+final class GzipBuffer {
+
+    /**
+     * The level that copies the input as it is rather than gzipping it. 
+     * Only batches need it, for their framing; a single small bug is sent 
+     * straight from the bytes it was written to.
+     */
+    static final int PLAIN = Integer.MIN_VALUE;
+
+    private static final int MAX_POOLED = 4;
+
+    private static final Queue<GzipBuffer> POOL =
+        new ConcurrentLinkedQueue<GzipBuffer>();
+
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final Deflater deflater =
+        new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    private final CRC32 crc = new CRC32();
+
+    private final ByteBuf scratch = new ByteBuf(4096);
+
+    private final ByteBuf out = new ByteBuf(4096);
+
+    private final byte[] single = new byte[1];
+
+    private boolean gzipped;
+
+    private GzipBuffer() {
+    }
+
+    /**
+     * Takes a buffer from the pool, creating one if they're all in use.
+     */
+    static GzipBuffer acquire() {
+        final GzipBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            return new GzipBuffer();
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer mustn't be used afterwards.
+     */
+    static void release(final GzipBuffer buffer) {
+        buffer.scratch.reset();
+        buffer.out.reset();
+        // The size check is racy, but the pool only needs to be roughly
+        // bounded.
+        if (POOL.size() < MAX_POOLED) {
+            POOL.offer(buffer);
+        } else {
+            buffer.deflater.end();
+        }
+    }
+
+    /**
+     * @return A buffer for uncompressed data, empty when acquired.
+     */
+    ByteBuf scratch() {
+        return scratch;
+    }
+
+    /**
+     * Starts a new gzip stream at the default level, discarding any 
+     * previous output.
+     */
+    void begin() {
+        begin(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Starts a new stream, discarding any previous output.
+     *
+     * @param level The {@link Deflater} level, or {@link #PLAIN} to copy the
+     * input without compressing it at all.
+     */
+    void begin(final int level) {
+        out.reset();
+        gzipped = level != PLAIN;
+        if (!gzipped) {
+            return;
+        }
+        deflater.reset();
+        deflater.setLevel(level);
+        crc.reset();
+        out.write(HEADER, 0, HEADER.length);
+    }
+
+    void write(final int b) {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    void write(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return;
+        }
+        if (!gzipped) {
+            out.write(b, off, len);
+            return;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * Finishes the gzip stream. The result is then in {@link #array()}.
+     */
+    void finish() {
+        if (!gzipped) {
+            return;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        writeInt((int) crc.getValue());
+        writeInt(deflater.getTotalIn());
+    }
+
+    private void deflate() {
+        out.ensureCapacity(out.size() + 512);
+        final byte[] b = out.array();
+        final int n = deflater.deflate(b, out.size(), b.length - out.size());
+        out.advance(n);
+    }
+
+    private void writeInt(final int i) {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+    /**
+     * @return The compressed bytes. Only the first {@link #size()} are
+     * meaningful.
+     */
+    byte[] array() {
+        return out.array();
+    }
+
+    int size() {
+        return out.size();
+    }
+
+    /**
+     * @return Whether the output is gzipped, rather than copied as it is.
+     */
+    boolean isGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @return Whether the given bytes start like a gzip stream, which JSON
+     * never does.
+     */
+    static boolean isGzipped(final byte[] bytes, final int offset, 
+        final int length) {
+        return length >= 2 && bytes[offset] == HEADER[0] && 
+            bytes[offset + 1] == HEADER[1];
+    }
+}
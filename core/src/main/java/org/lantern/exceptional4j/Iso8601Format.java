@@ -0,0 +1,137 @@
+package org.lantern.exceptional4j;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Formats times as ISO 8601 in the default time zone, such as
+ * <code>2013-01-01T12:00:00.000+01:00</code>, without a
+ * {@link java.text.SimpleDateFormat}.
+ * <p>
+ * Everything up to the milliseconds, and the offset, only changes once a
+ * second, so they're formatted once and cached for that second. Formatting
+ * then only writes three digits around them, and allocates nothing when
+ * writing to a buffer. The cache is an immutable object behind a volatile
+ * field, so any thread can format at once. A change to the default time
+ * zone shows from the next second on.
+ */
+final class Iso8601Format {
+
+    /**
+     * The formatted parts of one second.
+     */
+    private static final class Second {
+        private final long second;
+        private final String prefix;
+        private final String offset;
+        private final byte[] prefixBytes;
+        private final byte[] offsetBytes;
+
+        private Second(final long second, final String prefix,
+            final String offset) {
+            this.second = second;
+            this.prefix = prefix;
+            this.offset = offset;
+            this.prefixBytes = ascii(prefix);
+            this.offsetBytes = ascii(offset);
+        }
+    }
+
+    /**
+     * The length of a formatted time, for years 1000 to 9999.
+     */
+    static final int LENGTH = 29;
+
+    private static volatile Second cached;
+
+    private Iso8601Format() {
+    }
+
+    static String format(final long millis) {
+        final StringBuilder sb = new StringBuilder(LENGTH);
+        format(millis, sb);
+        return sb.toString();
+    }
+
+    static void format(final long millis, final StringBuilder sb) {
+        final Second s = second(millis);
+        sb.append(s.prefix);
+        final int ms = (int) (millis - s.second * 1000L);
+        sb.append((char) ('0' + ms / 100));
+        sb.append((char) ('0' + ms / 10 % 10));
+        sb.append((char) ('0' + ms % 10));
+        sb.append(s.offset);
+    }
+
+    static void format(final long millis, final ByteBuf buf) {
+        final Second s = second(millis);
+        buf.write(s.prefixBytes, 0, s.prefixBytes.length);
+        final int ms = (int) (millis - s.second * 1000L);
+        buf.write('0' + ms / 100);
+        buf.write('0' + ms / 10 % 10);
+        buf.write('0' + ms % 10);
+        buf.write(s.offsetBytes, 0, s.offsetBytes.length);
+    }
+
+    private static Second second(final long millis) {
+        final long second = floorDiv(millis, 1000L);
+        final Second s = cached;
+        if (s != null && s.second == second) {
+            return s;
+        }
+        final Second formatted = newSecond(second);
+        cached = formatted;
+        return formatted;
+    }
+
+    private static Second newSecond(final long second) {
+        final Calendar cal = new GregorianCalendar(TimeZone.getDefault());
+        cal.setTimeInMillis(second * 1000L);
+        final StringBuilder prefix = new StringBuilder(24);
+        pad(prefix, cal.get(Calendar.YEAR), 4);
+        prefix.append('-');
+        pad(prefix, cal.get(Calendar.MONTH) + 1, 2);
+        prefix.append('-');
+        pad(prefix, cal.get(Calendar.DAY_OF_MONTH), 2);
+        prefix.append('T');
+        pad(prefix, cal.get(Calendar.HOUR_OF_DAY), 2);
+        prefix.append(':');
+        pad(prefix, cal.get(Calendar.MINUTE), 2);
+        prefix.append(':');
+        pad(prefix, cal.get(Calendar.SECOND), 2);
+        prefix.append('.');
+
+        final int offsetMinutes = (cal.get(Calendar.ZONE_OFFSET) +
+            cal.get(Calendar.DST_OFFSET)) / 60000;
+        final StringBuilder offset = new StringBuilder(6);
+        offset.append(offsetMinutes < 0 ? '-' : '+');
+        final int abs = Math.abs(offsetMinutes);
+        pad(offset, abs / 60, 2);
+        offset.append(':');
+        pad(offset, abs % 60, 2);
+        return new Second(second, prefix.toString(), offset.toString());
+    }
+
+    private static void pad(final StringBuilder sb, final int value,
+        final int width) {
+        final String digits = Integer.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        final long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+
+    private static byte[] ascii(final String s) {
+        final byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
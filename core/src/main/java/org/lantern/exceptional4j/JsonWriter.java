@@ -0,0 +1,394 @@
+package org.lantern.exceptional4j;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+
+/**
+ * Writes JSON as UTF-8 straight into a {@link ByteBuf}, without building a
+ * tree of objects or an intermediate string first. Separators are handled by
+ * the writer, so callers just open and close objects and arrays and write
+ * names and values in order.
+ * <p>
+ * Writers are reusable but not thread safe.
+ */
+final class JsonWriter {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private ByteBuf out;
+
+    /**
+     * Whether the object or array at each depth has no elements yet.
+     */
+    private boolean[] empty = new boolean[8];
+
+    private int depth;
+
+    private boolean afterName;
+
+    JsonWriter(final ByteBuf out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts writing a new document, possibly to a different buffer.
+     */
+    JsonWriter reset(final ByteBuf buf) {
+        this.out = buf;
+        this.depth = 0;
+        this.afterName = false;
+        return this;
+    }
+
+    JsonWriter beginObject() {
+        separator();
+        out.write('{');
+        push();
+        return this;
+    }
+
+    JsonWriter endObject() {
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        separator();
+        out.write('[');
+        push();
+        return this;
+    }
+
+    JsonWriter endArray() {
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+    JsonWriter name(final String name) {
+        separator();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(final String value) {
+        separator();
+        if (value == null) {
+            out.write(NULL, 0, NULL.length);
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a string, stopping once about <code>maxBytes</code> of it are
+     * written, in which case it ends with a note of how much was left out.
+     * The limit is checked as the string is encoded, so a long string is 
+     * never copied in full.
+     *
+     * @param value The string.
+     * @param maxBytes The most bytes of the string to write, give or take 
+     * the last character's escape.
+     * @param length The length of the string before anything was cut from 
+     * it already, for the note.
+     * @return <code>true</code> if the string was cut short.
+     */
+    boolean boundedValue(final String value, final int maxBytes,
+        final int length) {
+        separator();
+        out.write('"');
+        final int start = out.size();
+        final int end = string(value, start + Math.max(0, maxBytes));
+        final boolean truncated = end < value.length() || 
+            length > value.length();
+        if (truncated) {
+            utf8("... [" + (length - end) + " chars truncated]");
+        }
+        out.write('"');
+        return truncated;
+    }
+
+    /**
+     * @return The number of bytes written to the buffer so far.
+     */
+    int size() {
+        return out.size();
+    }
+
+    JsonWriter value(final long value) {
+        separator();
+        ascii(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(final double value) {
+        separator();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write(NULL, 0, NULL.length);
+        } else {
+            ascii(Double.toString(value));
+        }
+        return this;
+    }
+
+    JsonWriter value(final boolean value) {
+        separator();
+        final byte[] b = value ? TRUE : FALSE;
+        out.write(b, 0, b.length);
+        return this;
+    }
+
+    /**
+     * Writes any value json-simple could, including maps and collections,
+     * so data added by an {@link ExceptionalCallback} comes out the
+     * same way it used to.
+     */
+    JsonWriter object(final Object value) {
+        if (value == null) {
+            separator();
+            out.write(NULL, 0, NULL.length);
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Double) {
+            value(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            final float f = ((Float) value).floatValue();
+            separator();
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                out.write(NULL, 0, NULL.length);
+            } else {
+                ascii(value.toString());
+            }
+        } else if (value instanceof Number) {
+            separator();
+            ascii(value.toString());
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (final Object o : ((Map<?, ?>) value).entrySet()) {
+                final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                name(String.valueOf(e.getKey()));
+                object(e.getValue());
+            }
+            endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            final Iterator<?> it = ((Collection<?>) value).iterator();
+            while (it.hasNext()) {
+                object(it.next());
+            }
+            endArray();
+        } else if (value instanceof Object[]) {
+            beginArray();
+            for (final Object o : (Object[]) value) {
+                object(o);
+            }
+            endArray();
+        } else if (value instanceof JSONAware) {
+            separator();
+            utf8(((JSONAware) value).toJSONString());
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Writes a time as an ISO8601 string.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     */
+    JsonWriter iso8601(final long millis) {
+        separator();
+        out.write('"');
+        Iso8601Format.format(millis, out);
+        out.write('"');
+        return this;
+    }
+
+    /**
+     * Writes values that were already encoded, separated by commas, as
+     * elements of the current array.
+     *
+     * @param bytes The encoded values.
+     * @param off The offset of the first value.
+     * @param len The length of the values, possibly zero.
+     */
+    JsonWriter rawValues(final byte[] bytes, final int off, final int len) {
+        if (len > 0) {
+            separator();
+            out.write(bytes, off, len);
+        }
+        return this;
+    }
+
+    private void push() {
+        if (depth == empty.length) {
+            final boolean[] grown = new boolean[depth << 1];
+            System.arraycopy(empty, 0, grown, 0, depth);
+            empty = grown;
+        }
+        empty[depth++] = true;
+    }
+
+    private void separator() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (!empty[depth - 1]) {
+                out.write(',');
+            }
+            empty[depth - 1] = false;
+        }
+    }
+
+    private void ascii(final String s) {
+        final int len = s.length();
+        out.ensureCapacity(out.size() + len);
+        for (int i = 0; i < len; i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a quoted, escaped string, using the same escapes as
+     * json-simple.
+     */
+    private void string(final String s) {
+        out.write('"');
+        out.ensureCapacity(out.size() + s.length() + 1);
+        string(s, Integer.MAX_VALUE);
+        out.write('"');
+    }
+
+    /**
+     * Writes the escaped characters of a string, without quotes, until the
+     * buffer reaches the given size.
+     *
+     * @return The number of characters written.
+     */
+    private int string(final String s, final int limit) {
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (out.size() >= limit) {
+                return i;
+            }
+            final char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                escape('"');
+                break;
+            case '\\':
+                escape('\\');
+                break;
+            case '/':
+                escape('/');
+                break;
+            case '\b':
+                escape('b');
+                break;
+            case '\f':
+                escape('f');
+                break;
+            case '\n':
+                escape('n');
+                break;
+            case '\r':
+                escape('r');
+                break;
+            case '\t':
+                escape('t');
+                break;
+            default:
+                if (c < 0x20 || (c >= 0x7F && c <= 0x9F) ||
+                    (c >= 0x2000 && c <= 0x20FF)) {
+                    unicodeEscape(c);
+                } else if (c < 0x80) {
+                    out.write(c);
+                } else {
+                    i = encode(s, i, c);
+                }
+                break;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Writes a string as UTF-8 without quoting or escaping it.
+     */
+    private void utf8(final String s) {
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                out.write(c);
+            } else {
+                i = encode(s, i, c);
+            }
+        }
+    }
+
+    /**
+     * Encodes a non-ASCII character as UTF-8.
+     *
+     * @return The index of the last character consumed, which is one on from
+     * the given index for a surrogate pair.
+     */
+    private int encode(final String s, final int i, final char c) {
+        if (c < 0x800) {
+            out.write(0xC0 | (c >> 6));
+            out.write(0x80 | (c & 0x3F));
+            return i;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < s.length() &&
+            Character.isLowSurrogate(s.charAt(i + 1))) {
+            final int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            out.write(0xF0 | (cp >> 18));
+            out.write(0x80 | ((cp >> 12) & 0x3F));
+            out.write(0x80 | ((cp >> 6) & 0x3F));
+            out.write(0x80 | (cp & 0x3F));
+            return i + 1;
+        }
+        if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            // An unpaired surrogate, which String.getBytes turns into '?'.
+            out.write('?');
+            return i;
+        }
+        out.write(0xE0 | (c >> 12));
+        out.write(0x80 | ((c >> 6) & 0x3F));
+        out.write(0x80 | (c & 0x3F));
+        return i;
+    }
+
+    private void escape(final char c) {
+        out.write('\\');
+        out.write(c);
+    }
+
+    private void unicodeEscape(final char c) {
+        out.write('\\');
+        out.write('u');
+        out.write(HEX[(c >> 12) & 0xF]);
+        out.write(HEX[(c >> 8) & 0xF]);
+        out.write(HEX[(c >> 4) & 0xF]);
+        out.write(HEX[c & 0xF]);
+    }
+}
@@ -0,0 +1,118 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed memory and constant time recording,
+ * laid out the way HdrHistogram does it: values are counted in buckets
+ * covering each power of two, each split into 16 equal sub-buckets, so any
+ * value is known to within about 6% however large it is.
+ * <p>
+ * Recording takes a few atomic increments and allocates nothing, so it's
+ * safe to do from any thread.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds. Negative durations, which
+     * clock adjustments can produce, are recorded as 0.
+     */
+    void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift =
+            63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The largest value that falls in a bucket.
+     */
+    static long highestValue(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long mantissa = index - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The mean duration in nanoseconds.
+     */
+    public long getMean() {
+        final long n = count.get();
+        return n == 0L ? 0L : total.get() / n;
+    }
+
+    /**
+     * @return The longest duration in nanoseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The duration in nanoseconds that the given percentage of
+     * durations were no longer than, to within the histogram's precision.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long n = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0L) {
+            return 0L;
+        }
+        final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        final long target = Math.max(1L, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,47 @@
+package org.lantern.exceptional4j;
+
+/**
+ * Where an event was logged from, or where its throwable was raised. Parts 
+ * that aren't known are <code>?</code>, as log4j has them.
+ */
+final class Location {
+
+    static final String NA = "?";
+
+    static final Location UNKNOWN = new Location(NA, NA, NA, NA);
+
+    private final String fileName;
+    private final String className;
+    private final String methodName;
+    private final String lineNumber;
+
+    Location(final String fileName, final String className, 
+        final String methodName, final String lineNumber) {
+        this.fileName = fileName;
+        this.className = className;
+        this.methodName = methodName;
+        this.lineNumber = lineNumber;
+    }
+
+    Location(final StackTraceElement frame) {
+        this(frame.getFileName() == null ? NA : frame.getFileName(), 
+            frame.getClassName(), frame.getMethodName(), 
+            String.valueOf(frame.getLineNumber()));
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    String getMethodName() {
+        return methodName;
+    }
+
+    String getLineNumber() {
+        return lineNumber;
+    }
+}
@@ -0,0 +1,148 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.params.HttpConnectionParams;
+
+/**
+ * {@link AsyncHttpStrategy} built on non-blocking I/O, which keeps several
+ * requests in flight over pooled, kept-alive connections using a single I/O
+ * thread rather than a thread per request.
+ * <p>
+ * This needs httpasyncclient on the classpath, which is an optional
+ * dependency of this library.
+ */
+public class NioHttpStrategy implements AsyncHttpStrategy {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private final DefaultHttpAsyncClient client;
+
+    private final Semaphore inFlight;
+
+    /**
+     * Creates a strategy with the default timeouts and number of requests
+     * in flight.
+     *
+     * @throws IOReactorException If the I/O thread can't be started.
+     */
+    public NioHttpStrategy() throws IOReactorException {
+        this(PooledHttpStrategy.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+            PooledHttpStrategy.DEFAULT_SOCKET_TIMEOUT_MILLIS,
+            DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param connectTimeoutMillis How long to wait to connect.
+     * @param socketTimeoutMillis How long a connection can go without any
+     * data before the request fails.
+     * @param maxInFlight The most requests in flight at once. Further
+     * requests wait for one of them to complete.
+     * @throws IOReactorException If the I/O thread can't be started.
+     */
+    public NioHttpStrategy(final int connectTimeoutMillis,
+        final int socketTimeoutMillis, final int maxInFlight)
+        throws IOReactorException {
+        final IOReactorConfig config = new IOReactorConfig();
+        config.setIoThreadCount(1);
+        config.setConnectTimeout(connectTimeoutMillis);
+        config.setSoTimeout(socketTimeoutMillis);
+        this.client = new DefaultHttpAsyncClient(config);
+        HttpConnectionParams.setConnectionTimeout(client.getParams(),
+            connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(client.getParams(),
+            socketTimeoutMillis);
+        final PoolingClientAsyncConnectionManager connectionManager =
+            (PoolingClientAsyncConnectionManager) client.getConnectionManager();
+        connectionManager.setMaxTotal(maxInFlight);
+        connectionManager.setDefaultMaxPerRoute(maxInFlight);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.client.start();
+    }
+
+    public void execute(final HttpPost request,
+        final FutureCallback<HttpResponse> callback) {
+        inFlight.acquireUninterruptibly();
+        try {
+            client.execute(request, new FutureCallback<HttpResponse>() {
+                public void completed(final HttpResponse response) {
+                    inFlight.release();
+                    callback.completed(response);
+                }
+
+                public void failed(final Exception e) {
+                    inFlight.release();
+                    callback.failed(e);
+                }
+
+                public void cancelled() {
+                    inFlight.release();
+                    callback.cancelled();
+                }
+            });
+        } catch (final RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    public HttpResponse execute(final HttpGet request)
+        throws ClientProtocolException, IOException {
+        return await(request);
+    }
+
+    public HttpResponse execute(final HttpPost request)
+        throws ClientProtocolException, IOException {
+        return await(request);
+    }
+
+    private HttpResponse await(final HttpUriRequest request)
+        throws IOException {
+        inFlight.acquireUninterruptibly();
+        try {
+            final Future<HttpResponse> future = client.execute(request, null);
+            try {
+                return future.get();
+            } catch (final InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                final IOException wrapped = new IOException(String.valueOf(cause));
+                wrapped.initCause(cause);
+                throw wrapped;
+            }
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Stops the I/O thread and closes all connections. The strategy can't be
+     * used afterwards.
+     *
+     * @throws InterruptedException If interrupted while waiting for the I/O
+     * thread to stop.
+     */
+    public void shutdown() throws InterruptedException {
+        client.shutdown();
+    }
+}
@@ -0,0 +1,47 @@
+package org.lantern.exceptional4j;
+
+/**
+ * What to do with an event when the queue of events waiting to be sent to
+ * Exceptional is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the event being logged. The events already queued, which are
+     * usually the first occurrences of a problem, are kept.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Discard the oldest queued event to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Block the logging thread until there is room, giving up and discarding
+     * the event after the configured timeout.
+     */
+    BLOCK;
+
+    /**
+     * Parses a policy from a log4j configuration value, ignoring case and
+     * allowing dashes in place of underscores.
+     *
+     * @param value The configured value.
+     * @param defaultPolicy The policy to use if the value isn't recognized.
+     * @return The policy.
+     */
+    public static OverflowPolicy toPolicy(final String value,
+        final OverflowPolicy defaultPolicy) {
+        if (value == null) {
+            return defaultPolicy;
+        }
+        final String name = value.trim().toUpperCase().replace('-', '_');
+        for (final OverflowPolicy policy : values()) {
+            if (policy.name().equals(name)) {
+                return policy;
+            }
+        }
+        return defaultPolicy;
+    }
+}
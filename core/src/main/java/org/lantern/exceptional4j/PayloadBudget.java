@@ -0,0 +1,181 @@
+package org.lantern.exceptional4j;
+
+/**
+ * Keeps a bug within the reporter's size limits as it's written, and keeps
+ * track of what had to be left out so the report can say so. One is made
+ * for each bug, on the thread writing it.
+ */
+final class PayloadBudget {
+
+    /**
+     * Room kept back from the payload limit for what's written after the
+     * backtrace: the exception class, the time, the client and the
+     * truncation markers.
+     */
+    static final int RESERVE = 1024;
+
+    private final int maxMessageBytes;
+
+    private final int maxFrames;
+
+    /**
+     * The size the buffer can reach before the rest of the backtrace is
+     * left out.
+     */
+    private final int limit;
+
+    private int frames;
+
+    private int framesDropped;
+
+    private boolean messageTruncated;
+
+    private boolean payloadTruncated;
+
+    /**
+     * @param start The size of the buffer when the bug starts.
+     * @param maxMessageBytes The most bytes of a message.
+     * @param maxFrames The most lines of backtrace.
+     * @param maxPayloadBytes The most bytes of the whole bug.
+     */
+    PayloadBudget(final int start, final int maxMessageBytes,
+        final int maxFrames, final int maxPayloadBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        this.maxFrames = maxFrames;
+        this.limit = start + Math.max(0, maxPayloadBytes - RESERVE);
+    }
+
+    /**
+     * Cuts a message down to as much as could be written, before it's 
+     * sanitized. Some is kept beyond the limit so a secret on the boundary
+     * is still recognized and replaced before the rest is cut.
+     *
+     * @param message The message.
+     * @return The start of the message.
+     */
+    String head(final String message) {
+        final int chars = maxMessageBytes + 1024;
+        return message.length() > chars ? message.substring(0, chars) : 
+            message;
+    }
+
+    /**
+     * Cuts a message down to the limit for a callback to see, ending with a
+     * note of how much was left out if any was.
+     *
+     * @param message The message.
+     * @return The message, cut to the limit in characters.
+     */
+    String cut(final String message) {
+        if (message.length() <= maxMessageBytes) {
+            return message;
+        }
+        messageTruncated = true;
+        return message.substring(0, maxMessageBytes) + "... [" + 
+            (message.length() - maxMessageBytes) + " chars truncated]";
+    }
+
+    /**
+     * Writes a message, or a line introducing a throwable, within both the
+     * message limit and what's left of the payload.
+     *
+     * @param json The writer.
+     * @param value The text, possibly already cut by {@link #head(String)}.
+     * @param length The length of the text before any of it was cut.
+     * @return <code>false</code> if there was no room for it at all.
+     */
+    boolean text(final JsonWriter json, final String value,
+        final int length) {
+        final int room = limit - json.size();
+        if (room <= 0) {
+            payloadTruncated = true;
+            return false;
+        }
+        if (json.boundedValue(value, Math.min(maxMessageBytes, room),
+            length)) {
+            if (room < maxMessageBytes) {
+                payloadTruncated = true;
+            } else {
+                messageTruncated = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Says whether there's room for another line of backtrace.
+     *
+     * @param json The writer.
+     * @param bytes The encoded size of the line.
+     * @return <code>true</code> if it should be written.
+     */
+    boolean frame(final JsonWriter json, final int bytes) {
+        if (frames >= maxFrames) {
+            return false;
+        }
+        if (json.size() + bytes + 1 > limit) {
+            payloadTruncated = true;
+            return false;
+        }
+        frames++;
+        return true;
+    }
+
+    /**
+     * @return Whether the payload limit's been reached, so nothing more of
+     * the backtrace fits.
+     */
+    boolean isFull() {
+        return payloadTruncated;
+    }
+
+    /**
+     * Notes that lines of backtrace were left out, with a line saying how
+     * many in their place.
+     *
+     * @param json The writer.
+     * @param count The number left out.
+     */
+    void dropped(final JsonWriter json, final int count) {
+        if (count <= 0) {
+            return;
+        }
+        framesDropped += count;
+        json.value("... " + count + " frames truncated");
+    }
+
+    /**
+     * Notes lines of backtrace left out without saying so where they were,
+     * for when even that doesn't fit.
+     */
+    void skipped(final int count) {
+        framesDropped += count;
+    }
+
+    /**
+     * Writes the <code>truncated</code> field saying what was left out, if
+     * anything was.
+     *
+     * @param json The writer, with the exception object open.
+     * @return Whether anything was left out.
+     */
+    boolean writeMarkers(final JsonWriter json) {
+        if (!messageTruncated && framesDropped == 0 && !payloadTruncated) {
+            return false;
+        }
+        json.name("truncated").beginObject();
+        json.name("message").value(messageTruncated);
+        json.name("frames_dropped").value(framesDropped);
+        json.name("payload").value(payloadTruncated);
+        json.endObject();
+        return true;
+    }
+
+    int getFramesDropped() {
+        return framesDropped;
+    }
+
+    boolean isPayloadTruncated() {
+        return payloadTruncated;
+    }
+}
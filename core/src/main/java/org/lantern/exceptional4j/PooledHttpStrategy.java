@@ -0,0 +1,140 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * {@link HttpStrategy} backed by a pool of kept-alive connections, with
+ * timeouts on connecting, on waiting for a pooled connection and on every
+ * read, so a server or TLS handshake that hangs can't stall the sender
+ * forever. This is what the appender uses unless it's given something
+ * else.
+ * <p>
+ * Callers have to consume or close the entity of each response so its
+ * connection goes back to the pool.
+ */
+public class PooledHttpStrategy implements HttpStrategy {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30 * 1000;
+
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000;
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    private final PoolingClientConnectionManager connectionManager;
+
+    private final DefaultHttpClient client;
+
+    private final long keepAliveMillis;
+
+    private volatile long lastEvicted = System.currentTimeMillis();
+
+    /**
+     * Creates a strategy with the default timeouts and pool size.
+     */
+    public PooledHttpStrategy() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS,
+            DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param connectTimeoutMillis How long to wait to connect, including
+     * waiting for a connection from the pool.
+     * @param socketTimeoutMillis How long to wait for each read.
+     * @param keepAliveMillis The longest an idle connection is kept, even if
+     * the server would allow longer.
+     * @param maxConnections The most connections to open at once.
+     */
+    public PooledHttpStrategy(final int connectTimeoutMillis,
+        final int socketTimeoutMillis, final long keepAliveMillis,
+        final int maxConnections) {
+        this.keepAliveMillis = keepAliveMillis;
+        this.connectionManager = new PoolingClientConnectionManager();
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+        this.client = new DefaultHttpClient(connectionManager);
+
+        final HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT,
+            connectTimeoutMillis);
+
+        final ConnectionKeepAliveStrategy serverKeepAlive =
+            new DefaultConnectionKeepAliveStrategy();
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            public long getKeepAliveDuration(final HttpResponse response,
+                final HttpContext context) {
+                final long duration =
+                    serverKeepAlive.getKeepAliveDuration(response, context);
+                return duration > 0 ?
+                    Math.min(duration, keepAliveMillis) : keepAliveMillis;
+            }
+        });
+    }
+
+    public HttpResponse execute(final HttpGet request)
+        throws ClientProtocolException, IOException {
+        evictIdle();
+        return client.execute(request);
+    }
+
+    public HttpResponse execute(final HttpPost request)
+        throws ClientProtocolException, IOException {
+        evictIdle();
+        return client.execute(request);
+    }
+
+    /**
+     * Closes connections that have expired or been idle too long, at most
+     * once per keep-alive period, so a connection the server has given up
+     * on isn't used.
+     */
+    private void evictIdle() {
+        final long now = System.currentTimeMillis();
+        if (now - lastEvicted < keepAliveMillis) {
+            return;
+        }
+        lastEvicted = now;
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(keepAliveMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Raises the number of connections that can be open at once, if it's 
+     * lower than asked for.
+     *
+     * @param maxConnections The most connections needed at once.
+     */
+    public void ensureMaxConnections(final int maxConnections) {
+        synchronized (connectionManager) {
+            if (connectionManager.getMaxTotal() < maxConnections) {
+                connectionManager.setMaxTotal(maxConnections);
+                connectionManager.setDefaultMaxPerRoute(maxConnections);
+            }
+        }
+    }
+
+    /**
+     * Closes all connections. The strategy can't be used afterwards.
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+    }
+}
@@ -27,11 +27,22 @@ public class RegexSanitizer implements Sanitizer {
     @Override
     public String sanitize(String original) {
         Matcher matcher = pattern.matcher(original);
+        if (!matcher.find()) {
+            return original;
+        }
         StringBuffer result = new StringBuffer();
-        while (matcher.find()) {
+        do {
             matcher.appendReplacement(result, replacement);
-        }
+        } while (matcher.find());
         matcher.appendTail(result);
         return result.toString();
     }
+
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    String getReplacement() {
+        return replacement;
+    }
 }
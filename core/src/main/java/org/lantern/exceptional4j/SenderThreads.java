@@ -0,0 +1,74 @@
+package org.lantern.exceptional4j;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads bugs are sent from. These can be virtual threads on
+ * Java 21 and later, which are made through reflection so the library still
+ * builds and runs on older versions. Where there are no virtual threads,
+ * platform threads are created instead.
+ */
+final class SenderThreads {
+
+    /**
+     * <code>Thread.ofVirtual()</code>, or <code>null</code> before Java 21.
+     */
+    private static final Method OF_VIRTUAL;
+
+    private static final Method NAME;
+
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (final NoSuchMethodException e) {
+            ofVirtual = null;
+        } catch (final ClassNotFoundException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private SenderThreads() {
+    }
+
+    /**
+     * @return Whether virtual threads can be created.
+     */
+    static boolean virtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates a thread that doesn't keep the JVM running.
+     *
+     * @param runnable What the thread runs.
+     * @param name The thread's name.
+     * @param virtual Whether to make a virtual thread, if there are any.
+     * @return The thread, not yet started.
+     */
+    static Thread newThread(final Runnable runnable, final String name,
+        final boolean virtual) {
+        if (virtual && OF_VIRTUAL != null) {
+            try {
+                final Object builder = NAME.invoke(OF_VIRTUAL.invoke(null),
+                    name);
+                return (Thread) UNSTARTED.invoke(builder, runnable);
+            } catch (final Exception e) {
+                // Virtual threads may be turned off, so fall back.
+            }
+        }
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
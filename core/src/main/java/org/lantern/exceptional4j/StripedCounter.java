@@ -0,0 +1,41 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that threads can bump without contending with each other. Each
+ * thread adds to one of several cells, picked by its id and spaced a cache
+ * line apart, and reading the count sums them.
+ */
+final class StripedCounter {
+
+    private static final int STRIPES = 16;
+
+    /**
+     * Longs between cells, so no two share a 64 byte cache line.
+     */
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    void increment() {
+        add(1L);
+    }
+
+    void add(final long n) {
+        final int cell =
+            ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+        cells.getAndAdd(cell, n);
+    }
+
+    /**
+     * @return The count, which may miss additions made while it's read.
+     */
+    long get() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,80 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free token buckets, either one shared by everything or one for each
+ * of a fixed number of slots keys are hashed into. Keys that share a slot
+ * share its bucket, which keeps the memory used fixed however many keys
+ * there are.
+ * <p>
+ * Each bucket is a single long holding the time its next token would be
+ * due if every token were taken as soon as it refilled. Taking a token
+ * moves that time on by the refill interval, and is refused if it would
+ * end up further ahead of now than the burst allows. This is the same as
+ * a bucket holding up to the burst size in tokens, refilled one token per
+ * interval, but can be updated with a single compare-and-set.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+
+    private final long burstNanos;
+
+    private final AtomicLongArray dueTimes;
+
+    private final int mask;
+
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param slots The number of buckets, rounded up to a power of two.
+     * @param perMinute How many tokens each bucket refills a minute, or 0
+     * for no limit.
+     * @param burst The most tokens each bucket holds.
+     */
+    TokenBucket(final int slots, final int perMinute, final int burst) {
+        int n = 1;
+        while (n < slots) {
+            n <<= 1;
+        }
+        this.mask = n - 1;
+        this.dueTimes = new AtomicLongArray(n);
+        this.intervalNanos = perMinute <= 0 ? 0L :
+            TimeUnit.MINUTES.toNanos(1) / perMinute;
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    /**
+     * Takes a token from the bucket for a key.
+     *
+     * @return <code>true</code> if there was a token.
+     */
+    boolean tryAcquire(final long key) {
+        if (intervalNanos == 0L) {
+            return true;
+        }
+        final int slot = (int) (key ^ (key >>> 32)) & mask;
+        final long now = System.nanoTime() - origin;
+        while (true) {
+            final long due = dueTimes.get(slot);
+            final long next = Math.max(due, now) + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (dueTimes.compareAndSet(slot, due, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes a token from the first bucket.
+     *
+     * @return <code>true</code> if there was a token.
+     */
+    boolean tryAcquire() {
+        return tryAcquire(0L);
+    }
+}
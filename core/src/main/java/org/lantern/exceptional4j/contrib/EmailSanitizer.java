@@ -0,0 +1,93 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.lantern.exceptional4j.Sanitizer;
+
+/**
+ * A {@link Sanitizer} that replaces every email address with ???@???. An
+ * address needs a domain with at least one dot and a top level domain of
+ * two or more letters, so things like user@localhost or java@1.6 are left
+ * alone.
+ */
+public class EmailSanitizer extends ScanningSanitizer {
+    private static final String EMAIL_REPLACEMENT = "???@???";
+
+    public EmailSanitizer() {
+        super(EMAIL_REPLACEMENT);
+    }
+
+    @Override
+    protected long find(final String s, final int from) {
+        int at = s.indexOf('@', from);
+        while (at >= 0) {
+            int start = at;
+            while (start > from && isLocal(s.charAt(start - 1))) {
+                start--;
+            }
+            while (start < at && s.charAt(start) == '.') {
+                start++;
+            }
+            if (start < at) {
+                final int end = domainEnd(s, at + 1);
+                if (end > 0) {
+                    return match(start, end);
+                }
+            }
+            at = s.indexOf('@', at + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index after the domain starting at the index, or -1 if
+     * there isn't a valid one.
+     */
+    private static int domainEnd(final String s, final int start) {
+        final int len = s.length();
+        int i = start;
+        int labels = 0;
+        int lastLabel = start;
+        int end = -1;
+        while (i < len) {
+            final int labelStart = i;
+            while (i < len && (isLetterOrDigit(s.charAt(i)) ||
+                s.charAt(i) == '-')) {
+                i++;
+            }
+            if (i == labelStart) {
+                break;
+            }
+            labels++;
+            lastLabel = labelStart;
+            if (labels > 1 && isTopLevel(s, lastLabel, i)) {
+                end = i;
+            }
+            // Carry on only if another label follows the dot, so a full stop
+            // at the end of a sentence isn't taken.
+            if (i + 1 < len && s.charAt(i) == '.' &&
+                isLetterOrDigit(s.charAt(i + 1))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isTopLevel(final String s, final int start,
+        final int end) {
+        if (end - start < 2) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isLetter(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLocal(final char c) {
+        return isLetterOrDigit(c) || c == '.' || c == '_' || c == '%' ||
+            c == '+' || c == '-';
+    }
+}
@@ -0,0 +1,68 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.lantern.exceptional4j.Sanitizer;
+
+/**
+ * A {@link Sanitizer} that replaces every IPv4 address with
+ * ???.???.???.???. Only four dotted numbers from 0 to 255 count, so version
+ * numbers like 1.2.3.4000 or 1.2.3.4.5 are left alone.
+ */
+public class IPv4Sanitizer extends ScanningSanitizer {
+    private static final String IP_REPLACEMENT = "???.???.???.???";
+
+    public IPv4Sanitizer() {
+        super(IP_REPLACEMENT);
+    }
+
+    @Override
+    protected long find(final String s, final int from) {
+        final int len = s.length();
+        for (int i = from; i < len; i++) {
+            if (!isDigit(s.charAt(i))) {
+                continue;
+            }
+            if (i > 0) {
+                final char prev = s.charAt(i - 1);
+                if (isDigit(prev) || prev == '.') {
+                    continue;
+                }
+            }
+            final int end = scan(s, i);
+            if (end > 0 && (end == len || !isDotDigit(s, end))) {
+                return match(i, end);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans a dotted quad.
+     *
+     * @return The index after it, or -1 if there isn't a valid one at the
+     * start index.
+     */
+    static int scan(final String s, final int start) {
+        final int len = s.length();
+        int i = start;
+        for (int octet = 0; octet < 4; octet++) {
+            if (octet > 0) {
+                if (i >= len || s.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+            int value = 0;
+            int digits = 0;
+            while (i < len && isDigit(s.charAt(i))) {
+                if (++digits > 3) {
+                    return -1;
+                }
+                value = value * 10 + (s.charAt(i++) - '0');
+            }
+            if (digits == 0 || value > 255) {
+                return -1;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,116 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.lantern.exceptional4j.Sanitizer;
+
+/**
+ * A {@link Sanitizer} that replaces every IPv6 address with ????:????. Full
+ * and compressed forms are recognized, along with those ending in an IPv4
+ * address such as ::ffff:10.0.0.1. Times, MAC addresses and method
+ * references like String::valueOf are left alone.
+ */
+public class IPv6Sanitizer extends ScanningSanitizer {
+    private static final String IP_REPLACEMENT = "????:????";
+
+    public IPv6Sanitizer() {
+        super(IP_REPLACEMENT);
+    }
+
+    @Override
+    protected long find(final String s, final int from) {
+        final int len = s.length();
+        for (int i = from; i < len; i++) {
+            final char c = s.charAt(i);
+            if (!isHex(c) && c != ':') {
+                continue;
+            }
+            if (i > 0) {
+                final char prev = s.charAt(i - 1);
+                if (isLetterOrDigit(prev) || prev == ':' || prev == '.') {
+                    continue;
+                }
+            }
+            final int end = scan(s, i);
+            if (end < 0) {
+                continue;
+            }
+            if (end < len) {
+                final char next = s.charAt(end);
+                if (isLetterOrDigit(next) || next == ':' ||
+                    isDotDigit(s, end)) {
+                    continue;
+                }
+            }
+            return match(i, end);
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index after the address starting at the index, or -1 if
+     * there isn't a valid one.
+     */
+    private static int scan(final String s, final int start) {
+        final int len = s.length();
+        int i = start;
+        int groups = 0;
+        boolean compressed = false;
+        if (s.startsWith("::", i)) {
+            compressed = true;
+            i += 2;
+        }
+        while (i < len) {
+            int digits = 0;
+            while (i + digits < len && isHex(s.charAt(i + digits))) {
+                digits++;
+            }
+            if (digits == 0) {
+                break;
+            }
+            if (i + digits < len && s.charAt(i + digits) == '.') {
+                // Only an IPv4 address can end it.
+                final int end = IPv4Sanitizer.scan(s, i);
+                if (end < 0) {
+                    return -1;
+                }
+                groups += 2;
+                i = end;
+                break;
+            }
+            if (digits > 4) {
+                return -1;
+            }
+            groups++;
+            i += digits;
+            if (i >= len || s.charAt(i) != ':') {
+                break;
+            }
+            if (i + 1 < len && s.charAt(i + 1) == ':') {
+                if (compressed) {
+                    return -1;
+                }
+                compressed = true;
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        if (groups == 0) {
+            return -1;
+        }
+        if (s.charAt(i - 1) == ':' && !compressedAt(s, i)) {
+            // A single colon with nothing after it.
+            return -1;
+        }
+        if (compressed ? groups > 7 : groups != 8) {
+            return -1;
+        }
+        return i;
+    }
+
+    /**
+     * @return Whether the index comes just after a "::".
+     */
+    private static boolean compressedAt(final String s, final int i) {
+        return i >= 2 && s.charAt(i - 1) == ':' && s.charAt(i - 2) == ':';
+    }
+}
@@ -0,0 +1,100 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.lantern.exceptional4j.Sanitizer;
+
+/**
+ * Base class for {@link Sanitizer}s that find what to replace with a
+ * hand-written scanner rather than a regex. Nothing is allocated unless
+ * something is actually replaced; otherwise the original string is
+ * returned.
+ */
+public abstract class ScanningSanitizer implements Sanitizer {
+
+    private final String replacement;
+
+    /**
+     * @param replacement The string with which to replace each match.
+     */
+    protected ScanningSanitizer(final String replacement) {
+        this.replacement = replacement;
+    }
+
+    @Override
+    public String sanitize(final String original) {
+        if (original == null) {
+            return null;
+        }
+        long match = find(original, 0);
+        if (match < 0) {
+            return original;
+        }
+        final int len = original.length();
+        final StringBuilder result = new StringBuilder(len + 16);
+        int copied = 0;
+        do {
+            final int start = start(match);
+            final int end = end(match);
+            result.append(original, copied, start).append(replacement);
+            copied = end;
+            match = find(original, end);
+        } while (match >= 0);
+        result.append(original, copied, len);
+        return result.toString();
+    }
+
+    /**
+     * Finds the next match.
+     *
+     * @param s The string to search.
+     * @param from Where to start. Matches mustn't start before this, though
+     * the characters before it can be looked at.
+     * @return The match, from {@link #match(int, int)}, or -1 if there are
+     * no more.
+     */
+    protected abstract long find(String s, int from);
+
+    /**
+     * Packs the bounds of a match into a long, so scanners can return them
+     * without allocating.
+     *
+     * @param start The index of the first character of the match.
+     * @param end The index after the last character of the match, which
+     * must be greater than the start.
+     */
+    protected static long match(final int start, final int end) {
+        return ((long) start << 32) | end;
+    }
+
+    private static int start(final long match) {
+        return (int) (match >>> 32);
+    }
+
+    private static int end(final long match) {
+        return (int) match;
+    }
+
+    protected static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    protected static boolean isHex(final char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    protected static boolean isLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    protected static boolean isLetterOrDigit(final char c) {
+        return isLetter(c) || isDigit(c);
+    }
+
+    /**
+     * @return Whether the character at the index is a '.' followed by a
+     * digit, meaning a number carries on past it.
+     */
+    protected static boolean isDotDigit(final String s, final int i) {
+        return i + 1 < s.length() && s.charAt(i) == '.' &&
+            isDigit(s.charAt(i + 1));
+    }
+}
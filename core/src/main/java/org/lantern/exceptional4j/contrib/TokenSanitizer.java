@@ -0,0 +1,148 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.lantern.exceptional4j.Sanitizer;
+
+/**
+ * A {@link Sanitizer} that replaces credentials with ???, leaving what
+ * introduced them in place. It catches bearer tokens, as in
+ * <code>Authorization: Bearer eyJhbGciOi...</code>, and values assigned to
+ * well-known key names, as in <code>api_key=abc123</code>,
+ * <code>"access_token": "abc123"</code> or <code>apikey: abc123</code>.
+ * Names are matched ignoring case. Bearer tokens must be at least eight
+ * characters long, so prose like "the bearer of bad news" is left alone.
+ */
+public class TokenSanitizer extends ScanningSanitizer {
+    private static final String TOKEN_REPLACEMENT = "???";
+
+    private static final String BEARER = "bearer";
+
+    private static final int MIN_BEARER_LENGTH = 8;
+
+    private static final String[] DEFAULT_NAMES = {
+        "api_key", "api-key", "apikey", "access_token", "auth_token",
+        "refresh_token", "client_secret",
+    };
+
+    private final String[] names;
+
+    /**
+     * Whether each ASCII character, lower cased, starts one of the names.
+     */
+    private final boolean[] firsts = new boolean[128];
+
+    public TokenSanitizer() {
+        this(DEFAULT_NAMES);
+    }
+
+    /**
+     * @param names The key names whose values should be replaced, along
+     * with bearer tokens.
+     */
+    public TokenSanitizer(final String... names) {
+        super(TOKEN_REPLACEMENT);
+        this.names = new String[names.length + 1];
+        this.names[0] = BEARER;
+        for (int i = 0; i < names.length; i++) {
+            this.names[i + 1] = names[i].toLowerCase();
+        }
+        for (final String name : this.names) {
+            final char c = name.charAt(0);
+            if (c < firsts.length) {
+                firsts[c] = true;
+            }
+        }
+    }
+
+    @Override
+    protected long find(final String s, final int from) {
+        final int len = s.length();
+        for (int i = from; i < len; i++) {
+            // Names start words, though a '-' can come before, as in
+            // X-Api-Key.
+            if (i > 0 && (isLetterOrDigit(s.charAt(i - 1)) ||
+                s.charAt(i - 1) == '_')) {
+                continue;
+            }
+            final char c = Character.toLowerCase(s.charAt(i));
+            if (c >= firsts.length || !firsts[c]) {
+                continue;
+            }
+            for (int n = 0; n < names.length; n++) {
+                final String name = names[n];
+                if (!s.regionMatches(true, i, name, 0, name.length())) {
+                    continue;
+                }
+                final int after = i + name.length();
+                if (after < len && isNameChar(s.charAt(after))) {
+                    continue;
+                }
+                final int start = n == 0 ?
+                    bearerValue(s, after) : assignedValue(s, after);
+                if (start < 0) {
+                    continue;
+                }
+                int end = start;
+                while (end < len && isTokenChar(s.charAt(end))) {
+                    end++;
+                }
+                while (end < len && s.charAt(end) == '=') {
+                    end++;
+                }
+                if (end - start >= (n == 0 ? MIN_BEARER_LENGTH : 1)) {
+                    return match(start, end);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Where the token after "bearer" starts, or -1 if there isn't
+     * whitespace after it.
+     */
+    private static int bearerValue(final String s, final int after) {
+        int i = after;
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i > after ? i : -1;
+    }
+
+    /**
+     * @return Where the value assigned to a name starts, or -1 if there's
+     * no '=' or ':' after it.
+     */
+    private static int assignedValue(final String s, final int after) {
+        final int len = s.length();
+        int i = skipQuotesAndSpaces(s, after);
+        if (i >= len || (s.charAt(i) != '=' && s.charAt(i) != ':')) {
+            return -1;
+        }
+        return skipQuotesAndSpaces(s, i + 1);
+    }
+
+    private static int skipQuotesAndSpaces(final String s, final int from) {
+        int i = from;
+        while (i < s.length()) {
+            final char c = s.charAt(i);
+            if (c != '"' && c != '\'' && c != ' ' && c != '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isNameChar(final char c) {
+        return isLetterOrDigit(c) || c == '_' || c == '-';
+    }
+
+    /**
+     * Characters of the token68 syntax used by bearer tokens, which also
+     * covers API keys.
+     */
+    private static boolean isTokenChar(final char c) {
+        return isLetterOrDigit(c) || c == '-' || c == '.' || c == '_' ||
+            c == '~' || c == '+' || c == '/';
+    }
+}
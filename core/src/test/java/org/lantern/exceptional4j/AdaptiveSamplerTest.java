@@ -0,0 +1,65 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AdaptiveSamplerTest {
+
+    @Test
+    public void testKeepsEverythingBelowThreshold() {
+        final AdaptiveSampler sampler = new AdaptiveSampler(1, 100);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(1.0, sampler.sample(1L), 0);
+        }
+    }
+
+    @Test
+    public void testSamplesAboveThreshold() {
+        final AdaptiveSampler sampler = new AdaptiveSampler(1, 1000);
+        final int logged = 100000;
+        int kept = 0;
+        double estimated = 0;
+        for (int i = 0; i < logged; i++) {
+            final double rate = sampler.sample(1L);
+            if (rate != AdaptiveSampler.DROP) {
+                assertTrue(rate > 0 && rate <= 1.0);
+                kept++;
+                estimated += 1 / rate;
+            }
+        }
+        assertTrue("Kept " + kept, kept < logged / 10);
+        assertEquals(logged, estimated, logged * 0.3);
+    }
+
+    @Test
+    public void testCountsDroppedEvents() {
+        final AdaptiveSampler sampler = new AdaptiveSampler(1, 10);
+        long counted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (sampler.sample(1L) != AdaptiveSampler.DROP) {
+                counted += 1 + sampler.takeDropped(1L);
+            }
+        }
+        counted += sampler.takeDropped(1L);
+        assertEquals(10000, counted);
+        assertEquals(0L, sampler.takeDropped(1L));
+    }
+
+    @Test
+    public void testSamplesKeysSeparately() {
+        final AdaptiveSampler sampler = new AdaptiveSampler(16, 5);
+        for (int i = 0; i < 1000; i++) {
+            sampler.sample(1L);
+        }
+        assertEquals(1.0, sampler.sample(2L), 0);
+    }
+
+    @Test
+    public void testDisabled() {
+        final AdaptiveSampler sampler = new AdaptiveSampler(1, 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(1.0, sampler.sample(1L), 0);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class BacktraceCacheTest {
+
+    private static StackTraceElement frame(final String method) {
+        return new StackTraceElement("org.example.Foo", method, "Foo.java",
+            1);
+    }
+
+    private static Throwable throwable(final String... methods) {
+        final Throwable t = new IllegalStateException("boom");
+        final StackTraceElement[] stack = new StackTraceElement[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            stack[i] = frame(methods[i]);
+        }
+        t.setStackTrace(stack);
+        return t;
+    }
+
+    private static JSONArray write(final Throwable t,
+        final PayloadBudget budget) {
+        final ByteBuf buf = new ByteBuf(256);
+        final JsonWriter json = new JsonWriter(buf).beginArray();
+        new BacktraceCache(4).write(json, t, 1L, budget);
+        json.endArray();
+        return (JSONArray) JSONValue.parse(
+            new String(buf.array(), 0, buf.size()));
+    }
+
+    private static PayloadBudget budget(final int maxFrames,
+        final int maxPayloadBytes) {
+        return new PayloadBudget(0, 1024, maxFrames, maxPayloadBytes);
+    }
+
+    @Test
+    public void testCollapsesRepeatedRuns() {
+        final List<String> lines = BacktraceCache.collapse(new String[] {
+            "a", "b", "c", "b", "c", "b", "c", "d", "d", "e"}, 10, "at ");
+        assertEquals(Arrays.asList("at a", "at b", "at c",
+            "... the 2 frames above repeated 2 more times", "at d", "at d",
+            "at e"), lines);
+
+        final List<String> recursion = BacktraceCache.collapse(
+            new String[] {"f", "f", "f", "f", "g"}, 5, "");
+        assertEquals(Arrays.asList("f",
+            "... the frame above repeated 3 more times", "g"), recursion);
+    }
+
+    @Test
+    public void testCollapsesRecursionInThrowables() {
+        final JSONArray lines = write(
+            throwable("r", "r", "r", "r", "r", "r", "main"),
+            budget(256, 65536));
+        assertEquals(4, lines.size());
+        assertEquals("java.lang.IllegalStateException: boom", lines.get(0));
+        assertEquals("... the frame above repeated 5 more times",
+            lines.get(2));
+    }
+
+    @Test
+    public void testLimitsFrames() {
+        final PayloadBudget budget = budget(3, 65536);
+        final JSONArray lines =
+            write(throwable("a", "b", "c", "d", "e", "f", "g"), budget);
+        assertEquals(5, lines.size());
+        assertEquals("at org.example.Foo.c(Foo.java:1)", lines.get(3));
+        assertEquals("... 4 frames truncated", lines.get(4));
+        assertEquals(4, budget.getFramesDropped());
+        assertFalse(budget.isPayloadTruncated());
+    }
+
+    @Test
+    public void testLimitsPayload() {
+        final String[] methods = new String[100];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = "m" + i;
+        }
+        final PayloadBudget budget = budget(256, PayloadBudget.RESERVE + 500);
+        final JSONArray lines = write(throwable(methods), budget);
+        assertTrue(lines.size() < 20);
+        assertTrue(budget.isPayloadTruncated());
+        assertEquals(100 - (lines.size() - 1), budget.getFramesDropped());
+    }
+
+    @Test
+    public void testLimitsRenderedBacktraces() {
+        final ByteBuf buf = new ByteBuf(256);
+        final JsonWriter json = new JsonWriter(buf).beginArray();
+        final PayloadBudget budget = budget(2, 65536);
+        BacktraceCache.write(json, new String[] {
+            "java.io.IOException: reset", "\tat a", "\tat b", "\tat c",
+            "Caused by: java.net.SocketException", "\tat d"}, budget);
+        json.endArray();
+        assertEquals(Arrays.asList("java.io.IOException: reset", "at a",
+            "at b", "... 1 frames truncated",
+            "Caused by: java.net.SocketException", "... 1 frames truncated"),
+            JSONValue.parse(new String(buf.array(), 0, buf.size())));
+        assertEquals(2, budget.getFramesDropped());
+    }
+}
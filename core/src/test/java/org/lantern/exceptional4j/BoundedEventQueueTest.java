@@ -0,0 +1,112 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BoundedEventQueueTest {
+
+    @Test
+    public void testDropNewest() {
+        final BoundedEventQueue<Integer> queue =
+            new BoundedEventQueue<Integer>(4, OverflowPolicy.DROP_NEWEST, 0);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i);
+        }
+        assertEquals(4, queue.size());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDropOldest() {
+        final BoundedEventQueue<Integer> queue =
+            new BoundedEventQueue<Integer>(4, OverflowPolicy.DROP_OLDEST, 0);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(2, queue.getDroppedCount());
+        for (int i = 2; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBlockTimesOut() {
+        final BoundedEventQueue<Integer> queue =
+            new BoundedEventQueue<Integer>(2, OverflowPolicy.BLOCK, 20);
+        assertTrue(queue.offer(0));
+        assertTrue(queue.offer(1));
+        final long start = System.nanoTime();
+        assertFalse(queue.offer(2));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockWaitsForConsumer() throws Exception {
+        final BoundedEventQueue<Integer> queue =
+            new BoundedEventQueue<Integer>(2, OverflowPolicy.BLOCK, 10000);
+        assertTrue(queue.offer(0));
+        assertTrue(queue.offer(1));
+        final Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (final InterruptedException e) {
+                }
+                queue.poll();
+            }
+        };
+        consumer.start();
+        assertTrue(queue.offer(2));
+        consumer.join();
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(Integer.valueOf(2), queue.poll());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 10000;
+        final BoundedEventQueue<Integer> queue =
+            new BoundedEventQueue<Integer>(64, OverflowPolicy.BLOCK, 60000);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(base + i);
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        final Set<Integer> seen = new HashSet<Integer>();
+        while (seen.size() < producers * perProducer) {
+            final Integer i = queue.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Timed out waiting for events", i);
+            assertTrue("Duplicate " + i, seen.add(i));
+        }
+        assertEquals(0, queue.getDroppedCount());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,99 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BugBatcherTest {
+
+    private static final int DOCUMENT_SIZE = 10;
+
+    private final List<Integer> sentSizes = new ArrayList<Integer>();
+
+    private BugBatcher batcher(final int size, final int bytes,
+        final long linger, final int status) {
+        return new BugBatcher(size, bytes, linger, new BugBatcher.Sender() {
+            public int send(final byte[] bytes, final int[] offsets,
+                final int from, final int to) {
+                for (int i = from; i < to; i++) {
+                    assertEquals(DOCUMENT_SIZE, offsets[i + 1] - offsets[i]);
+                }
+                sentSizes.add(to - from);
+                return to - from == 1 ? 200 : status;
+            }
+        });
+    }
+
+    private static void add(final BugBatcher batcher) {
+        final ByteBuf buffer = batcher.buffer();
+        for (int i = 0; i < DOCUMENT_SIZE; i++) {
+            buffer.write('x');
+        }
+        batcher.commit();
+    }
+
+    @Test
+    public void testFlushesWhenFull() {
+        final BugBatcher batcher = batcher(3, 1024, 60000, 200);
+        for (int i = 0; i < 7; i++) {
+            add(batcher);
+        }
+        assertEquals(2, sentSizes.size());
+        assertEquals(Integer.valueOf(3), sentSizes.get(0));
+        batcher.flush();
+        assertEquals(Integer.valueOf(1), sentSizes.get(2));
+        assertEquals(7, batcher.getBugsSent());
+        assertEquals(3, batcher.getLargestBatch());
+    }
+
+    @Test
+    public void testFlushesOnBytes() {
+        final BugBatcher batcher = batcher(100, 25, 60000, 200);
+        add(batcher);
+        add(batcher);
+        assertTrue(sentSizes.isEmpty());
+        add(batcher);
+        assertEquals(1, sentSizes.size());
+        assertEquals(Integer.valueOf(2), sentSizes.get(0));
+    }
+
+    @Test
+    public void testLinger() throws Exception {
+        final BugBatcher batcher = batcher(100, 1024, 20, 200);
+        assertEquals(Long.MAX_VALUE, batcher.nanosUntilDue());
+        add(batcher);
+        batcher.flushIfDue();
+        assertTrue(sentSizes.isEmpty());
+        Thread.sleep(30);
+        assertEquals(0L, batcher.nanosUntilDue());
+        batcher.flushIfDue();
+        assertEquals(1, sentSizes.size());
+        assertTrue(batcher.getLongestLingerNanos() > 0);
+    }
+
+    @Test
+    public void testSplitsRejectedBatches() {
+        final BugBatcher batcher = batcher(4, 1024, 60000, 413);
+        for (int i = 0; i < 4; i++) {
+            add(batcher);
+        }
+        // 4 rejected, then 2 and 2 rejected, then four singles accepted.
+        assertEquals(7, sentSizes.size());
+        assertEquals(4, batcher.getBugsSent());
+        assertEquals(3, batcher.getSplits());
+        assertEquals(1, batcher.getBatchesFlushed());
+    }
+
+    @Test
+    public void testDoesNotSplitOnServerErrors() {
+        final BugBatcher batcher = batcher(4, 1024, 60000, 503);
+        for (int i = 0; i < 4; i++) {
+            add(batcher);
+        }
+        assertEquals(1, sentSizes.size());
+        assertEquals(0, batcher.getBugsSent());
+    }
+}
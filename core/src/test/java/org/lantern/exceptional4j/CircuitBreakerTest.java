@@ -0,0 +1,62 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.failed();
+        breaker.failed();
+        breaker.succeeded();
+        breaker.failed();
+        breaker.failed();
+        assertTrue(breaker.allowRequest());
+        breaker.failed();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1L, breaker.getRejectedCount());
+        assertTrue(breaker.millisUntilAllowed() > 50000);
+    }
+
+    @Test
+    public void testProbesWhenHalfOpen() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        breaker.failed();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(30);
+
+        // Only one probe at a time.
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        // A failed probe opens it again.
+        breaker.failed();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(30);
+
+        assertTrue(breaker.allowRequest());
+        breaker.succeeded();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testPausesForRetryAfter() {
+        final CircuitBreaker breaker = new CircuitBreaker(5, 10);
+        breaker.pause(60000);
+        assertFalse(breaker.allowRequest());
+        // A shorter open period doesn't cut the pause short.
+        breaker.failed();
+        breaker.failed();
+        breaker.failed();
+        breaker.failed();
+        breaker.failed();
+        assertTrue(breaker.millisUntilAllowed() > 50000);
+    }
+}
@@ -0,0 +1,87 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompositeSanitizerTest {
+
+    private static final RegexSanitizer IP =
+        new RegexSanitizer("(?:[0-9]{1,3}\\.){3}[0-9]{1,3}", "???.???.???.???");
+
+    private static CompositeSanitizer composite(final RegexSanitizer... rules) {
+        return new CompositeSanitizer(Arrays.asList(rules));
+    }
+
+    @Test
+    public void testMatchesChain() {
+        final RegexSanitizer[] rules = {
+            IP,
+            new RegexSanitizer("bob", "bubba"),
+            new RegexSanitizer("secret=\\w+", "secret=***"),
+        };
+        final String original =
+            "bob at 10.0.0.1 sent secret=hunter2 to 192.168.1.1, bob";
+        String chained = original;
+        for (final Sanitizer rule : rules) {
+            chained = rule.sanitize(chained);
+        }
+        assertEquals(chained, composite(rules).sanitize(original));
+    }
+
+    @Test
+    public void testReturnsOriginalWhenNothingMatches() {
+        final String original = new String("Nothing to see here");
+        assertSame(original, composite(IP,
+            new RegexSanitizer("bob", "bubba")).sanitize(original));
+        assertSame(original, composite(new RegexSanitizer("o{3}", "0"),
+            new RegexSanitizer("(?<=x)y", "z")).sanitize(original));
+    }
+
+    @Test
+    public void testGroupReferences() {
+        final CompositeSanitizer sanitizer = composite(
+            new RegexSanitizer("(a)(b)", "$2$1"),
+            new RegexSanitizer("user=(\\w+)", "user=\\$$1"));
+        assertEquals("ba user=$joe ba",
+            sanitizer.sanitize("ab user=joe ab"));
+    }
+
+    @Test
+    public void testContextAndEmptyMatches() {
+        assertEquals("xz yz", composite(new RegexSanitizer("(?<=x)y", "z"),
+            new RegexSanitizer("\\by", "y")).sanitize("xy yz"));
+        assertEquals("ab".replaceAll("q*", "-"),
+            composite(new RegexSanitizer("q*", "-"),
+                new RegexSanitizer("z", "y")).sanitize("ab"));
+    }
+
+    @Test
+    public void testCombine() {
+        final Sanitizer custom = new Sanitizer() {
+            public String sanitize(final String original) {
+                return original.toUpperCase();
+            }
+        };
+        final List<Sanitizer> sanitizers = Arrays.asList(
+            new RegexSanitizer("a", "b"), new RegexSanitizer("c", "d"),
+            custom, new RegexSanitizer("x", "$"));
+        final Sanitizer[] chain = CompositeSanitizer.combine(sanitizers,
+            new HashSet<Sanitizer>(sanitizers));
+        assertEquals(3, chain.length);
+        assertTrue(chain[0] instanceof CompositeSanitizer);
+        assertSame(custom, chain[1]);
+        assertFalse(CompositeSanitizer.canCombine(chain[2]));
+
+        // Only those added to be combined are.
+        final Sanitizer[] kept = CompositeSanitizer.combine(sanitizers,
+            new HashSet<Sanitizer>(sanitizers.subList(1, 2)));
+        assertEquals(4, kept.length);
+        assertSame(sanitizers.get(0), kept[0]);
+        assertSame(sanitizers.get(1), kept[1]);
+    }
+}
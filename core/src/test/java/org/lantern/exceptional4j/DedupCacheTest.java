@@ -0,0 +1,88 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DedupCacheTest {
+
+    @Test
+    public void testSuppressesWithinWindow() {
+        final DedupCache<String> cache = new DedupCache<String>(10, 60000);
+        assertEquals(0L, cache.record("a"));
+        assertEquals(DedupCache.DUPLICATE, cache.record("a"));
+        assertEquals(DedupCache.DUPLICATE, cache.record("a"));
+        assertEquals(0L, cache.record("b"));
+        assertEquals(2L, cache.getSuppressedCount());
+    }
+
+    @Test
+    public void testCountsSinceLastReport() throws Exception {
+        final DedupCache<String> cache = new DedupCache<String>(10, 200);
+        assertEquals(0L, cache.record("a"));
+        assertEquals(DedupCache.DUPLICATE, cache.record("a"));
+        assertEquals(DedupCache.DUPLICATE, cache.record("a"));
+        Thread.sleep(250);
+        assertEquals(2L, cache.record("a"));
+        assertEquals(DedupCache.DUPLICATE, cache.record("a"));
+    }
+
+    @Test
+    public void testForgetsBugsNotReported() throws Exception {
+        final DedupCache<String> cache = new DedupCache<String>(10, 200);
+        assertEquals(0L, cache.record("a"));
+        cache.forget("a", 0L);
+        assertEquals(0L, cache.record("a"));
+        assertEquals(DedupCache.DUPLICATE, cache.record("a"));
+        Thread.sleep(250);
+        assertEquals(1L, cache.record("a"));
+        cache.forget("a", 1L);
+        // Still counted when it's reported.
+        assertEquals(1L, cache.record("a"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlySeen() {
+        final DedupCache<Integer> cache = new DedupCache<Integer>(1, 60000);
+        assertEquals(0L, cache.record(1));
+        assertEquals(DedupCache.DUPLICATE, cache.record(1));
+        assertEquals(0L, cache.record(2));
+        // 1 was evicted to make room for 2, so it's new again.
+        assertEquals(0L, cache.record(1));
+        assertEquals(1L, cache.getEvictedSuppressedCount());
+    }
+
+    @Test
+    public void testReportsOncePerKeyAcrossThreads() throws Exception {
+        final DedupCache<Integer> cache = new DedupCache<Integer>(1000, 60000);
+        final AtomicInteger reported = new AtomicInteger();
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 10000; i++) {
+                            if (cache.record(i % 100) != DedupCache.DUPLICATE) {
+                                reported.incrementAndGet();
+                            }
+                        }
+                    } catch (final InterruptedException e) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(100, reported.get());
+        assertEquals(threads * 10000 - 100, cache.getSuppressedCount());
+    }
+}
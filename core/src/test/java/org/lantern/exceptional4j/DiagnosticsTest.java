@@ -0,0 +1,59 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class DiagnosticsTest {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private final Diagnostics diagnostics =
+        new Diagnostics(new PrintStream(bytes, true));
+
+    @Test
+    public void testSaysNothingByDefault() {
+        diagnostics.error("Error submitting bug: ", new IOException());
+        diagnostics.warn("Could not open spool");
+        diagnostics.debug("Sending data to server...");
+        assertEquals(DiagnosticLevel.OFF, diagnostics.getLevel());
+        assertFalse(diagnostics.isEnabled(DiagnosticLevel.ERROR));
+        assertEquals(0, bytes.size());
+    }
+
+    @Test
+    public void testWritesLevelsAboveThreshold() {
+        diagnostics.setLevel(DiagnosticLevel.WARN);
+        diagnostics.error("one: ", "detail");
+        diagnostics.warn("two");
+        diagnostics.debug("three");
+        final String out = bytes.toString();
+        assertTrue(out.contains("exceptional4j ERROR: one: detail"));
+        assertTrue(out.contains("exceptional4j WARN: two"));
+        assertFalse(out.contains("three"));
+    }
+
+    @Test
+    public void testWritesStackTracesOnlyWhenDebugging() {
+        diagnostics.setLevel(DiagnosticLevel.WARN);
+        diagnostics.warn("failed: ", new IOException("reset"));
+        assertFalse(bytes.toString().contains("\tat "));
+        diagnostics.setLevel(DiagnosticLevel.DEBUG);
+        diagnostics.warn("failed: ", new IOException("reset"));
+        assertTrue(bytes.toString().contains("\tat "));
+    }
+
+    @Test
+    public void testParsesLevels() {
+        assertEquals(DiagnosticLevel.DEBUG,
+            DiagnosticLevel.toLevel(" debug ", DiagnosticLevel.OFF));
+        assertEquals(DiagnosticLevel.OFF,
+            DiagnosticLevel.toLevel("verbose", DiagnosticLevel.OFF));
+        assertEquals(DiagnosticLevel.OFF,
+            DiagnosticLevel.toLevel(null, DiagnosticLevel.OFF));
+    }
+}
@@ -0,0 +1,104 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskSpool open(final int segmentBytes, final long maxBytes)
+        throws Exception {
+        return new DiskSpool(folder.getRoot(), segmentBytes, maxBytes,
+            FsyncPolicy.ALWAYS, 0);
+    }
+
+    private static byte[] payload(final int n, final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (n + i);
+        }
+        return bytes;
+    }
+
+    private int segmentFiles() {
+        return folder.getRoot().list().length;
+    }
+
+    @Test
+    public void testReplaysPendingAfterReopening() throws Exception {
+        DiskSpool spool = open(1024, 1024 * 1024);
+        final long first = spool.append(payload(1, 100), 0, 100);
+        final long second = spool.append(payload(2, 100), 0, 100);
+        spool.append(payload(3, 100), 0, 100);
+        spool.ack(second);
+        assertEquals(2, spool.getPendingCount());
+        // No close, as if the process died.
+
+        spool = open(1024, 1024 * 1024);
+        final List<Long> pending = spool.pendingRecords();
+        assertEquals(2, pending.size());
+        assertEquals(first, pending.get(0).longValue());
+        assertArrayEquals(payload(1, 100), spool.read(first));
+        assertArrayEquals(payload(3, 100), spool.read(pending.get(1)));
+
+        for (final Long record : pending) {
+            spool.ack(record.longValue());
+        }
+        assertEquals(0, spool.getPendingCount());
+        spool.close();
+        assertEquals(0, open(1024, 1024 * 1024).getPendingCount());
+    }
+
+    @Test
+    public void testDeletesSentSegments() throws Exception {
+        final DiskSpool spool = open(256, 1024 * 1024);
+        final long first = spool.append(payload(1, 200), 0, 200);
+        spool.append(payload(2, 200), 0, 200);
+        assertEquals(2, segmentFiles());
+        spool.ack(first);
+        assertEquals(1, segmentFiles());
+        assertEquals(DiskSpool.NONE, spool.append(new byte[300], 0, 300));
+        spool.close();
+    }
+
+    @Test
+    public void testDropsOldestWhenFull() throws Exception {
+        final DiskSpool spool = open(256, 512);
+        final long first = spool.append(payload(1, 200), 0, 200);
+        spool.append(payload(2, 200), 0, 200);
+        spool.append(payload(3, 200), 0, 200);
+        assertEquals(1, spool.getDroppedCount());
+        assertEquals(2, spool.getPendingCount());
+        assertNull(spool.read(first));
+        assertEquals(2, segmentFiles());
+        spool.close();
+    }
+
+    @Test
+    public void testIgnoresTornRecords() throws Exception {
+        final DiskSpool spool = open(1024, 1024 * 1024);
+        spool.append(payload(1, 100), 0, 100);
+        final long torn = spool.append(payload(2, 100), 0, 100);
+        spool.close();
+
+        final File segment = folder.getRoot().listFiles()[0];
+        final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            // Corrupt the payload of the second record.
+            raf.seek((int) torn + 20);
+            raf.write(0xFF);
+        } finally {
+            raf.close();
+        }
+        assertEquals(1, open(1024, 1024 * 1024).getPendingCount());
+    }
+}
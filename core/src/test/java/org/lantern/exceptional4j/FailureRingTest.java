@@ -0,0 +1,24 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class FailureRingTest {
+
+    @Test
+    public void testKeepsNewestOldestFirst() {
+        final FailureRing ring = new FailureRing(3);
+        assertTrue(ring.snapshot().isEmpty());
+        for (int i = 0; i < 5; i++) {
+            ring.add(new DeliveryFailure(i, 500 + i, "body " + i));
+        }
+        final List<DeliveryFailure> failures = ring.snapshot();
+        assertEquals(3, failures.size());
+        assertEquals(502, failures.get(0).getStatusCode());
+        assertEquals("body 4", failures.get(2).getDetail());
+        assertEquals(5L, ring.getTotal());
+    }
+}
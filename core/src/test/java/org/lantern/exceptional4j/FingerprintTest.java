@@ -0,0 +1,155 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class FingerprintTest {
+
+    private static Throwable raise(final String message) {
+        return new IOException(message);
+    }
+
+    private static StackTraceElement frame(final String className) {
+        return new StackTraceElement(className, "run", "Foo.java", 10);
+    }
+
+    private static Throwable unwalkable(final String message) {
+        return new IOException(message) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public StackTraceElement[] getStackTrace() {
+                throw new AssertionError("Walked the stack");
+            }
+        };
+    }
+
+    @Test
+    public void testNormalizesGeneratedClasses() {
+        assertEquals("com.example.Foo$$EnhancerByCGLIB",
+            Fingerprint.normalizeClassName(
+                "com.example.Foo$$EnhancerByCGLIB$$1a2b3c"));
+        assertEquals("com.example.Foo$$Lambda",
+            Fingerprint.normalizeClassName("com.example.Foo$$Lambda$12/3456"));
+        assertEquals("com.sun.proxy.$Proxy",
+            Fingerprint.normalizeClassName("com.sun.proxy.$Proxy42"));
+        assertEquals("sun.reflect.GeneratedMethodAccessor",
+            Fingerprint.normalizeClassName(
+                "sun.reflect.GeneratedMethodAccessor17"));
+        assertEquals("com.example.Foo$Inner",
+            Fingerprint.normalizeClassName("com.example.Foo$Inner"));
+        assertEquals("com.example.$ProxyFactory",
+            Fingerprint.normalizeClassName("com.example.$ProxyFactory"));
+    }
+
+    @Test
+    public void testIgnoresMessagesButNotFrames() {
+        final Throwable[] same = new Throwable[2];
+        for (int i = 0; i < same.length; i++) {
+            same[i] = raise("attempt " + i);
+        }
+        assertEquals(Fingerprint.of(same[0]), Fingerprint.of(same[1]));
+        assertFalse(Fingerprint.of(same[0]) ==
+            Fingerprint.of(raise("elsewhere")));
+
+        final Throwable a = new IOException();
+        a.setStackTrace(new StackTraceElement[] {
+            frame("com.sun.proxy.$Proxy1")});
+        final Throwable b = new IOException();
+        b.setStackTrace(new StackTraceElement[] {
+            frame("com.sun.proxy.$Proxy2")});
+        assertEquals(Fingerprint.of(a), Fingerprint.of(b));
+    }
+
+    @Test
+    public void testIgnoresMessagesInRenderedTraces() {
+        final String[] first = {
+            "java.io.IOException: attempt 1",
+            "\tat com.example.Foo.run(Foo.java:10)",
+            "Caused by: java.net.SocketException: reset by 10.0.0.1",
+            "and more",
+            "\tat com.example.Bar.call(Bar.java:20)",
+            "\t... 1 more",
+        };
+        final String[] second = {
+            "java.io.IOException: attempt 2",
+            "\tat com.example.Foo.run(Foo.java:10)",
+            "Caused by: java.net.SocketException: reset by 10.0.0.2",
+            "\tat com.example.Bar.call(Bar.java:20)",
+            "\t... 1 more",
+        };
+        assertEquals(Fingerprint.of(first), Fingerprint.of(second));
+        assertEquals(Fingerprint.of(first), Fingerprint.of(new EventSnapshot(
+            "logger", "ERROR", 0L, "main", "message", null, second, null, 
+            null, null, null, null, null)));
+
+        second[1] = "\tat com.example.Foo.run(Foo.java:11)";
+        assertFalse(Fingerprint.of(first) == Fingerprint.of(second));
+        second[1] = first[1];
+        second[2] = "Caused by: java.net.ConnectException: reset";
+        assertFalse(Fingerprint.of(first) == Fingerprint.of(second));
+    }
+
+    @Test
+    public void testCoversCauses() {
+        final Throwable cause = raise("cause");
+        final Throwable plain = new RuntimeException();
+        final Throwable caused = new RuntimeException();
+        caused.setStackTrace(plain.getStackTrace());
+        caused.initCause(cause);
+        assertFalse(Fingerprint.of(plain) == Fingerprint.of(caused));
+
+        // Cycles in the cause chain mustn't hang.
+        cause.initCause(caused);
+        Fingerprint.of(caused);
+    }
+
+    @Test
+    public void testOfCallerDoesNotWalkTheStack() {
+        final long key = Fingerprint.ofCaller(EventSnapshot.of("logger",
+            "ERROR", 0L, "main", "first", unwalkable("first")));
+        assertEquals(key, Fingerprint.ofCaller(EventSnapshot.of("logger",
+            "ERROR", 1L, "other", "second", unwalkable("second"))));
+        assertFalse(key == Fingerprint.ofCaller(EventSnapshot.of("other",
+            "ERROR", 0L, "main", "first", unwalkable("first"))));
+        assertFalse(key == Fingerprint.ofCaller(EventSnapshot.of("logger",
+            "ERROR", 0L, "main", "first", raise("first"))));
+
+        // Without a throwable it's the fingerprint, which is cheap then.
+        final EventSnapshot plain = EventSnapshot.of("logger", "ERROR", 0L,
+            "main", "message", null);
+        assertEquals(Fingerprint.of(plain), Fingerprint.ofCaller(plain));
+    }
+
+    @Test
+    public void testBacktraceMatchesPrintStackTrace() throws Exception {
+        final Throwable t = new RuntimeException("outer", raise("inner"));
+        final BacktraceCache cache = new BacktraceCache(4);
+        for (int i = 0; i < 2; i++) {
+            final ByteBuf buf = new ByteBuf(64);
+            final JsonWriter json = new JsonWriter(buf).beginArray();
+            cache.write(json, t, Fingerprint.of(t),
+                new PayloadBudget(0, 8192, 1024, 1 << 20));
+            json.endArray();
+            final JSONArray lines = (JSONArray) JSONValue.parse(
+                new String(buf.array(), 0, buf.size(), "UTF-8"));
+
+            final StringWriter sw = new StringWriter();
+            t.printStackTrace(new PrintWriter(sw));
+            final String[] expected = sw.toString().split("\n");
+            assertEquals(expected.length, lines.size());
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j].trim(), lines.get(j));
+            }
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+}
@@ -0,0 +1,137 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("restriction")
+public class HttpStrategyTest {
+
+    private HttpServer server;
+
+    private final Set<Integer> clientPorts =
+        Collections.synchronizedSet(new HashSet<Integer>());
+
+    private volatile long delayMillis;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(Integer.valueOf(
+                    exchange.getRemoteAddress().getPort()));
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                final byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private HttpPost post() throws Exception {
+        final HttpPost post = new HttpPost("http://127.0.0.1:" +
+            server.getAddress().getPort() + "/api/errors");
+        post.setEntity(new StringEntity("{}"));
+        return post;
+    }
+
+    @Test
+    public void testReusesConnections() throws Exception {
+        final PooledHttpStrategy http = new PooledHttpStrategy();
+        try {
+            for (int i = 0; i < 5; i++) {
+                final HttpResponse response = http.execute(post());
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                EntityUtils.consume(response.getEntity());
+            }
+            assertEquals(1, clientPorts.size());
+        } finally {
+            http.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        delayMillis = 5000;
+        final PooledHttpStrategy http =
+            new PooledHttpStrategy(1000, 200, 1000, 1);
+        final long start = System.currentTimeMillis();
+        try {
+            http.execute(post());
+            fail("Should have timed out");
+        } catch (final IOException e) {
+            assertTrue(System.currentTimeMillis() - start < 4000);
+        } finally {
+            http.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        delayMillis = 100;
+        final NioHttpStrategy http = new NioHttpStrategy(1000, 5000, 4);
+        final int requests = 8;
+        final CountDownLatch latch = new CountDownLatch(requests);
+        final AtomicInteger ok = new AtomicInteger();
+        try {
+            for (int i = 0; i < requests; i++) {
+                http.execute(post(), new FutureCallback<HttpResponse>() {
+                    public void completed(final HttpResponse response) {
+                        if (response.getStatusLine().getStatusCode() == 200) {
+                            ok.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+
+                    public void failed(final Exception e) {
+                        latch.countDown();
+                    }
+
+                    public void cancelled() {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(requests, ok.get());
+            assertEquals(200, http.execute(post()).getStatusLine()
+                .getStatusCode());
+        } finally {
+            http.shutdown();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class Iso8601FormatTest {
+
+    private final TimeZone defaultZone = TimeZone.getDefault();
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void testFormatsLikeSimpleDateFormat() {
+        final Random random = new Random(0);
+        final long now = System.currentTimeMillis();
+        for (final String zone : new String[] {"UTC", "America/New_York",
+            "Asia/Kolkata", "Australia/Adelaide"}) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            for (int i = 0; i < 1000; i++) {
+                final long millis = now + random.nextInt() * 100L;
+                assertEquals(expected(millis), Iso8601Format.format(millis));
+            }
+        }
+    }
+
+    @Test
+    public void testCrossesSeconds() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        assertEquals("2012-12-31T23:59:59.999+00:00",
+            Iso8601Format.format(1356998399999L));
+        assertEquals("2013-01-01T00:00:00.000+00:00",
+            Iso8601Format.format(1356998400000L));
+        assertEquals("2012-12-31T23:59:59.998+00:00",
+            Iso8601Format.format(1356998399998L));
+        assertEquals("1969-12-31T23:59:59.999+00:00",
+            Iso8601Format.format(-1L));
+    }
+
+    @Test
+    public void testAppends() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+        final StringBuilder sb = new StringBuilder("at ");
+        Iso8601Format.format(1357000000123L, sb);
+        assertEquals("at 2013-01-01T05:56:40.123+05:30", sb.toString());
+
+        final ByteBuf buf = new ByteBuf(4);
+        Iso8601Format.format(1357000000123L, buf);
+        assertEquals("2013-01-01T05:56:40.123+05:30",
+            new String(buf.array(), 0, buf.size()));
+    }
+
+    private static String expected(final long millis) {
+        final String result = new SimpleDateFormat(
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(millis));
+        return result.substring(0, result.length() - 2) + ":"
+            + result.substring(result.length() - 2);
+    }
+}
@@ -0,0 +1,105 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+    private static String toString(final ByteBuf buf) throws Exception {
+        return new String(buf.array(), 0, buf.size(), "UTF-8");
+    }
+
+    @Test
+    public void testStructure() throws Exception {
+        final ByteBuf buf = new ByteBuf(16);
+        final JsonWriter json = new JsonWriter(buf);
+        json.beginObject();
+        json.name("a").value("b");
+        json.name("n").value(42L);
+        json.name("empty").beginObject().endObject();
+        json.name("list").beginArray().value("x").value(true).endArray();
+        json.endObject();
+        assertEquals("{\"a\":\"b\",\"n\":42,\"empty\":{},\"list\":[\"x\",true]}",
+            toString(buf));
+    }
+
+    @Test
+    public void testMatchesJsonSimple() throws Exception {
+        final String tricky = "quote\" slash/ back\\ \n\t\u0001 é   "
+            + "€ 😀 end";
+        final ByteBuf buf = new ByteBuf(16);
+        new JsonWriter(buf).value(tricky);
+        assertEquals(JSONValue.toJSONString(tricky), toString(buf));
+        assertEquals(tricky, JSONValue.parse(toString(buf)));
+    }
+
+    @Test
+    public void testBoundedValue() throws Exception {
+        final ByteBuf buf = new ByteBuf(16);
+        final JsonWriter json = new JsonWriter(buf);
+        assertFalse(json.boundedValue("short", 5, 5));
+        assertEquals("\"short\"", toString(buf));
+
+        buf.reset();
+        assertTrue(json.reset(buf).boundedValue("abcdefghij", 4, 10));
+        assertEquals("abcd... [6 chars truncated]",
+            JSONValue.parse(toString(buf)));
+
+        // Cut already, so the note counts what was cut before.
+        buf.reset();
+        assertTrue(json.reset(buf).boundedValue("abc", 10, 100));
+        assertEquals("abc... [97 chars truncated]",
+            JSONValue.parse(toString(buf)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testObjects() throws Exception {
+        final JSONObject env = new JSONObject();
+        env.put("version", "1.0");
+        env.put("count", 3);
+        env.put("ratio", 0.5);
+        env.put("nan", Double.NaN);
+        env.put("list", Arrays.asList("a", null));
+        final ByteBuf buf = new ByteBuf(16);
+        new JsonWriter(buf).object(env);
+        final JSONObject parsed = (JSONObject) JSONValue.parse(toString(buf));
+        assertEquals("1.0", parsed.get("version"));
+        assertEquals(3L, parsed.get("count"));
+        assertEquals(0.5, parsed.get("ratio"));
+        assertNull(parsed.get("nan"));
+        assertEquals(2, ((JSONArray) parsed.get("list")).size());
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws Exception {
+        final GzipBuffer gzip = GzipBuffer.acquire();
+        try {
+            final byte[] data = new byte[100000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) ('a' + (i % 7));
+            }
+            gzip.begin();
+            gzip.write('[');
+            gzip.write(data, 0, data.length);
+            gzip.finish();
+            final byte[] decompressed = IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(gzip.array(), 0, gzip.size())));
+            assertEquals(data.length + 1, decompressed.length);
+            assertEquals('[', decompressed[0]);
+            assertEquals(data[data.length - 1],
+                decompressed[decompressed.length - 1]);
+        } finally {
+            GzipBuffer.release(gzip);
+        }
+    }
+}
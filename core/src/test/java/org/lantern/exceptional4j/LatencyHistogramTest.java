@@ -0,0 +1,50 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguousAndPrecise() {
+        int previous = -1;
+        for (long value = 0; value < 1L << 20; value++) {
+            final int index = LatencyHistogram.index(value);
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(LatencyHistogram.highestValue(index) - value <=
+                value / 16);
+            previous = index;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(
+            LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500L, histogram.getMean());
+        assertWithin(500000L, histogram.getValueAtPercentile(50));
+        assertWithin(990000L, histogram.getValueAtPercentile(99));
+        assertEquals(1000000L, histogram.getValueAtPercentile(100));
+        assertWithin(1000L, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getValueAtPercentile(99));
+        assertEquals(0L, histogram.getMean());
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(expected + " vs " + actual,
+            Math.abs(expected - actual) <= expected / 16);
+    }
+}
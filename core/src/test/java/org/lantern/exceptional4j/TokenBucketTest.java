@@ -0,0 +1,78 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testAllowsBurstThenLimits() {
+        final TokenBucket bucket = new TokenBucket(1, 60, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testRefills() throws Exception {
+        // One token every 10ms.
+        final TokenBucket bucket = new TokenBucket(1, 6000, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(20);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testLimitsKeysSeparately() {
+        final TokenBucket bucket = new TokenBucket(16, 60, 2);
+        assertTrue(bucket.tryAcquire(1L));
+        assertTrue(bucket.tryAcquire(1L));
+        assertFalse(bucket.tryAcquire(1L));
+        assertTrue(bucket.tryAcquire(2L));
+    }
+
+    @Test
+    public void testUnlimited() {
+        final TokenBucket bucket = new TokenBucket(1, 0, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+    }
+
+    @Test
+    public void testNeverExceedsBurstAcrossThreads() throws Exception {
+        final TokenBucket bucket = new TokenBucket(1, 1, 100);
+        final AtomicInteger acquired = new AtomicInteger();
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 1000; i++) {
+                            if (bucket.tryAcquire()) {
+                                acquired.incrementAndGet();
+                            }
+                        }
+                    } catch (final InterruptedException e) {
+                        return;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(100, acquired.get());
+    }
+}
@@ -0,0 +1,32 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EmailSanitizerTest {
+    private EmailSanitizer sanitizer = new EmailSanitizer();
+
+    @Test
+    public void testAddresses() {
+        assertEquals("???@??? b", sanitizer.sanitize("bob@example.com b"));
+        assertEquals("mail <???@???>.",
+                sanitizer.sanitize("mail <first.last+tag@mail.example.co.uk>."));
+        assertEquals("???@??? and ???@???",
+                sanitizer.sanitize("a_b@x-y.org and c%d@e.io"));
+    }
+
+    @Test
+    public void testLeavesOthersAlone() {
+        final String[] others = {
+            "user@localhost",
+            "java@1.6",
+            "@example.com",
+            "bob@",
+            "bob@.com",
+            "no at sign here",
+        };
+        for (final String other : others) {
+            assertSame(other, sanitizer.sanitize(other));
+        }
+    }
+}
@@ -45,4 +45,20 @@ public class IPv4SanitizerTest {
         assertEquals("a ???.???.???.??? b ???.???.???.??? c",
                 sanitizer.sanitize("a 1.1.1.1 b 2.2.2.2 c"));
     }
+
+    @Test
+    public void testLeavesNonIpsAlone() {
+        final String[] others = {
+            "version 1.2.3.4000",
+            "version 1.2.3.4.5",
+            "256.1.1.1",
+            "1.2.3",
+            "1234.1.1.1",
+        };
+        for (final String other : others) {
+            assertSame(other, sanitizer.sanitize(other));
+        }
+        assertEquals("???.???.???.???.",
+                sanitizer.sanitize("255.255.255.255."));
+    }
 }
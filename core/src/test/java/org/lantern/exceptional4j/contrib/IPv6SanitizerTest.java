@@ -0,0 +1,46 @@
+package org.lantern.exceptional4j.contrib;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IPv6SanitizerTest {
+    private IPv6Sanitizer sanitizer = new IPv6Sanitizer();
+
+    @Test
+    public void testFullAndCompressed() {
+        assertEquals("a ????:???? b", sanitizer.sanitize(
+                "a 2001:0db8:85a3:0000:0000:8a2e:0370:7334 b"));
+        assertEquals("a ????:???? b",
+                sanitizer.sanitize("a 2001:db8::8a2e:370:7334 b"));
+        assertEquals("????:???? and ????:????",
+                sanitizer.sanitize("::1 and fe80::"));
+        assertEquals("[????:????]:8080",
+                sanitizer.sanitize("[fe80::1]:8080"));
+    }
+
+    @Test
+    public void testEmbeddedIPv4() {
+        assertEquals("from ????:????.",
+                sanitizer.sanitize("from ::ffff:10.0.0.1."));
+        assertEquals("from ????:????",
+                sanitizer.sanitize("from 64:ff9b::192.0.2.33"));
+    }
+
+    @Test
+    public void testLeavesOthersAlone() {
+        final String[] others = {
+            "at 12:30:45",
+            "mac 00:1a:2b:3c:4d:5e",
+            "String::valueOf",
+            "1:2:3:4:5:6:7:8:9",
+            "1::2::3",
+            "1:2:",
+            "::",
+            "cafe",
+            "::ffff:1.2.3.4000",
+        };
+        for (final String other : others) {
+            assertSame(other, sanitizer.sanitize(other));
+        }
+    }
+}
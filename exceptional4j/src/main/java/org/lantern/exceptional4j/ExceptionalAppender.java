@@ -0,0 +1,1039 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.Priority;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+import org.json.simple.JSONObject;
+
+/**
+ * Log4J appender that sends data to Exceptional. This only filters and 
+ * copies log4j events -- everything else is up to its 
+ * {@link ExceptionalReporter}.
+ */
+public class ExceptionalAppender extends AppenderSkeleton {
+
+    /**
+     * Accepts every bug without changing it, which lets us skip building the
+     * JSON object callbacks are given.
+     */
+    private static final ExceptionalAppenderCallback NO_OP_CALLBACK = 
+        new ExceptionalAppenderCallback() {
+            public boolean addData(final JSONObject json, final LoggingEvent le) {
+                return true;
+            }
+        };
+
+    private final ExceptionalReporter reporter;
+
+    private final Priority reportingLevel;
+
+    private volatile boolean locationInfo = true;
+
+    /**
+     * Whether there's a callback to hand the MDC and NDC to, which is the 
+     * only reason to copy them.
+     */
+    private final boolean diagnosticContext;
+
+    /**
+     * Creates a new appender.
+     * 
+     * @param apiKey Your API key.
+     */
+    public ExceptionalAppender(final String apiKey) {
+        this(apiKey, Level.WARN);
+    }
+    
+    /**
+     * Creates a new appender with the specified minimum log level to report.
+     * 
+     * @param apiKey Your API key.
+     * @param reportingLevel The log4j level to report errors at. Anything 
+     * logged at the specified level or above will be reported. If you set
+     * the reportingLevel to Level.WARN, for example, all warn level logs will
+     * be sent along with any more severe logs such as ERROR and FATAL.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final Priority reportingLevel) {
+        this(apiKey, NO_OP_CALLBACK, reportingLevel);
+    }
+
+    /**
+     * Creates a new appender with callback.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback) {
+        this(apiKey, callback, true, Level.WARN, new PooledHttpStrategy(), 
+            true);
+    }
+    
+    /**
+     * Creates a new appender with callback.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback, 
+        final HttpStrategy httpClient) {
+        this(apiKey, callback, true, Level.WARN, httpClient);
+    }
+    
+    /**
+     * Creates a new appender with callback.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback, 
+        final HttpClient httpClient) {
+        this(apiKey, callback, true, Level.WARN, wrap(httpClient));
+    }
+
+    /**
+     * Creates a new appender with callback.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug.
+     * @param reportingLevel The log4j level to report errors at. Anything 
+     * logged at the specified level or above will be reported. If you set
+     * the reportingLevel to Level.WARN, for example, all warn level logs will
+     * be sent along with any more severe logs such as ERROR and FATAL.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback, 
+        final Priority reportingLevel) {
+        this(apiKey, callback, true, reportingLevel, new PooledHttpStrategy(),
+            true);
+    }
+    
+    /**
+     * Creates a new appender that sends bugs from several threads at once.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug.
+     * @param reportingLevel The log4j level to report errors at.
+     * @param senders The number of threads sending bugs. Repeats of a bug
+     * are always sent by the same thread, so they stay in order.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback, 
+        final Priority reportingLevel, final int senders) {
+        this(apiKey, callback, reportingLevel);
+        reporter.setSenders(senders);
+    }
+
+    /**
+     * Creates a new appender with a flag for whether or not to thread 
+     * submissions. Not threading can be useful for testing in particular.
+     * 
+     * @param apiKey Your API key.
+     * @param threaded Whether or not to thread submissions to Exceptional.
+     */
+    public ExceptionalAppender(final String apiKey, final boolean threaded) {
+        this(apiKey, NO_OP_CALLBACK, threaded, Level.WARN, 
+            new PooledHttpStrategy(), true);
+    }
+    
+    /**
+     * Creates a new appender with callback.
+     * 
+     * @param apiKey Your API key.
+     * @param callback The class to call for modifications prior to submitting
+     * the bug.
+     * @param threaded Whether or not to thread submissions to Exceptional.
+     * @param reportingLevel The log4j level to report errors at. Anything 
+     * logged at the specified level or above will be reported. If you set
+     * the reportingLevel to Level.WARN, for example, all warn level logs will
+     * be sent along with any more severe logs such as ERROR and FATAL.
+     */
+    public ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback,
+        final boolean threaded, final Priority reportingLevel,
+        final HttpStrategy httpClient) {
+        this(apiKey, callback, threaded, reportingLevel, httpClient, false);
+    }
+
+    /**
+     * @param ownsHttpClient Whether the appender created the HTTP client, 
+     * and so shuts it down when it's closed.
+     */
+    private ExceptionalAppender(final String apiKey, 
+        final ExceptionalAppenderCallback callback,
+        final boolean threaded, final Priority reportingLevel,
+        final HttpStrategy httpClient, final boolean ownsHttpClient) {
+        this.reportingLevel = reportingLevel;
+        this.diagnosticContext = callback != NO_OP_CALLBACK;
+        this.reporter = new ExceptionalReporter(apiKey, adapt(callback), 
+            threaded, httpClient, ownsHttpClient);
+    }
+
+    /**
+     * @return The reporter doing the work, for anything not configured 
+     * through the appender.
+     */
+    public ExceptionalReporter getReporter() {
+        return reporter;
+    }
+
+    /**
+     * Sets whether or not to capture the caller's location on the logging
+     * thread. This is the default and matches what the appender has always
+     * done, but it means log4j walks the stack of the calling thread for
+     * every reportable event.
+     * <p>
+     * With this set to <code>false</code> the logging thread only takes a
+     * cheap {@link EventSnapshot} and everything else happens on the thread
+     * sending the bug. Duplicates are then detected from the frames of the
+     * logged throwable rather than from the caller's location.
+     * 
+     * @param locationInfo Whether or not to capture the caller's location.
+     */
+    public void setLocationInfo(final boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    /**
+     * Add a {@link Sanitizer} to the list of sanitizers used to clean strings
+     * prior to sending them to Exceptional.
+     */
+    public void addSanitizer(Sanitizer sanitizer) {
+        reporter.addSanitizer(sanitizer);
+    }
+
+    /**
+     * Adds a {@link RegexSanitizer} applied in the same pass as any added 
+     * this way just before it. Each sees the original string rather than 
+     * what the ones before it made of it.
+     * 
+     * @see ExceptionalReporter#addCombinableSanitizer(RegexSanitizer)
+     */
+    public void addCombinableSanitizer(final RegexSanitizer sanitizer) {
+        reporter.addCombinableSanitizer(sanitizer);
+    }
+
+    /**
+     * Adds a filter run on the logging thread before anything else is done
+     * with an event.
+     * 
+     * @see ExceptionalReporter#addEventFilter(EventFilter)
+     */
+    public void addEventFilter(final EventFilter filter) {
+        reporter.addEventFilter(filter);
+    }
+
+    /**
+     * Adds a filter run on the sender thread before the bug is built.
+     * 
+     * @see ExceptionalReporter#addDequeueFilter(EventFilter)
+     */
+    public void addDequeueFilter(final EventFilter filter) {
+        reporter.addDequeueFilter(filter);
+    }
+
+    /**
+     * Sets the maximum number of events waiting to be sent. Events are
+     * handled according to the overflow policy once the queue is full. This
+     * has to be set before the first event is reported.
+     * 
+     * @param queueCapacity The capacity, rounded up to a power of two.
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        reporter.setQueueCapacity(queueCapacity);
+    }
+
+    public int getQueueCapacity() {
+        return reporter.getQueueCapacity();
+    }
+
+    /**
+     * Sets how many threads send bugs. Each bug is always sent by the same
+     * thread, so repeats of a bug arrive in the order they were logged. 
+     * Without the caller's location, bugs are shared out by their logger 
+     * and throwable classes, so the logging thread needn't walk the stack.
+     * This has to be set before the first event is reported.
+     * 
+     * @param senders The number of threads, 1 by default.
+     */
+    public void setSenders(final int senders) {
+        reporter.setSenders(senders);
+    }
+
+    public int getSenders() {
+        return reporter.getSenders();
+    }
+
+    /**
+     * Sets whether to send bugs from virtual threads on Java 21 and later.
+     * This has to be set before the first event is reported.
+     * 
+     * @param virtualThreads Whether to use virtual threads.
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        reporter.setVirtualThreads(virtualThreads);
+    }
+
+    public boolean getVirtualThreads() {
+        return reporter.getVirtualThreads();
+    }
+
+    /**
+     * Sets what to do with events when the queue is full: one of 
+     * <code>DROP_NEWEST</code> (the default), <code>DROP_OLDEST</code> or
+     * <code>BLOCK</code>. This has to be set before the first event is
+     * reported.
+     * 
+     * @param overflowPolicy The name of the policy.
+     */
+    public void setOverflowPolicy(final String overflowPolicy) {
+        reporter.setOverflowPolicy(overflowPolicy);
+    }
+
+    public String getOverflowPolicy() {
+        return reporter.getOverflowPolicy();
+    }
+
+    /**
+     * Sets how long a logging thread waits for room in a full queue with the
+     * <code>BLOCK</code> overflow policy before the event is dropped.
+     * 
+     * @param blockTimeoutMillis The timeout in milliseconds.
+     */
+    public void setBlockTimeoutMillis(final long blockTimeoutMillis) {
+        reporter.setBlockTimeoutMillis(blockTimeoutMillis);
+    }
+
+    public long getBlockTimeoutMillis() {
+        return reporter.getBlockTimeoutMillis();
+    }
+
+    /**
+     * Sets the maximum number of bugs sent in a single request. With the 
+     * default of 1 each bug is sent on its own, exactly as protocol 6 
+     * expects. Anything larger sends a JSON array of bugs, so only use it
+     * with an endpoint that accepts them. This has to be set before the first
+     * event is reported.
+     * 
+     * @param batchSize The maximum number of bugs per request.
+     */
+    public void setBatchSize(final int batchSize) {
+        reporter.setBatchSize(batchSize);
+    }
+
+    public int getBatchSize() {
+        return reporter.getBatchSize();
+    }
+
+    /**
+     * Sets the maximum size of a batch, in bytes of uncompressed JSON. A 
+     * single bug larger than this is still sent on its own.
+     * 
+     * @param batchBytes The maximum batch size in bytes.
+     */
+    public void setBatchBytes(final int batchBytes) {
+        reporter.setBatchBytes(batchBytes);
+    }
+
+    public int getBatchBytes() {
+        return reporter.getBatchBytes();
+    }
+
+    /**
+     * Sets how long the first bug in a batch waits for others to join it 
+     * before the batch is sent regardless.
+     * 
+     * @param lingerMillis The linger time in milliseconds.
+     */
+    public void setLingerMillis(final long lingerMillis) {
+        reporter.setLingerMillis(lingerMillis);
+    }
+
+    public long getLingerMillis() {
+        return reporter.getLingerMillis();
+    }
+
+    /**
+     * Sets how often the free disk space reported with each bug is checked.
+     * 
+     * @param diskSpaceRefreshMillis The interval in milliseconds.
+     */
+    public void setDiskSpaceRefreshMillis(final long diskSpaceRefreshMillis) {
+        reporter.setDiskSpaceRefreshMillis(diskSpaceRefreshMillis);
+    }
+
+    public long getDiskSpaceRefreshMillis() {
+        return reporter.getDiskSpaceRefreshMillis();
+    }
+
+    /**
+     * Sets the directory where bugs are spooled to disk before they're sent,
+     * so they aren't lost if the process dies or the network is down. Bugs
+     * left there are sent when the appender's options are next activated,
+     * or with the first bug if they never are. By default nothing is 
+     * spooled. This has to be set before the options are activated.
+     * 
+     * @param spoolDirectory The directory, created if need be.
+     */
+    public void setSpoolDirectory(final String spoolDirectory) {
+        reporter.setSpoolDirectory(spoolDirectory);
+    }
+
+    public String getSpoolDirectory() {
+        return reporter.getSpoolDirectory();
+    }
+
+    /**
+     * Sets the size of each spool file. A batch too big for one isn't 
+     * spooled.
+     * 
+     * @param spoolSegmentBytes The size in bytes.
+     */
+    public void setSpoolSegmentBytes(final int spoolSegmentBytes) {
+        reporter.setSpoolSegmentBytes(spoolSegmentBytes);
+    }
+
+    public int getSpoolSegmentBytes() {
+        return reporter.getSpoolSegmentBytes();
+    }
+
+    /**
+     * Sets the most disk space the spool can take. The oldest unsent bugs 
+     * are dropped when it's full.
+     * 
+     * @param spoolMaxBytes The limit in bytes.
+     */
+    public void setSpoolMaxBytes(final long spoolMaxBytes) {
+        reporter.setSpoolMaxBytes(spoolMaxBytes);
+    }
+
+    public long getSpoolMaxBytes() {
+        return reporter.getSpoolMaxBytes();
+    }
+
+    /**
+     * Sets when spooled bugs are forced to disk: <code>ALWAYS</code>, 
+     * <code>PERIODIC</code> (the default) or <code>NEVER</code>. Spooled 
+     * bugs survive the process dying either way.
+     * 
+     * @param spoolFsync The name of the policy.
+     */
+    public void setSpoolFsync(final String spoolFsync) {
+        reporter.setSpoolFsync(spoolFsync);
+    }
+
+    public String getSpoolFsync() {
+        return reporter.getSpoolFsync();
+    }
+
+    /**
+     * Sets how often the spool is forced to disk with the 
+     * <code>PERIODIC</code> policy.
+     * 
+     * @param spoolFsyncIntervalMillis The interval in milliseconds.
+     */
+    public void setSpoolFsyncIntervalMillis(
+        final long spoolFsyncIntervalMillis) {
+        reporter.setSpoolFsyncIntervalMillis(spoolFsyncIntervalMillis);
+    }
+
+    public long getSpoolFsyncIntervalMillis() {
+        return reporter.getSpoolFsyncIntervalMillis();
+    }
+
+    /**
+     * @return The number of requests spooled on disk and not yet accepted.
+     */
+    public int getSpooledCount() {
+        return reporter.getSpooledCount();
+    }
+
+    /**
+     * @return The number of batches sent, not counting the halves of
+     * batches that were split after the server rejected them.
+     */
+    public long getBatchCount() {
+        return reporter.getBatchCount();
+    }
+
+    /**
+     * @return The number of bugs in the largest batch sent so far.
+     */
+    public int getLargestBatch() {
+        return reporter.getLargestBatch();
+    }
+
+    /**
+     * @return How long, on average, the first bug in each batch waited 
+     * before the batch was sent.
+     */
+    public long getAverageLingerMillis() {
+        return reporter.getAverageLingerMillis();
+    }
+
+    /**
+     * @return The longest time the first bug in a batch waited before the
+     * batch was sent.
+     */
+    public long getLongestLingerMillis() {
+        return reporter.getLongestLingerMillis();
+    }
+
+    /**
+     * Sets how many times the sender thread retries a request that failed 
+     * in a way that might not happen again, such as a 503 or the connection
+     * failing. Bugs sent without a sender thread aren't retried.
+     * 
+     * @param maxRetries The number of retries after the first attempt.
+     */
+    public void setMaxRetries(final int maxRetries) {
+        reporter.setMaxRetries(maxRetries);
+    }
+
+    public int getMaxRetries() {
+        return reporter.getMaxRetries();
+    }
+
+    /**
+     * Sets the delay before the first retry. Each retry after that waits
+     * twice as long as the one before, up to the maximum, with a random 
+     * part so many clients don't retry in step.
+     * 
+     * @param retryBaseMillis The delay in milliseconds.
+     */
+    public void setRetryBaseMillis(final long retryBaseMillis) {
+        reporter.setRetryBaseMillis(retryBaseMillis);
+    }
+
+    public long getRetryBaseMillis() {
+        return reporter.getRetryBaseMillis();
+    }
+
+    /**
+     * Sets the longest delay before a retry. A request that would have to 
+     * wait longer, because the server asked for that with 
+     * <code>Retry-After</code> for example, isn't retried.
+     * 
+     * @param retryMaxMillis The delay in milliseconds.
+     */
+    public void setRetryMaxMillis(final long retryMaxMillis) {
+        reporter.setRetryMaxMillis(retryMaxMillis);
+    }
+
+    public long getRetryMaxMillis() {
+        return reporter.getRetryMaxMillis();
+    }
+
+    /**
+     * Sets how many requests in a row have to fail before sending stops for
+     * a while. Bugs aren't sent in that time, unless they're spooled, in 
+     * which case they're sent once a single probe request gets through.
+     * 
+     * @param circuitFailureThreshold The number of failed requests.
+     */
+    public void setCircuitFailureThreshold(final int circuitFailureThreshold) {
+        reporter.setCircuitFailureThreshold(circuitFailureThreshold);
+    }
+
+    public int getCircuitFailureThreshold() {
+        return reporter.getCircuitFailureThreshold();
+    }
+
+    /**
+     * Sets how long sending stops for after too many failed requests, before
+     * a probe request is sent to see if the server is back.
+     * 
+     * @param circuitOpenMillis The time in milliseconds.
+     */
+    public void setCircuitOpenMillis(final long circuitOpenMillis) {
+        reporter.setCircuitOpenMillis(circuitOpenMillis);
+    }
+
+    public long getCircuitOpenMillis() {
+        return reporter.getCircuitOpenMillis();
+    }
+
+    /**
+     * @return <code>CLOSED</code> while bugs are being sent, 
+     * <code>OPEN</code> while sending has stopped because of failures and
+     * <code>HALF_OPEN</code> while a probe is in flight.
+     */
+    public String getCircuitState() {
+        return reporter.getCircuitState();
+    }
+
+    /**
+     * @return The number of requests not sent because sending had stopped.
+     */
+    public long getCircuitRejectedCount() {
+        return reporter.getCircuitRejectedCount();
+    }
+
+    /**
+     * Sets how many events a minute are reported at most, across all bugs.
+     * Events over the limit are counted and the count reported in a summary
+     * instead. This has to be set before the first event is reported.
+     * 
+     * @param rateLimit The number of events a minute, or 0 for no limit.
+     */
+    public void setRateLimit(final int rateLimit) {
+        reporter.setRateLimit(rateLimit);
+    }
+
+    public int getRateLimit() {
+        return reporter.getRateLimit();
+    }
+
+    /**
+     * Sets how many events can be reported at once before the rate limit 
+     * applies. This has to be set before the first event is reported.
+     * 
+     * @param rateLimitBurst The number of events.
+     */
+    public void setRateLimitBurst(final int rateLimitBurst) {
+        reporter.setRateLimitBurst(rateLimitBurst);
+    }
+
+    public int getRateLimitBurst() {
+        return reporter.getRateLimitBurst();
+    }
+
+    /**
+     * Sets how many events a minute are reported at most for any one bug, 
+     * as identified by its stack trace or location. This has to be set 
+     * before the first event is reported.
+     * 
+     * @param fingerprintRateLimit The number of events a minute, or 0 for 
+     * no limit.
+     */
+    public void setFingerprintRateLimit(final int fingerprintRateLimit) {
+        reporter.setFingerprintRateLimit(fingerprintRateLimit);
+    }
+
+    public int getFingerprintRateLimit() {
+        return reporter.getFingerprintRateLimit();
+    }
+
+    /**
+     * Sets how many events can be reported at once for any one bug before
+     * its rate limit applies. This has to be set before the first event is
+     * reported.
+     * 
+     * @param fingerprintRateLimitBurst The number of events.
+     */
+    public void setFingerprintRateLimitBurst(
+        final int fingerprintRateLimitBurst) {
+        reporter.setFingerprintRateLimitBurst(fingerprintRateLimitBurst);
+    }
+
+    public int getFingerprintRateLimitBurst() {
+        return reporter.getFingerprintRateLimitBurst();
+    }
+
+    /**
+     * Sets how often the number of rate limited events is reported.
+     * 
+     * @param rateLimitSummaryMillis The interval in milliseconds.
+     */
+    public void setRateLimitSummaryMillis(final long rateLimitSummaryMillis) {
+        reporter.setRateLimitSummaryMillis(rateLimitSummaryMillis);
+    }
+
+    public long getRateLimitSummaryMillis() {
+        return reporter.getRateLimitSummaryMillis();
+    }
+
+    /**
+     * @return The number of events not reported because of a rate limit.
+     */
+    public long getRateLimitedCount() {
+        return reporter.getRateLimitedCount();
+    }
+
+    /**
+     * Sets how many times a second any one bug, as identified by its 
+     * throwable's class and causes, its logger and location, can be logged
+     * before only a random sample of it is
+     * reported. The sample gets smaller the more it's logged, to about this
+     * many a second, and each report says what fraction of the events it
+     * was sampled from as <code>sample_rate</code>, and how many events 
+     * went unreported since the last report in 
+     * <code>occurrences_since_last_report</code>. Bugs logged without the 
+     * caller's location are told apart only by their logger and throwable
+     * classes here, so a threshold of hundreds a second suits a storm 
+     * without sampling out different bugs logged together. Sampling is off
+     * by default. This has to be set before the first event is reported.
+     * 
+     * @param samplingThreshold The number of events a second, or 0, the 
+     * default, to report every event.
+     */
+    public void setSamplingThreshold(final int samplingThreshold) {
+        reporter.setSamplingThreshold(samplingThreshold);
+    }
+
+    public int getSamplingThreshold() {
+        return reporter.getSamplingThreshold();
+    }
+
+    /**
+     * Sets the smallest request worth compressing. Smaller requests are 
+     * sent as they are.
+     * 
+     * @param compressionThreshold The size of the JSON in bytes, 1024 by 
+     * default, or 0 to compress everything.
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        reporter.setCompressionThreshold(compressionThreshold);
+    }
+
+    public int getCompressionThreshold() {
+        return reporter.getCompressionThreshold();
+    }
+
+    /**
+     * @param maxMessageBytes The most bytes of a message reported, 8 KB by
+     * default.
+     * @see ExceptionalReporter#setMaxMessageBytes(int)
+     */
+    public void setMaxMessageBytes(final int maxMessageBytes) {
+        reporter.setMaxMessageBytes(maxMessageBytes);
+    }
+
+    public int getMaxMessageBytes() {
+        return reporter.getMaxMessageBytes();
+    }
+
+    /**
+     * @param maxFrames The most lines of backtrace reported for a bug, 256
+     * by default.
+     * @see ExceptionalReporter#setMaxFrames(int)
+     */
+    public void setMaxFrames(final int maxFrames) {
+        reporter.setMaxFrames(maxFrames);
+    }
+
+    public int getMaxFrames() {
+        return reporter.getMaxFrames();
+    }
+
+    /**
+     * @param maxPayloadBytes The most bytes a bug can add to a request, 128
+     * KB by default.
+     * @see ExceptionalReporter#setMaxPayloadBytes(int)
+     */
+    public void setMaxPayloadBytes(final int maxPayloadBytes) {
+        reporter.setMaxPayloadBytes(maxPayloadBytes);
+    }
+
+    public int getMaxPayloadBytes() {
+        return reporter.getMaxPayloadBytes();
+    }
+
+    /**
+     * Sets the URL bugs are posted to, for sending them through a proxy or
+     * to a stand-in server in tests.
+     * 
+     * @param endpoint The URL,
+     * {@link ExceptionalReporter#DEFAULT_ENDPOINT} by default.
+     */
+    public void setEndpoint(final String endpoint) {
+        reporter.setEndpoint(endpoint);
+    }
+
+    public String getEndpoint() {
+        return reporter.getEndpoint();
+    }
+
+    /**
+     * Sets how long closing the appender waits for the bugs already logged
+     * to be sent. Bugs still waiting after that are abandoned.
+     * 
+     * @param closeTimeoutMillis The timeout in milliseconds.
+     */
+    public void setCloseTimeoutMillis(final long closeTimeoutMillis) {
+        reporter.setCloseTimeoutMillis(closeTimeoutMillis);
+    }
+
+    public long getCloseTimeoutMillis() {
+        return reporter.getCloseTimeoutMillis();
+    }
+
+    /**
+     * Sets whether the appender closes itself when the JVM exits, sending
+     * what it can of the bugs logged just before. This takes effect when 
+     * the appender is activated, and is off by default.
+     * 
+     * @param shutdownHook Whether to close on exit.
+     */
+    public void setShutdownHook(final boolean shutdownHook) {
+        reporter.setShutdownHook(shutdownHook);
+    }
+
+    public boolean getShutdownHook() {
+        return reporter.getShutdownHook();
+    }
+
+    /**
+     * @return The number of events given up on because the appender was 
+     * closed before they could be sent.
+     */
+    public long getAbandonedCount() {
+        return reporter.getAbandonedCount();
+    }
+
+    /**
+     * Sets whether the metrics are registered over JMX when the appender is
+     * activated. They are by default.
+     * 
+     * @param jmx Whether to register them.
+     */
+    public void setJmx(final boolean jmx) {
+        reporter.setJmx(jmx);
+    }
+
+    public boolean getJmx() {
+        return reporter.getJmx();
+    }
+
+    /**
+     * @return Counts and timings of what the appender has done.
+     */
+    public AppenderMetrics getMetrics() {
+        return reporter.getMetrics();
+    }
+
+    /**
+     * Sets how much the appender says about what it's doing on standard 
+     * error: one of <code>OFF</code> (the default), <code>ERROR</code>, 
+     * <code>WARN</code> or <code>DEBUG</code>.
+     * 
+     * @param diagnosticLevel The name of the level.
+     */
+    public void setDiagnosticLevel(final String diagnosticLevel) {
+        reporter.setDiagnosticLevel(diagnosticLevel);
+    }
+
+    public String getDiagnosticLevel() {
+        return reporter.getDiagnosticLevel();
+    }
+
+    /**
+     * @return The last few requests that failed, oldest first.
+     */
+    public List<DeliveryFailure> getRecentFailures() {
+        return reporter.getRecentFailures();
+    }
+
+    /**
+     * @return The approximate number of events waiting for the sender 
+     * thread.
+     */
+    public int getQueueDepth() {
+        return reporter.getQueueDepth();
+    }
+
+    /**
+     * Sets the maximum number of distinct bugs remembered for spotting 
+     * duplicates. The least recently seen bugs are forgotten first. This has
+     * to be set before the first event is reported.
+     * 
+     * @param dedupCapacity The number of bugs to remember.
+     */
+    public void setDedupCapacity(final int dedupCapacity) {
+        reporter.setDedupCapacity(dedupCapacity);
+    }
+
+    public int getDedupCapacity() {
+        return reporter.getDedupCapacity();
+    }
+
+    /**
+     * Sets how long after a bug is reported its duplicates are suppressed.
+     * The next report after that says how many were suppressed in between.
+     * This has to be set before the first event is reported.
+     * 
+     * @param dedupWindowMillis The window in milliseconds.
+     */
+    public void setDedupWindowMillis(final long dedupWindowMillis) {
+        reporter.setDedupWindowMillis(dedupWindowMillis);
+    }
+
+    public long getDedupWindowMillis() {
+        return reporter.getDedupWindowMillis();
+    }
+
+    /**
+     * @return The number of duplicate events that weren't reported.
+     */
+    public long getSuppressedCount() {
+        return reporter.getSuppressedCount();
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return reporter.getDroppedCount();
+    }
+
+    private static HttpStrategy wrap(final HttpClient hc) {
+        return new HttpStrategy() {
+            public HttpResponse execute(HttpGet request)
+                    throws ClientProtocolException, IOException {
+                return hc.execute(request);
+            }
+
+            public HttpResponse execute(HttpPost request)
+                    throws ClientProtocolException, IOException {
+                return hc.execute(request);
+            }
+        };
+    }
+
+    /**
+     * Passes the reporter's callbacks on to a log4j callback, unless it's 
+     * the one that does nothing.
+     */
+    private static ExceptionalCallback adapt(
+        final ExceptionalAppenderCallback callback) {
+        if (callback == NO_OP_CALLBACK) {
+            return null;
+        }
+        return new ExceptionalCallback() {
+            public boolean addData(final JSONObject json, 
+                final EventSnapshot event) {
+                return callback.addData(json, toLoggingEvent(event));
+            }
+        };
+    }
+    
+    @Override
+    public void append(final LoggingEvent le) {
+        if (reporter.accept(le.getLevel().isGreaterOrEqual(reportingLevel))) {
+            reporter.report(snapshot(le, locationInfo, diagnosticContext));
+        }
+    }
+
+    /**
+     * Takes a snapshot of a log4j event. Like log4j's own 
+     * <code>AsyncAppender</code>, this renders any message that isn't a 
+     * string while still on the logging thread, since it may have changed 
+     * by the time the bug's sent.
+     * 
+     * @param le The event to copy.
+     * @param withLocation Whether to include the caller's location. This is
+     * the expensive part, as log4j has to walk the stack of the calling 
+     * thread.
+     * @param withContext Whether to copy the MDC and NDC for the callback.
+     * @return The snapshot.
+     */
+    static EventSnapshot snapshot(final LoggingEvent le, 
+        final boolean withLocation, final boolean withContext) {
+        final ThrowableInformation ti = le.getThrowableInformation();
+        final Throwable throwable = ti == null ? null : ti.getThrowable();
+        final String[] throwableStrRep = 
+            ti == null || throwable != null ? null : ti.getThrowableStrRep();
+        final Object message = le.getMessage() instanceof String 
+            ? le.getMessage() : le.getRenderedMessage();
+        final Map<?, ?> mdc = withContext ? le.getProperties() : null;
+        final String ndc = withContext ? le.getNDC() : null;
+        if (!withLocation) {
+            return new EventSnapshot(le.getLoggerName(), 
+                le.getLevel().toString(), le.getTimeStamp(), 
+                le.getThreadName(), message, throwable, 
+                throwableStrRep, null, null, null, null, mdc, ndc);
+        }
+        final LocationInfo li = le.getLocationInformation();
+        return new EventSnapshot(le.getLoggerName(), le.getLevel().toString(),
+            le.getTimeStamp(), le.getThreadName(), message, throwable,
+            throwableStrRep, li.getClassName(), li.getMethodName(), 
+            li.getFileName(), li.getLineNumber(), mdc, ndc);
+    }
+
+    /**
+     * Registers the metrics over JMX, unless that's been turned off, and 
+     * replays what was left in the spool. Log4j calls this once the 
+     * appender's configured. The name registered is 
+     * <code>org.lantern.exceptional4j:type=ExceptionalAppender,name=</code>
+     * followed by the appender's name.
+     */
+    @Override
+    public void activateOptions() {
+        reporter.start(getName());
+    }
+
+    /**
+     * Stops taking events and sends those already taken, giving up on any 
+     * left after the close timeout.
+     * 
+     * @see ExceptionalReporter#close()
+     */
+    public void close() {
+        this.closed = true;
+        reporter.close();
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    /**
+     * Writes the protocol 6 document for a bug.
+     */
+    boolean writeBug(final EventSnapshot event, final JsonWriter json) {
+        return reporter.writeBug(event, json);
+    }
+
+    /**
+     * Recreates a log4j event from a snapshot for the benefit of the
+     * {@link ExceptionalAppenderCallback}.
+     */
+    private static LoggingEvent toLoggingEvent(final EventSnapshot event) {
+        final Location location = event.resolveLocation();
+        final LocationInfo li = new LocationInfo(location.getFileName(), 
+            location.getClassName(), location.getMethodName(), 
+            location.getLineNumber());
+        final Throwable t = event.getThrowable();
+        final ThrowableInformation ti;
+        if (t != null) {
+            ti = new ThrowableInformation(t);
+        } else if (event.getThrowableStrRep() != null) {
+            ti = new ThrowableInformation(event.getThrowableStrRep());
+        } else {
+            ti = null;
+        }
+        return new LoggingEvent(ExceptionalAppender.class.getName(),
+            Logger.getLogger(event.getLoggerName()), event.getTimeStamp(),
+            Level.toLevel(event.getLevel()), event.getMessage(),
+            event.getThreadName(), ti, event.getNdc(), li, event.getMdc());
+    }
+
+    JSONObject exceptionData(final LoggingEvent le) {
+        return reporter.exceptionData(snapshot(le, true, diagnosticContext));
+    }
+}
@@ -0,0 +1,834 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.Priority;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests sending an error to GetExceptional. Be sure to fill in your API key!
+ */
+public class ExceptionalAppenderTest {
+    
+    private static final String API_KEY = "";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void testGetExceptionalAppender() {
+        if (StringUtils.isBlank(API_KEY)) {
+            System.err.println("Cannot run test with a blank API key");
+            return;
+        }
+        final ExceptionalAppender appender = 
+            new ExceptionalAppender(API_KEY, false);
+        final String fqnOfCategoryClass = getClass().getName();
+        final Category logger = Logger.getLogger(getClass());
+        final Priority level = Level.ERROR;
+        final Object message = "different error";
+        final Throwable throwable = new IOException();
+        final LoggingEvent le = 
+            new LoggingEvent(fqnOfCategoryClass, logger, level, message, throwable);
+        appender.append(le);
+    }
+
+    @Test public void testSubmittedDocument() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppenderCallback callback = 
+            new ExceptionalAppenderCallback() {
+                @SuppressWarnings("unchecked")
+                public boolean addData(final JSONObject json, 
+                    final LoggingEvent le) {
+                    json.put("version", "1.2.3");
+                    return true;
+                }
+            };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", callback, false, Level.WARN, http);
+        final LoggingEvent le = new LoggingEvent(getClass().getName(), 
+            Logger.getLogger(getClass()), Level.ERROR, "broken \"quotes\"", 
+            new IOException("bad"));
+        appender.append(le);
+
+        assertEquals(1, http.bodies.size());
+        final JSONObject json = (JSONObject) JSONValue.parse(http.bodies.get(0));
+        final JSONObject exception = (JSONObject) json.get("exception");
+        assertEquals("broken \"quotes\"", exception.get("message"));
+        final JSONArray backtrace = (JSONArray) exception.get("backtrace");
+        assertEquals("java.io.IOException: bad", backtrace.get(0));
+        final JSONObject env = (JSONObject) ((JSONObject) 
+            json.get("application_environment")).get("env");
+        assertEquals("1.2.3", env.get("version"));
+        assertEquals("ERROR", env.get("logLevel"));
+        assertEquals(1.0, ((Number) env.get("sample_rate")).doubleValue(), 0);
+        assertEquals("6", ((JSONObject) json.get("client")).get(
+            "protocol_version"));
+    }
+
+    @Test public void testSpoolReplaysAfterOutage() throws Exception {
+        final RecordingHttp http = new RecordingHttp(503);
+        final ExceptionalAppender down = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        down.setSpoolDirectory(folder.getRoot().getPath());
+        down.append(event("first"));
+        assertEquals(1, http.bodies.size());
+        assertEquals(1, down.getSpooledCount());
+        down.close();
+
+        http.status = 200;
+        final ExceptionalAppender up = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        up.setSpoolDirectory(folder.getRoot().getPath());
+        up.setJmx(false);
+        up.activateOptions();
+        assertEquals(2, http.bodies.size());
+        assertEquals(http.bodies.get(0), http.bodies.get(1));
+        assertEquals(0, up.getSpooledCount());
+
+        up.append(event("second"));
+        assertEquals(3, http.bodies.size());
+        assertTrue(http.bodies.get(2).contains("second"));
+        up.close();
+    }
+
+    @Test public void testReplayDoesNotRepostRequestsInFlight()
+        throws Exception {
+        final CountDownLatch posting = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        final RecordingHttp http = new RecordingHttp() {
+            @Override
+            HttpResponse respond(final String body) throws IOException {
+                if (body.contains("slow") && posting.getCount() > 0) {
+                    posting.countDown();
+                    try {
+                        answer.await(10, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e.toString());
+                    }
+                }
+                return super.respond(body);
+            }
+        };
+        // Two bugs sent by different threads.
+        int other = 1;
+        while (ExceptionalReporter.stripe(Fingerprint.of(bug(other)), 2) ==
+            ExceptionalReporter.stripe(Fingerprint.of(bug(0)), 2)) {
+            other++;
+        }
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setSenders(2);
+        appender.setLingerMillis(0);
+        appender.setJmx(false);
+        appender.setSpoolDirectory(folder.getRoot().getPath());
+        appender.append(event("slow", bug(0)));
+        assertTrue(posting.await(10, TimeUnit.SECONDS));
+
+        // The other thread's success replays the spool while the slow
+        // request is still in it.
+        appender.append(event("fast", bug(other)));
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (http.bodies.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        answer.countDown();
+        appender.close();
+
+        int slow = 0;
+        for (final String body : http.bodies) {
+            if (body.contains("slow")) {
+                slow++;
+            }
+        }
+        assertEquals(1, slow);
+        assertEquals(0, appender.getSpooledCount());
+    }
+
+    @Test public void testRateLimitsAndSummarizes() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setDedupWindowMillis(0);
+        appender.setFingerprintRateLimitBurst(2);
+        for (int i = 0; i < 5; i++) {
+            appender.append(event("storm"));
+        }
+        assertEquals(2, http.bodies.size());
+        assertEquals(3L, appender.getRateLimitedCount());
+
+        // A different bug isn't held back by the storm, and brings the 
+        // summary with it once it's due.
+        appender.setRateLimitSummaryMillis(0);
+        appender.append(new LoggingEvent(getClass().getName(), 
+            Logger.getLogger(getClass()), Level.ERROR, "other", null));
+        assertEquals(4, http.bodies.size());
+        assertTrue(http.bodies.get(2).contains("3 events rate-limited"));
+        assertTrue(http.bodies.get(3).contains("other"));
+    }
+
+    @Test public void testDuplicatesDontUseUpRateLimit() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setRateLimitBurst(2);
+        final Throwable storm = bug(0);
+        for (int i = 0; i < 5; i++) {
+            appender.append(event("storm", storm));
+        }
+        appender.append(event("other", bug(1)));
+
+        // The duplicates were suppressed before they could take the tokens
+        // the other bug needed.
+        assertEquals(2, http.bodies.size());
+        assertTrue(http.bodies.get(1).contains("other"));
+        assertEquals(0L, appender.getRateLimitedCount());
+        appender.close();
+    }
+
+    @Test public void testRateLimitedBugIsSentAfterRefill() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setRateLimit(60);
+        appender.setRateLimitBurst(1);
+        appender.append(event("one", bug(1)));
+        appender.append(event("two", bug(2)));
+        assertEquals(1, http.bodies.size());
+        assertEquals(1L, appender.getRateLimitedCount());
+
+        // Being rate limited didn't make the retry a duplicate.
+        Thread.sleep(1100);
+        appender.append(event("two", bug(2)));
+        assertEquals(2, http.bodies.size());
+        assertTrue(http.bodies.get(1).contains("two"));
+        assertEquals(0L, appender.getSuppressedCount());
+        appender.close();
+    }
+
+    @Test public void testRateLimitsOnLoggingThreadWithoutLocation() 
+        throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingHttp http = new RecordingHttp() {
+            @Override
+            HttpResponse respond(final String body) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.respond(body);
+            }
+        };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setLocationInfo(false);
+        appender.setJmx(false);
+        appender.setDedupWindowMillis(0);
+        appender.setFingerprintRateLimitBurst(2);
+        for (int i = 0; i < 5; i++) {
+            appender.append(event("storm", bug(i)));
+        }
+        // Counted before the sender got to any of them.
+        assertEquals(3L, appender.getRateLimitedCount());
+        release.countDown();
+        appender.close();
+    }
+
+    @Test public void testCountsSampledOutEvents() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setSamplingThreshold(1);
+        appender.setDedupWindowMillis(0);
+        appender.setFingerprintRateLimit(0);
+        final Throwable storm = bug(0);
+        for (int i = 0; i < 100; i++) {
+            appender.append(event("storm", storm));
+        }
+        assertTrue(http.bodies.size() < 100);
+
+        // Once the storm's over, the next report carries what's left.
+        Thread.sleep(2100);
+        appender.append(event("storm", storm));
+        long counted = 0;
+        for (final String body : http.bodies) {
+            final JSONObject json = (JSONObject) JSONValue.parse(body);
+            final JSONObject env = (JSONObject) ((JSONObject) 
+                json.get("application_environment")).get("env");
+            final Number occurrences = 
+                (Number) env.get("occurrences_since_last_report");
+            counted += 1 + (occurrences == null ? 0 : occurrences.longValue());
+        }
+        assertEquals(101L, counted);
+        appender.close();
+    }
+
+    @Test public void testLoggingThreadDoesNotWalkTheStack()
+        throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final Thread logging = Thread.currentThread();
+        final AtomicInteger walks = new AtomicInteger();
+        final Throwable watched = new IOException("watched") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public StackTraceElement[] getStackTrace() {
+                if (Thread.currentThread() == logging) {
+                    walks.incrementAndGet();
+                }
+                return super.getStackTrace();
+            }
+        };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setLocationInfo(false);
+        appender.setJmx(false);
+        appender.setSenders(2);
+        appender.append(event("watched", watched));
+        appender.close();
+
+        assertEquals(1, http.bodies.size());
+        assertTrue(http.bodies.get(0).contains("watched"));
+        assertEquals(0, walks.get());
+    }
+
+    @Test public void testCallbackSeesTheLoggingThreadsContext()
+        throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final CountDownLatch cleared = new CountDownLatch(1);
+        final ExceptionalAppenderCallback callback = 
+            new ExceptionalAppenderCallback() {
+                @SuppressWarnings("unchecked")
+                public boolean addData(final JSONObject json, 
+                    final LoggingEvent le) {
+                    try {
+                        cleared.await(5, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    json.put("user", le.getMDC("user"));
+                    json.put("ndc", le.getNDC());
+                    json.put("said", le.getRenderedMessage());
+                    return true;
+                }
+            };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", callback, true, Level.WARN, http);
+        appender.setJmx(false);
+        final StringBuilder message = new StringBuilder("before");
+        MDC.put("user", "alice");
+        NDC.push("request");
+        try {
+            appender.append(new LoggingEvent(getClass().getName(), 
+                Logger.getLogger(getClass()), Level.ERROR, message, 
+                new IOException("bad")));
+        } finally {
+            MDC.remove("user");
+            NDC.remove();
+        }
+        message.setLength(0);
+        message.append("after");
+        cleared.countDown();
+        appender.close();
+
+        assertEquals(1, http.bodies.size());
+        final JSONObject json = (JSONObject) JSONValue.parse(http.bodies.get(0));
+        final JSONObject env = (JSONObject) ((JSONObject) 
+            json.get("application_environment")).get("env");
+        assertEquals("alice", env.get("user"));
+        assertEquals("request", env.get("ndc"));
+        assertEquals("before", env.get("said"));
+    }
+
+    @Test public void testCopiesContextOnlyForCallback() {
+        MDC.put("user", "alice");
+        NDC.push("request");
+        try {
+            final EventSnapshot plain = 
+                ExceptionalAppender.snapshot(event("plain"), false, false);
+            assertNull(plain.getMdc());
+            assertNull(plain.getNdc());
+            final EventSnapshot copied = 
+                ExceptionalAppender.snapshot(event("copied"), false, true);
+            assertEquals("alice", copied.getMdc().get("user"));
+            assertEquals("request", copied.getNdc());
+        } finally {
+            MDC.remove("user");
+            NDC.remove();
+        }
+    }
+
+    @Test public void testMetrics() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setName("metrics-test");
+        appender.setDedupWindowMillis(0);
+        appender.activateOptions();
+        appender.append(event("one"));
+        appender.append(new LoggingEvent(getClass().getName(), 
+            Logger.getLogger(getClass()), Level.INFO, "quiet", null));
+        http.status = 500;
+        appender.append(event("two"));
+
+        final AppenderMetrics metrics = appender.getMetrics();
+        assertEquals(3L, metrics.getAppendedCount());
+        assertEquals(1L, metrics.getFilteredByLevelCount());
+        assertEquals(2L, metrics.getSerializedCount());
+        assertEquals(1L, metrics.getSentCount());
+        assertEquals(1L, metrics.getFailedCount());
+        assertEquals(Long.valueOf(1L), 
+            metrics.getFailuresByStatus().get(Integer.valueOf(500)));
+        assertEquals(2L, metrics.getHttpLatency().getCount());
+        assertEquals(2L, metrics.getCompressionLatency().getCount());
+        final List<DeliveryFailure> failures = appender.getRecentFailures();
+        assertEquals(1, failures.size());
+        assertEquals(500, failures.get(0).getStatusCode());
+
+        final ObjectName name = new ObjectName("org.lantern.exceptional4j:" + 
+            "type=ExceptionalAppender,name=\"metrics-test\"");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(Long.valueOf(2L), 
+            server.getAttribute(name, "SerializedCount"));
+        appender.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test public void testCompressesOnlyLargeRequests() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setDedupWindowMillis(0);
+        appender.setJmx(false);
+        appender.setCompressionThreshold(4096);
+        appender.activateOptions();
+        appender.append(event("small", null));
+        appender.append(event("large " + StringUtils.repeat("x", 8192), null));
+
+        assertEquals(Arrays.asList(Boolean.FALSE, Boolean.TRUE), http.gzipped);
+        assertTrue(http.bodies.get(0).contains("small"));
+        assertTrue(http.bodies.get(1).contains("large"));
+        final AppenderMetrics metrics = appender.getMetrics();
+        assertEquals(1L, metrics.getUncompressedCount());
+        assertTrue(metrics.getBytesSaved() > 4096L);
+        assertEquals(metrics.getPayloadBytes() - metrics.getRequestBytes(),
+            metrics.getBytesSaved());
+        appender.close();
+    }
+
+    @Test public void testFiltersRejectBeforeBuilding() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final AtomicInteger built = new AtomicInteger();
+        final ExceptionalAppenderCallback callback = 
+            new ExceptionalAppenderCallback() {
+                public boolean addData(final JSONObject json, 
+                    final LoggingEvent le) {
+                    built.incrementAndGet();
+                    return true;
+                }
+            };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", callback, false, Level.WARN, http);
+        appender.setDedupWindowMillis(0);
+        appender.setJmx(false);
+        appender.addEventFilter(new EventFilter() {
+            public boolean accept(final EventView event) {
+                return !IllegalStateException.class.getName().equals(
+                    event.getThrowableClassName());
+            }
+        });
+        appender.addDequeueFilter(new EventFilter() {
+            public boolean accept(final EventView event) {
+                return !event.getRenderedMessage().contains("secret");
+            }
+        });
+        appender.addDequeueFilter(new EventFilter() {
+            public boolean accept(final EventView event) {
+                throw new IllegalArgumentException();
+            }
+        });
+        appender.activateOptions();
+        appender.append(event("state", new IllegalStateException()));
+        appender.append(event("the secret is out"));
+        appender.append(event("kept"));
+
+        assertEquals(1, http.bodies.size());
+        assertTrue(http.bodies.get(0).contains("kept"));
+        assertEquals(1, built.get());
+        assertEquals(2L, appender.getMetrics().getRejectedByFilterCount());
+        appender.close();
+    }
+
+    @Test public void testTruncatesLargeBugs() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setJmx(false);
+        appender.setMaxMessageBytes(100);
+        appender.setMaxFrames(5);
+        appender.activateOptions();
+        appender.append(event(StringUtils.repeat("x", 1000000), 
+            new IOException()));
+        appender.append(event("small", null));
+
+        assertEquals(2, http.bodies.size());
+        final JSONObject exception = (JSONObject) ((JSONObject) 
+            JSONValue.parse(http.bodies.get(0))).get("exception");
+        final String message = (String) exception.get("message");
+        assertTrue(message.length() < 200);
+        assertTrue(message.endsWith("... [999900 chars truncated]"));
+        final JSONArray backtrace = (JSONArray) exception.get("backtrace");
+        assertTrue(((String) backtrace.get(backtrace.size() - 1)).endsWith(
+            "frames truncated"));
+        final JSONObject truncated = (JSONObject) exception.get("truncated");
+        assertEquals(Boolean.TRUE, truncated.get("message"));
+        assertTrue(((Long) truncated.get("frames_dropped")).longValue() > 0L);
+        assertEquals(Boolean.FALSE, truncated.get("payload"));
+        assertFalse(http.bodies.get(1).contains("truncated"));
+        assertEquals(1L, appender.getMetrics().getTruncatedCount());
+        appender.close();
+    }
+
+    @Test public void testCloseSendsQueuedBugs() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setDedupWindowMillis(0);
+        // Nothing would be sent for a minute without closing.
+        appender.setBatchSize(10);
+        appender.setLingerMillis(60000);
+        for (int i = 0; i < 3; i++) {
+            appender.append(event("queued " + i));
+        }
+        appender.close();
+        assertEquals(1, http.bodies.size());
+        assertTrue(http.bodies.get(0).contains("queued 2"));
+        assertEquals(0L, appender.getAbandonedCount());
+
+        appender.append(event("too late"));
+        assertEquals(1, http.bodies.size());
+        assertEquals(1L, appender.getAbandonedCount());
+
+        // Events that wouldn't have been reported anyway aren't lost.
+        appender.append(new LoggingEvent(getClass().getName(), 
+            Logger.getLogger(getClass()), Level.DEBUG, "ignored", null));
+        assertEquals(1L, appender.getAbandonedCount());
+    }
+
+    @Test public void testCloseAbandonsBatchAfterTimeout() throws Exception {
+        final RecordingHttp http = new RecordingHttp();
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setJmx(false);
+        appender.setDedupWindowMillis(0);
+        appender.setBatchSize(10);
+        appender.setLingerMillis(60000);
+        appender.setCloseTimeoutMillis(0);
+        for (int i = 0; i < 3; i++) {
+            appender.append(event("lingering " + i));
+        }
+        appender.close();
+
+        // Whether they were still queued or already batched, none are sent
+        // once the deadline's passed.
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (appender.getAbandonedCount() < 3L && 
+            System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3L, appender.getAbandonedCount());
+        assertEquals(0, http.bodies.size());
+    }
+
+    @Test public void testCloseGivesUpAfterTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingHttp http = new RecordingHttp() {
+            @Override
+            HttpResponse respond(final String body) throws IOException {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    // Keep hanging like a dead server would.
+                }
+                return super.respond(body);
+            }
+        };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setDedupWindowMillis(0);
+        appender.setLingerMillis(0);
+        appender.setCloseTimeoutMillis(200);
+        try {
+            for (int i = 0; i < 5; i++) {
+                appender.append(event("stuck " + i));
+            }
+            final long start = System.currentTimeMillis();
+            appender.close();
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertTrue(appender.getAbandonedCount() > 0L);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test public void testRetriesAfterBackoff() throws Exception {
+        final int[] codes = {503, 503, 200};
+        final CountDownLatch sent = new CountDownLatch(1);
+        final RecordingHttp http = new RecordingHttp() {
+            @Override
+            HttpResponse respond(final String body) throws IOException {
+                final int posts = bodies.size();
+                status = codes[Math.min(posts - 1, 2)];
+                final HttpResponse response = super.respond(body);
+                if (posts == 1) {
+                    response.setHeader("Retry-After", "0");
+                }
+                if (status == 200) {
+                    sent.countDown();
+                }
+                return response;
+            }
+        };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setLingerMillis(0);
+        appender.setRetryBaseMillis(10);
+        appender.append(event("flaky"));
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(3, http.bodies.size());
+        assertEquals("CLOSED", appender.getCircuitState());
+    }
+
+    @Test public void testStopsSendingWhileDown() throws Exception {
+        final RecordingHttp http = new RecordingHttp() {
+            @Override
+            HttpResponse respond(final String body) throws IOException {
+                throw new IOException("Connection refused");
+            }
+        };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, false, Level.WARN, http);
+        appender.setCircuitFailureThreshold(2);
+        appender.setDedupWindowMillis(0);
+        for (int i = 0; i < 5; i++) {
+            appender.append(event("down " + i));
+        }
+        assertEquals(2, http.bodies.size());
+        assertEquals("OPEN", appender.getCircuitState());
+        assertEquals(3L, appender.getCircuitRejectedCount());
+    }
+
+    @Test public void testDeliversThroughFaults() throws Exception {
+        final FakeExceptionalServer server = new FakeExceptionalServer();
+        final List<String> messages = 
+            Collections.synchronizedList(new ArrayList<String>());
+        server.setListener(new FakeExceptionalServer.Listener() {
+            public void received(final JSONObject bug) {
+                messages.add((String) ((JSONObject) bug.get("exception"))
+                    .get("message"));
+            }
+        });
+        server.inject(FakeExceptionalServer.Fault.RATE_LIMIT, 1);
+        server.inject(FakeExceptionalServer.Fault.RESET, 1);
+        server.inject(FakeExceptionalServer.Fault.ERROR, 1);
+        final ExceptionalAppender appender = 
+            new ExceptionalAppender("fake_key", true);
+        try {
+            appender.setEndpoint(server.getEndpoint());
+            appender.setJmx(false);
+            appender.setLingerMillis(0);
+            appender.setRetryBaseMillis(10);
+            appender.setMaxRetries(5);
+            appender.setDedupWindowMillis(0);
+            appender.activateOptions();
+            for (int i = 0; i < 3; i++) {
+                appender.append(event("faulty " + i));
+            }
+            assertTrue(server.awaitBugs(3, 10, TimeUnit.SECONDS));
+        } finally {
+            appender.close();
+            server.stop();
+        }
+        assertEquals(3, messages.size());
+        assertTrue(messages.contains("faulty 0"));
+        assertTrue(messages.contains("faulty 2"));
+        assertEquals(1L, server.getFaultCount(
+            FakeExceptionalServer.Fault.RESET));
+        assertEquals(0L, server.getRejectedCount());
+    }
+
+    @Test public void testSendsBugsInParallelAndRepeatsInOrder() 
+        throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        final RecordingHttp http = new RecordingHttp() {
+            @Override
+            HttpResponse respond(final String body) throws IOException {
+                final int n = inFlight.incrementAndGet();
+                synchronized (mostInFlight) {
+                    mostInFlight.set(Math.max(mostInFlight.get(), n));
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (final InterruptedException e) {
+                    throw new IOException(e.toString());
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                return super.respond(body);
+            }
+        };
+        final ExceptionalAppender appender = new ExceptionalAppender(
+            "fake_key", NO_CALLBACK, true, Level.WARN, http);
+        appender.setSenders(4);
+        appender.setLingerMillis(0);
+        appender.setJmx(false);
+        appender.setDedupWindowMillis(0);
+        appender.setRateLimit(0);
+        appender.setFingerprintRateLimit(0);
+        final int bugs = 8;
+        final int repeats = 4;
+        for (int r = 0; r < repeats; r++) {
+            for (int b = 0; b < bugs; b++) {
+                appender.append(event(b + " " + r, bug(b)));
+            }
+        }
+        appender.close();
+
+        assertEquals(bugs * repeats, http.bodies.size());
+        assertTrue("At most " + mostInFlight.get() + " in flight", 
+            mostInFlight.get() > 1);
+        final int[] last = new int[bugs];
+        Arrays.fill(last, -1);
+        for (final String body : http.bodies) {
+            final JSONObject json = (JSONObject) JSONValue.parse(body);
+            final String[] parts = ((String) ((JSONObject) 
+                json.get("exception")).get("message")).split(" ");
+            final int b = Integer.parseInt(parts[0]);
+            final int r = Integer.parseInt(parts[1]);
+            assertEquals(last[b] + 1, r);
+            last[b] = r;
+        }
+    }
+
+    /**
+     * Stands in for the server, keeping the body of each bug posted and 
+     * answering with the status it's given. Tests that need the server to
+     * hang, fail or answer differently override {@link #respond(String)}.
+     */
+    private static class RecordingHttp implements HttpStrategy {
+
+        final List<String> bodies = 
+            Collections.synchronizedList(new ArrayList<String>());
+
+        final List<Boolean> gzipped = 
+            Collections.synchronizedList(new ArrayList<Boolean>());
+
+        volatile int status;
+
+        RecordingHttp() {
+            this(200);
+        }
+
+        RecordingHttp(final int status) {
+            this.status = status;
+        }
+
+        public HttpResponse execute(final HttpGet request) {
+            throw new UnsupportedOperationException();
+        }
+
+        public HttpResponse execute(final HttpPost request)
+            throws IOException {
+            gzipped.add(Boolean.valueOf(
+                request.getFirstHeader("Content-Encoding") != null));
+            final String body = body(request);
+            bodies.add(body);
+            return respond(body);
+        }
+
+        HttpResponse respond(final String body) throws IOException {
+            final HttpResponse response = 
+                new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+            response.setEntity(new StringEntity("{}"));
+            return response;
+        }
+    }
+
+    private static final ExceptionalAppenderCallback NO_CALLBACK = 
+        new ExceptionalAppenderCallback() {
+            public boolean addData(final JSONObject json, 
+                final LoggingEvent le) {
+                return true;
+            }
+        };
+
+    private LoggingEvent event(final String message) {
+        return event(message, new IOException(message));
+    }
+
+    private LoggingEvent event(final String message, 
+        final Throwable throwable) {
+        return new LoggingEvent(getClass().getName(), 
+            Logger.getLogger(getClass()), Level.ERROR, message, throwable);
+    }
+
+    /**
+     * @return A throwable with a fingerprint of its own for each number.
+     */
+    private static Throwable bug(final int number) {
+        final IOException e = new IOException("bug " + number);
+        e.setStackTrace(new StackTraceElement[] {
+            new StackTraceElement("Bug", "method" + number, "Bug.java", 
+                number)
+        });
+        return e;
+    }
+
+    /**
+     * @return The body posted, gunzipped if it was sent compressed.
+     */
+    private static String body(final HttpPost request) throws IOException {
+        final Header encoding = request.getFirstHeader("Content-Encoding");
+        final InputStream content = request.getEntity().getContent();
+        return IOUtils.toString(encoding != null &&
+            "gzip".equals(encoding.getValue()) ?
+                new GZIPInputStream(content) : content, "UTF-8");
+    }
+}
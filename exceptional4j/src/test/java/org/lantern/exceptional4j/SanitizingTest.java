@@ -33,4 +33,31 @@ public class SanitizingTest {
         String sanitizedMessage = (String) exceptionData.get("message");
         assertEquals(expectedSanitizedMessage, sanitizedMessage);
     }
+
+    @Test
+    public void testChainedRulesSeeEarlierOutput() {
+        final ExceptionalAppender chained =
+                new ExceptionalAppender("fake_key", false);
+        chained.addSanitizer(new RegexSanitizer("secret", "token"));
+        chained.addSanitizer(new RegexSanitizer("token", "<redacted>"));
+        assertEquals("a <redacted> and a <redacted>",
+                sanitizedMessage(chained, "a secret and a token"));
+
+        // Combined rules each see the original string instead.
+        final ExceptionalAppender combined =
+                new ExceptionalAppender("fake_key", false);
+        combined.addCombinableSanitizer(new RegexSanitizer("secret", "token"));
+        combined.addCombinableSanitizer(
+                new RegexSanitizer("token", "<redacted>"));
+        assertEquals("a token and a <redacted>",
+                sanitizedMessage(combined, "a secret and a token"));
+    }
+
+    private String sanitizedMessage(final ExceptionalAppender appender,
+            final String message) {
+        final LoggingEvent le = new LoggingEvent(getClass().getName(),
+                Logger.getLogger(getClass()), Level.ERROR, message,
+                new IOException());
+        return (String) appender.exceptionData(le).get("message");
+    }
 }
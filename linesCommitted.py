@@ -11,7 +11,7 @@ if (len(sys.argv) != 3):
 start = sys.argv[1]
 end = sys.argv[2]
 
-hist = commands.getoutput("git log --shortstat --reverse --pretty=oneline --after=\""+start+"\" --before=\""+end+"\" --no-merges src/")
+hist = commands.getoutput("git log --shortstat --reverse --pretty=oneline --after=\""+start+"\" --before=\""+end+"\" --no-merges src/ exceptional4j/src/ core/src/ log4j2/src/ logback/src/ testing/src/")
 hist = hist.split("\n")
 totalins = 0
 
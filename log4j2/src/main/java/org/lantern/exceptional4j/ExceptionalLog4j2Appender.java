@@ -0,0 +1,346 @@
+package org.lantern.exceptional4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+/**
+ * Log4j 2 appender that sends data to Exceptional. Configured as, for
+ * example:
+ * <pre>
+ *     &lt;Exceptional name="Exceptional" apiKey="YOUR_API_KEY"
+ *         level="ERROR" spoolDirectory="/var/spool/myapp"/&gt;
+ * </pre>
+ * Log4j 2 reuses events, and their messages, in its garbage-free mode and
+ * with async loggers, so this copies what it needs out of each event it
+ * reports and never holds on to the event. Events below the level reported
+ * are turned away without allocating anything.
+ */
+@Plugin(name = "Exceptional", category = Core.CATEGORY_NAME,
+    elementType = Appender.ELEMENT_TYPE, printObject = true)
+public final class ExceptionalLog4j2Appender extends AbstractAppender {
+
+    private final ExceptionalReporter reporter;
+
+    private final Level reportingLevel;
+
+    private final boolean locationInfo;
+
+    private ExceptionalLog4j2Appender(final String name, final Filter filter,
+        final boolean ignoreExceptions, final ExceptionalReporter reporter,
+        final Level reportingLevel, final boolean locationInfo) {
+        super(name, filter, null, ignoreExceptions, Property.EMPTY_ARRAY);
+        this.reporter = reporter;
+        this.reportingLevel = reportingLevel;
+        this.locationInfo = locationInfo;
+    }
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    /**
+     * Builds the appender from its configuration. Anything not configured
+     * here can be set on the {@link ExceptionalReporter} from
+     * {@link ExceptionalLog4j2Appender#getReporter()}.
+     */
+    public static class Builder<B extends Builder<B>>
+        extends AbstractAppender.Builder<B>
+        implements org.apache.logging.log4j.core.util.Builder<
+            ExceptionalLog4j2Appender> {
+
+        @PluginBuilderAttribute
+        @Required(message = "No API key provided for the Exceptional appender")
+        private String apiKey;
+
+        @PluginBuilderAttribute
+        private Level level = Level.WARN;
+
+        @PluginBuilderAttribute
+        private boolean locationInfo;
+
+        @PluginBuilderAttribute
+        private int queueCapacity = 1024;
+
+        @PluginBuilderAttribute
+        private int senders = 1;
+
+        @PluginBuilderAttribute
+        private boolean virtualThreads;
+
+        @PluginBuilderAttribute
+        private String overflowPolicy = OverflowPolicy.DROP_NEWEST.name();
+
+        @PluginBuilderAttribute
+        private int batchSize = 1;
+
+        @PluginBuilderAttribute
+        private String spoolDirectory;
+
+        @PluginBuilderAttribute
+        private int samplingThreshold = 0;
+
+        @PluginBuilderAttribute
+        private int compressionThreshold = 1024;
+
+        @PluginBuilderAttribute
+        private int maxMessageBytes = 8 * 1024;
+
+        @PluginBuilderAttribute
+        private int maxFrames = 256;
+
+        @PluginBuilderAttribute
+        private int maxPayloadBytes = 128 * 1024;
+
+        @PluginBuilderAttribute
+        private int rateLimit = 600;
+
+        @PluginBuilderAttribute
+        private int fingerprintRateLimit = 60;
+
+        @PluginBuilderAttribute
+        private long closeTimeoutMillis = 5000;
+
+        @PluginBuilderAttribute
+        private boolean jmx = true;
+
+        @PluginBuilderAttribute
+        private String diagnosticLevel = DiagnosticLevel.OFF.name();
+
+        private HttpStrategy httpClient;
+
+        private boolean threaded = true;
+
+        public B setApiKey(final String apiKey) {
+            this.apiKey = apiKey;
+            return asBuilder();
+        }
+
+        /**
+         * @param level The lowest level reported, <code>WARN</code> by
+         * default.
+         */
+        public B setLevel(final Level level) {
+            this.level = level;
+            return asBuilder();
+        }
+
+        /**
+         * @param locationInfo Whether to report where events were logged
+         * from, as long as the logger includes the location. Off by
+         * default, as it is for async loggers.
+         */
+        public B setLocationInfo(final boolean locationInfo) {
+            this.locationInfo = locationInfo;
+            return asBuilder();
+        }
+
+        public B setQueueCapacity(final int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return asBuilder();
+        }
+
+        /**
+         * @param senders The number of threads sending bugs, 1 by default.
+         */
+        public B setSenders(final int senders) {
+            this.senders = senders;
+            return asBuilder();
+        }
+
+        /**
+         * @param virtualThreads Whether to send from virtual threads on
+         * Java 21 and later.
+         */
+        public B setVirtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return asBuilder();
+        }
+
+        public B setOverflowPolicy(final String overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return asBuilder();
+        }
+
+        public B setBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+            return asBuilder();
+        }
+
+        public B setSpoolDirectory(final String spoolDirectory) {
+            this.spoolDirectory = spoolDirectory;
+            return asBuilder();
+        }
+
+        public B setSamplingThreshold(final int samplingThreshold) {
+            this.samplingThreshold = samplingThreshold;
+            return asBuilder();
+        }
+
+        public B setCompressionThreshold(final int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+            return asBuilder();
+        }
+
+        public B setMaxMessageBytes(final int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+            return asBuilder();
+        }
+
+        public B setMaxFrames(final int maxFrames) {
+            this.maxFrames = maxFrames;
+            return asBuilder();
+        }
+
+        public B setMaxPayloadBytes(final int maxPayloadBytes) {
+            this.maxPayloadBytes = maxPayloadBytes;
+            return asBuilder();
+        }
+
+        public B setRateLimit(final int rateLimit) {
+            this.rateLimit = rateLimit;
+            return asBuilder();
+        }
+
+        public B setFingerprintRateLimit(final int fingerprintRateLimit) {
+            this.fingerprintRateLimit = fingerprintRateLimit;
+            return asBuilder();
+        }
+
+        public B setCloseTimeoutMillis(final long closeTimeoutMillis) {
+            this.closeTimeoutMillis = closeTimeoutMillis;
+            return asBuilder();
+        }
+
+        public B setJmx(final boolean jmx) {
+            this.jmx = jmx;
+            return asBuilder();
+        }
+
+        /**
+         * @param diagnosticLevel How much to say about what the appender is
+         * doing on standard error, <code>OFF</code> by default.
+         */
+        public B setDiagnosticLevel(final String diagnosticLevel) {
+            this.diagnosticLevel = diagnosticLevel;
+            return asBuilder();
+        }
+
+        /**
+         * @param httpClient The client to send bugs with, which the caller
+         * shuts down. By default the appender creates its own.
+         */
+        public B setHttpClient(final HttpStrategy httpClient) {
+            this.httpClient = httpClient;
+            return asBuilder();
+        }
+
+        /**
+         * @param threaded Whether or not to thread submissions to
+         * Exceptional. Not threading can be useful for testing in
+         * particular.
+         */
+        public B setThreaded(final boolean threaded) {
+            this.threaded = threaded;
+            return asBuilder();
+        }
+
+        public ExceptionalLog4j2Appender build() {
+            final ExceptionalReporter reporter = httpClient == null ?
+                new ExceptionalReporter(apiKey, null, threaded,
+                    new PooledHttpStrategy(), true) :
+                new ExceptionalReporter(apiKey, null, threaded, httpClient,
+                    false);
+            reporter.setQueueCapacity(queueCapacity);
+            reporter.setSenders(senders);
+            reporter.setVirtualThreads(virtualThreads);
+            reporter.setOverflowPolicy(overflowPolicy);
+            reporter.setBatchSize(batchSize);
+            reporter.setSpoolDirectory(spoolDirectory);
+            reporter.setSamplingThreshold(samplingThreshold);
+            reporter.setCompressionThreshold(compressionThreshold);
+            reporter.setMaxMessageBytes(maxMessageBytes);
+            reporter.setMaxFrames(maxFrames);
+            reporter.setMaxPayloadBytes(maxPayloadBytes);
+            reporter.setRateLimit(rateLimit);
+            reporter.setFingerprintRateLimit(fingerprintRateLimit);
+            reporter.setCloseTimeoutMillis(closeTimeoutMillis);
+            reporter.setJmx(jmx);
+            reporter.setDiagnosticLevel(diagnosticLevel);
+            return new ExceptionalLog4j2Appender(getName(), getFilter(),
+                isIgnoreExceptions(), reporter, level, locationInfo);
+        }
+    }
+
+    /**
+     * @return The reporter doing the work.
+     */
+    public ExceptionalReporter getReporter() {
+        return reporter;
+    }
+
+    public void append(final LogEvent event) {
+        if (reporter.accept(event.getLevel().isMoreSpecificThan(
+            reportingLevel))) {
+            reporter.report(snapshot(event, locationInfo));
+        }
+    }
+
+    /**
+     * Copies what's reported from an event that Log4j may reuse as soon as
+     * this returns. The message is formatted here, as a reusable message
+     * changes along with its event.
+     *
+     * @param event The event to copy.
+     * @param withLocation Whether to include the caller's location, if the
+     * event has it.
+     * @return The snapshot.
+     */
+    static EventSnapshot snapshot(final LogEvent event,
+        final boolean withLocation) {
+        // Asking an event that doesn't include its location for it walks
+        // the stack of this thread, which with async loggers isn't the one
+        // that logged it.
+        final StackTraceElement source =
+            withLocation && event.isIncludeLocation() ?
+                event.getSource() : null;
+        return EventSnapshot.of(event.getLoggerName(),
+            event.getLevel().name(), event.getTimeMillis(),
+            event.getThreadName(), event.getMessage().getFormattedMessage(),
+            event.getThrown(), source);
+    }
+
+    @Override
+    public void start() {
+        reporter.start(getName());
+        super.start();
+    }
+
+    /**
+     * Stops taking events and sends those already taken, giving up on any
+     * left after the timeout Log4j gives, or the close timeout if it gives
+     * none.
+     *
+     * @return <code>false</code> if any events were abandoned.
+     * @see ExceptionalReporter#close(long)
+     */
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        final boolean drained = reporter.close(timeout > 0 ? 
+            timeUnit.toMillis(timeout) : reporter.getCloseTimeoutMillis());
+        setStopped();
+        return drained;
+    }
+}
@@ -0,0 +1,134 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.ReusableSimpleMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class ExceptionalLog4j2AppenderTest {
+
+    private final List<String> bodies = new ArrayList<String>();
+
+    private final HttpStrategy http = new HttpStrategy() {
+        public HttpResponse execute(final HttpGet request) {
+            throw new UnsupportedOperationException();
+        }
+
+        public HttpResponse execute(final HttpPost request)
+            throws IOException {
+            bodies.add(body(request));
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        }
+    };
+
+    @Test
+    public void testCopiesReusedEvents() throws Exception {
+        final ExceptionalLog4j2Appender appender = 
+            ExceptionalLog4j2Appender.newBuilder().setName("test")
+                .setApiKey("fake_key").setJmx(false).setHttpClient(http)
+                .build();
+        appender.getReporter().setDedupWindowMillis(0);
+        appender.start();
+
+        final ReusableSimpleMessage message = new ReusableSimpleMessage();
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName("org.example.Service");
+        event.setLevel(Level.ERROR);
+        event.setThreadName("worker-1");
+        event.setTimeMillis(1357000000000L);
+        message.set("first failure");
+        event.setMessage(message);
+        event.setThrown(new IOException("bad"));
+        appender.append(event);
+
+        // Log4j reuses the event and its message for the next one.
+        event.clear();
+        message.set("second failure");
+        event.setLoggerName("org.example.Other");
+        event.setLevel(Level.INFO);
+        event.setMessage(message);
+        appender.append(event);
+
+        appender.stop();
+        assertEquals(1, bodies.size());
+        final JSONObject json = (JSONObject) JSONValue.parse(bodies.get(0));
+        final JSONObject exception = (JSONObject) json.get("exception");
+        assertEquals("first failure", exception.get("message"));
+        final JSONObject env = (JSONObject) ((JSONObject) 
+            json.get("application_environment")).get("env");
+        assertEquals("ERROR", env.get("logLevel"));
+        assertEquals("worker-1", env.get("threadName"));
+        assertEquals(1L, appender.getReporter().getMetrics()
+            .getFilteredByLevelCount());
+    }
+
+    @Test
+    public void testStopKeepsToLog4jsTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpStrategy hung = new HttpStrategy() {
+            public HttpResponse execute(final HttpGet request) {
+                throw new UnsupportedOperationException();
+            }
+
+            public HttpResponse execute(final HttpPost request) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            }
+        };
+        final ExceptionalLog4j2Appender appender = 
+            ExceptionalLog4j2Appender.newBuilder().setName("test")
+                .setApiKey("fake_key").setJmx(false).setHttpClient(hung)
+                .setThreaded(true).setCloseTimeoutMillis(10000).build();
+        appender.start();
+        final MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName("org.example.Service");
+        event.setLevel(Level.ERROR);
+        event.setMessage(new SimpleMessage("hangs"));
+        event.setThrown(new IOException("bad"));
+        appender.append(event);
+
+        final long start = System.nanoTime();
+        try {
+            assertFalse(appender.stop(200, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start < 
+                TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * @return The body posted, gunzipped if it was sent compressed.
+     */
+    private static String body(final HttpPost request) throws IOException {
+        final Header encoding = request.getFirstHeader("Content-Encoding");
+        final InputStream content = request.getEntity().getContent();
+        return IOUtils.toString(encoding != null &&
+            "gzip".equals(encoding.getValue()) ?
+                new GZIPInputStream(content) : content, "UTF-8");
+    }
+}
@@ -0,0 +1,257 @@
+package org.lantern.exceptional4j;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Logback appender that sends data to Exceptional. Configured as, for
+ * example:
+ * <pre>
+ *     &lt;appender name="EXCEPTIONAL"
+ *         class="org.lantern.exceptional4j.ExceptionalLogbackAppender"&gt;
+ *       &lt;apiKey&gt;YOUR_API_KEY&lt;/apiKey&gt;
+ *       &lt;level&gt;ERROR&lt;/level&gt;
+ *     &lt;/appender&gt;
+ * </pre>
+ * The reporter is created when the appender starts, so anything not
+ * configured here can be set on {@link #getReporter()} after that.
+ */
+public class ExceptionalLogbackAppender
+    extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private volatile ExceptionalReporter reporter;
+
+    private String apiKey;
+
+    private Level reportingLevel = Level.WARN;
+
+    private boolean locationInfo;
+
+    private int queueCapacity = 1024;
+
+    private int senders = 1;
+
+    private boolean virtualThreads;
+
+    private String overflowPolicy = OverflowPolicy.DROP_NEWEST.name();
+
+    private int batchSize = 1;
+
+    private String spoolDirectory;
+
+    private int samplingThreshold = 0;
+
+    private int compressionThreshold = 1024;
+
+    private int maxMessageBytes = 8 * 1024;
+
+    private int maxFrames = 256;
+
+    private int maxPayloadBytes = 128 * 1024;
+
+    private int rateLimit = 600;
+
+    private int fingerprintRateLimit = 60;
+
+    private long closeTimeoutMillis = 5000;
+
+    private boolean jmx = true;
+
+    private String diagnosticLevel = DiagnosticLevel.OFF.name();
+
+    private HttpStrategy httpClient;
+
+    public void setApiKey(final String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    /**
+     * @param level The lowest level reported, <code>WARN</code> by default.
+     */
+    public void setLevel(final String level) {
+        this.reportingLevel = Level.toLevel(level, Level.WARN);
+    }
+
+    /**
+     * Sets whether to report where events were logged from. Logback walks
+     * the stack of the calling thread for that, so it's off by default.
+     *
+     * @param locationInfo Whether or not to capture the caller's location.
+     */
+    public void setLocationInfo(final boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setSenders(final int senders) {
+        this.senders = senders;
+    }
+
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public void setOverflowPolicy(final String overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setSpoolDirectory(final String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public void setSamplingThreshold(final int samplingThreshold) {
+        this.samplingThreshold = samplingThreshold;
+    }
+
+    public void setCompressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public void setMaxMessageBytes(final int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    public void setMaxFrames(final int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    public void setMaxPayloadBytes(final int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    public void setRateLimit(final int rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public void setFingerprintRateLimit(final int fingerprintRateLimit) {
+        this.fingerprintRateLimit = fingerprintRateLimit;
+    }
+
+    public void setCloseTimeoutMillis(final long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    public void setJmx(final boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    /**
+     * @param diagnosticLevel How much to say about what the appender is
+     * doing on standard error, <code>OFF</code> by default.
+     */
+    public void setDiagnosticLevel(final String diagnosticLevel) {
+        this.diagnosticLevel = diagnosticLevel;
+    }
+
+    /**
+     * @param httpClient The client to send bugs with, which the caller
+     * shuts down. By default the appender creates its own.
+     */
+    public void setHttpClient(final HttpStrategy httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * @return The reporter doing the work, or <code>null</code> until the
+     * appender has started.
+     */
+    public ExceptionalReporter getReporter() {
+        return reporter;
+    }
+
+    @Override
+    public void start() {
+        if (apiKey == null) {
+            addError("No API key provided for the appender named [" +
+                name + "].");
+            return;
+        }
+        final ExceptionalReporter r = httpClient == null ?
+            new ExceptionalReporter(apiKey) :
+            new ExceptionalReporter(apiKey, null, true, httpClient, false);
+        r.setQueueCapacity(queueCapacity);
+        r.setSenders(senders);
+        r.setVirtualThreads(virtualThreads);
+        r.setOverflowPolicy(overflowPolicy);
+        r.setBatchSize(batchSize);
+        r.setSpoolDirectory(spoolDirectory);
+        r.setSamplingThreshold(samplingThreshold);
+        r.setCompressionThreshold(compressionThreshold);
+        r.setMaxMessageBytes(maxMessageBytes);
+        r.setMaxFrames(maxFrames);
+        r.setMaxPayloadBytes(maxPayloadBytes);
+        r.setRateLimit(rateLimit);
+        r.setFingerprintRateLimit(fingerprintRateLimit);
+        r.setCloseTimeoutMillis(closeTimeoutMillis);
+        r.setJmx(jmx);
+        r.setDiagnosticLevel(diagnosticLevel);
+        r.start(getName());
+        this.reporter = r;
+        super.start();
+    }
+
+    /**
+     * Stops taking events and sends those already taken, giving up on any
+     * left after the close timeout.
+     *
+     * @see ExceptionalReporter#close()
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        final ExceptionalReporter r = this.reporter;
+        if (r != null) {
+            r.close();
+        }
+    }
+
+    @Override
+    protected void append(final ILoggingEvent event) {
+        if (reporter.accept(event.getLevel().isGreaterOrEqual(
+            reportingLevel))) {
+            reporter.report(snapshot(event, locationInfo));
+        }
+    }
+
+    /**
+     * Takes a snapshot of a Logback event.
+     *
+     * @param event The event to copy.
+     * @param withLocation Whether to include the caller's location. This is
+     * the expensive part, as Logback has to walk the stack of the calling
+     * thread.
+     * @return The snapshot.
+     */
+    static EventSnapshot snapshot(final ILoggingEvent event,
+        final boolean withLocation) {
+        final IThrowableProxy proxy = event.getThrowableProxy();
+        final Throwable throwable = proxy instanceof ThrowableProxy ?
+            ((ThrowableProxy) proxy).getThrowable() : null;
+        // Events read back from a socket only carry the rendered trace.
+        final String[] throwableStrRep = proxy != null && throwable == null ?
+            ThrowableProxyUtil.asString(proxy).split("\r?\n") : null;
+        final StackTraceElement[] callerData = withLocation ?
+            event.getCallerData() : null;
+        final Location li = callerData != null && callerData.length > 0 ?
+            new Location(callerData[0]) : null;
+        return new EventSnapshot(event.getLoggerName(),
+            event.getLevel().toString(), event.getTimeStamp(),
+            event.getThreadName(), event.getFormattedMessage(), throwable,
+            throwableStrRep,
+            li == null ? null : li.getClassName(),
+            li == null ? null : li.getMethodName(),
+            li == null ? null : li.getFileName(),
+            li == null ? null : li.getLineNumber(), null, null);
+    }
+}
@@ -0,0 +1,96 @@
+package org.lantern.exceptional4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHttpResponse;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+
+public class ExceptionalLogbackAppenderTest {
+
+    private final List<String> bodies = new ArrayList<String>();
+
+    private final HttpStrategy http = new HttpStrategy() {
+        public HttpResponse execute(final HttpGet request) {
+            throw new UnsupportedOperationException();
+        }
+
+        public HttpResponse execute(final HttpPost request)
+            throws IOException {
+            bodies.add(body(request));
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        }
+    };
+
+    @Test
+    public void testReportsErrors() throws Exception {
+        final LoggerContext context = new LoggerContext();
+        final Logger logger = context.getLogger(getClass());
+        final ExceptionalLogbackAppender appender = 
+            new ExceptionalLogbackAppender();
+        appender.setContext(context);
+        appender.setName("test");
+        appender.setApiKey("fake_key");
+        appender.setLevel("ERROR");
+        appender.setLocationInfo(true);
+        appender.setJmx(false);
+        appender.setHttpClient(http);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        logger.addAppender(appender);
+        logger.warn("just a warning");
+        logger.error("failed {}", "twice", new IOException("bad"));
+        appender.stop();
+
+        assertEquals(1, bodies.size());
+        final JSONObject json = (JSONObject) JSONValue.parse(bodies.get(0));
+        final JSONObject exception = (JSONObject) json.get("exception");
+        assertEquals("failed twice", exception.get("message"));
+        final JSONArray backtrace = (JSONArray) exception.get("backtrace");
+        assertEquals("java.io.IOException: bad", backtrace.get(0));
+        assertEquals(getClass().getName(), exception.get("exception_class"));
+        final JSONObject env = (JSONObject) ((JSONObject) 
+            json.get("application_environment")).get("env");
+        assertEquals("ERROR", env.get("logLevel"));
+        assertEquals("testReportsErrors", env.get("methodName"));
+    }
+
+    @Test
+    public void testNeedsApiKey() {
+        final ExceptionalLogbackAppender appender = 
+            new ExceptionalLogbackAppender();
+        appender.setContext(new LoggerContext());
+        appender.start();
+        assertFalse(appender.isStarted());
+        assertNull(appender.getReporter());
+    }
+
+    /**
+     * @return The body posted, gunzipped if it was sent compressed.
+     */
+    private static String body(final HttpPost request) throws IOException {
+        final Header encoding = request.getFirstHeader("Content-Encoding");
+        final InputStream content = request.getEntity().getContent();
+        return IOUtils.toString(encoding != null &&
+            "gzip".equals(encoding.getValue()) ?
+                new GZIPInputStream(content) : content, "UTF-8");
+    }
+}
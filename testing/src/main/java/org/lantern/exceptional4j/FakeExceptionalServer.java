@@ -0,0 +1,384 @@
+package org.lantern.exceptional4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stands in for Exceptional on a local port, so delivery can be tested
+ * without an API key or the network. It takes what the real service does,
+ * protocol version 6: a JSON bug, or an array of them, gzipped or not,
+ * posted to <code>/api/errors</code> with the API key and protocol version
+ * in the query string. Anything else is answered with a 400 and counted as
+ * rejected.
+ * <p>
+ * Faults can be injected for the next few requests or at random for a
+ * share of them, and every response can be delayed:
+ * <pre>
+ *     final FakeExceptionalServer server = new FakeExceptionalServer();
+ *     appender.setEndpoint(server.getEndpoint());
+ *     server.inject(FakeExceptionalServer.Fault.RATE_LIMIT, 2);
+ *     server.setFaultRate(FakeExceptionalServer.Fault.RESET, 0.01);
+ *     server.setLatencyMillis(50);
+ * </pre>
+ * The server keeps counts rather than what it's sent, so it can run for as
+ * long as a soak test does. Give it a {@link Listener} to see each bug.
+ */
+@SuppressWarnings("restriction")
+public final class FakeExceptionalServer {
+
+    /**
+     * Ways a request can fail.
+     */
+    public enum Fault {
+
+        /**
+         * Answers with a 500.
+         */
+        ERROR,
+
+        /**
+         * Answers with a 429 and a <code>Retry-After</code> header.
+         */
+        RATE_LIMIT,
+
+        /**
+         * Closes the connection without answering.
+         */
+        RESET
+    }
+
+    /**
+     * Called with each bug accepted, on one of the server's threads.
+     */
+    public interface Listener {
+
+        void received(JSONObject bug);
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private volatile long latencyMillis;
+
+    private volatile int retryAfterSeconds;
+
+    private volatile Listener listener;
+
+    private final Map<Fault, AtomicInteger> injected =
+        Collections.synchronizedMap(new EnumMap<Fault, AtomicInteger>(
+            Fault.class));
+
+    private final Map<Fault, Double> rates =
+        Collections.synchronizedMap(new EnumMap<Fault, Double>(Fault.class));
+
+    private final Map<Fault, AtomicLong> faults =
+        Collections.synchronizedMap(new EnumMap<Fault, AtomicLong>(
+            Fault.class));
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong bugs = new AtomicLong();
+
+    private final Random random = new Random();
+
+    /**
+     * Starts a server on a free port on the loopback interface.
+     */
+    public FakeExceptionalServer() throws IOException {
+        for (final Fault fault : Fault.values()) {
+            injected.put(fault, new AtomicInteger());
+            faults.put(fault, new AtomicLong());
+        }
+        this.server =
+            HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Enough threads that latency doesn't hold up other connections.
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(executor);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange)
+                throws IOException {
+                try {
+                    FakeExceptionalServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.start();
+    }
+
+    /**
+     * @return The URL to post bugs to.
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() +
+            "/api/errors";
+    }
+
+    /**
+     * @param latencyMillis How long to wait before answering each request.
+     */
+    public void setLatencyMillis(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param retryAfterSeconds How long 429s ask the client to wait, 0 by
+     * default.
+     */
+    public void setRetryAfterSeconds(final int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Fails the next requests, before any random faults.
+     *
+     * @param fault How to fail them.
+     * @param count How many requests to fail.
+     */
+    public void inject(final Fault fault, final int count) {
+        injected.get(fault).addAndGet(count);
+    }
+
+    /**
+     * Fails a random share of requests.
+     *
+     * @param fault How to fail them.
+     * @param rate The share of requests, from 0 to 1.
+     */
+    public void setFaultRate(final Fault fault, final double rate) {
+        rates.put(fault, Double.valueOf(rate));
+    }
+
+    /**
+     * @return The number of requests received.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of requests answered with a 200.
+     */
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return The number of requests that weren't valid protocol 6 posts.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The number of bugs in the requests answered with a 200.
+     */
+    public long getBugCount() {
+        return bugs.get();
+    }
+
+    /**
+     * @return The number of requests failed with the given fault.
+     */
+    public long getFaultCount(final Fault fault) {
+        return faults.get(fault).get();
+    }
+
+    /**
+     * Waits for bugs to arrive.
+     *
+     * @param count The number of bugs to wait for, in all.
+     * @return Whether they arrived before the timeout.
+     */
+    public boolean awaitBugs(final long count, final long timeout,
+        final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (bugs.get() < count) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        // The body is read whatever happens, as a client sends it all
+        // before it looks for an answer.
+        final Object json = read(exchange);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (final InterruptedException e) {
+                return;
+            }
+        }
+        final Fault fault = nextFault();
+        if (fault != null) {
+            faults.get(fault).incrementAndGet();
+            switch (fault) {
+            case ERROR:
+                respond(exchange, 500, "Internal Server Error");
+                break;
+            case RATE_LIMIT:
+                exchange.getResponseHeaders().set("Retry-After",
+                    String.valueOf(retryAfterSeconds));
+                respond(exchange, 429, "Too Many Requests");
+                break;
+            case RESET:
+                // Closing the exchange before the headers are sent drops
+                // the connection.
+                break;
+            }
+            return;
+        }
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (json == null || !"POST".equals(exchange.getRequestMethod()) ||
+            !exchange.getRequestURI().getPath().equals("/api/errors") ||
+            query == null || !query.contains("api_key=") ||
+            !query.contains("protocol_version=6")) {
+            rejected.incrementAndGet();
+            respond(exchange, 400, "Bad Request");
+            return;
+        }
+        if (json instanceof JSONArray) {
+            for (final Object bug : (JSONArray) json) {
+                received((JSONObject) bug);
+            }
+        } else {
+            received((JSONObject) json);
+        }
+        accepted.incrementAndGet();
+        respond(exchange, 200, "{}");
+    }
+
+    /**
+     * @return The bug or array of bugs posted, or <code>null</code> if the
+     * body isn't JSON of either.
+     */
+    private static Object read(final HttpExchange exchange) {
+        final InputStream body = exchange.getRequestBody();
+        try {
+            final InputStream in = "gzip".equals(
+                exchange.getRequestHeaders().getFirst("Content-Encoding")) ?
+                    new GZIPInputStream(body) : body;
+            final Object json = new JSONParser().parse(
+                new InputStreamReader(in, "UTF-8"));
+            if (json instanceof JSONObject) {
+                return json;
+            }
+            if (json instanceof JSONArray) {
+                for (final Object bug : (JSONArray) json) {
+                    if (!(bug instanceof JSONObject)) {
+                        return null;
+                    }
+                }
+                return json;
+            }
+            return null;
+        } catch (final IOException e) {
+            return null;
+        } catch (final ParseException e) {
+            return null;
+        } finally {
+            drain(body);
+        }
+    }
+
+    private static void drain(final InputStream is) {
+        final byte[] buf = new byte[4096];
+        try {
+            while (is.read(buf) != -1) {
+                // Keep reading.
+            }
+            is.close();
+        } catch (final IOException e) {
+            // The connection's gone anyway.
+        }
+    }
+
+    private Fault nextFault() {
+        for (final Fault fault : Fault.values()) {
+            final AtomicInteger left = injected.get(fault);
+            while (true) {
+                final int n = left.get();
+                if (n <= 0) {
+                    break;
+                }
+                if (left.compareAndSet(n, n - 1)) {
+                    return fault;
+                }
+            }
+        }
+        final double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        double cumulative = 0;
+        for (final Fault fault : Fault.values()) {
+            final Double rate = rates.get(fault);
+            if (rate != null) {
+                cumulative += rate.doubleValue();
+                if (roll < cumulative) {
+                    return fault;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void received(final JSONObject bug) {
+        bugs.incrementAndGet();
+        final Listener l = this.listener;
+        if (l != null) {
+            l.received(bug);
+        }
+    }
+
+    private static void respond(final HttpExchange exchange,
+        final int statusCode, final String body) throws IOException {
+        final byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        final OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+}